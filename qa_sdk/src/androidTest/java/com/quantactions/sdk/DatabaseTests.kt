@@ -9,15 +9,29 @@
 
 package com.quantactions.sdk
 
+import androidx.room.Room
+import androidx.room.RoomDatabase
 import androidx.room.testing.MigrationTestHelper
+import androidx.sqlite.db.SimpleSQLiteQuery
 import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
+import com.quantactions.sdk.data.entity.StatisticEntity
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
 import com.quantactions.sdk.data.repository.*
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertTrue
+import net.sqlcipher.database.SQLiteDatabase.getBytes
+import net.sqlcipher.database.SupportFactory
+import org.junit.After
+import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
 import org.junit.runner.RunWith
 import java.io.IOException
+import java.util.concurrent.Executor
 
 @RunWith(AndroidJUnit4::class)
 class MigrationTest {
@@ -48,6 +62,47 @@ class MigrationTest {
         db = helper.runMigrationsAndValidate(TEST_DB, 11, true, MIGRATION_10_11)
     }
 
+    @Test
+    @Throws(IOException::class)
+    fun migrate12To13() {
+        var db = helper.createDatabase(TEST_DB, 12).apply {
+            close()
+        }
+        db = helper.runMigrationsAndValidate(TEST_DB, 13, true, MIGRATION_12_13)
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun migrate13To14() {
+        var db = helper.createDatabase(TEST_DB, 13).apply {
+            close()
+        }
+        db = helper.runMigrationsAndValidate(TEST_DB, 14, true, MIGRATION_13_14)
+    }
+
+    @Test
+    @Throws(IOException::class)
+    fun migrate14To15() {
+        var db = helper.createDatabase(TEST_DB, 14).apply {
+            // the same hour saved twice by two concurrent sessions
+            execSQL("INSERT INTO hourly_taps (date_tap, hour, num_taps, speed) VALUES ('2024-08-01', 10, 100, 2.0)")
+            execSQL("INSERT INTO hourly_taps (date_tap, hour, num_taps, speed) VALUES ('2024-08-01', 10, 50, 3.5)")
+            execSQL("INSERT INTO hourly_taps (date_tap, hour, num_taps, speed) VALUES ('2024-08-01', 11, 7, 1.0)")
+            close()
+        }
+        db = helper.runMigrationsAndValidate(TEST_DB, 15, true, MIGRATION_14_15)
+        db.query("SELECT hour, num_taps, speed FROM hourly_taps ORDER BY hour").use {
+            assertEquals(2, it.count)
+            it.moveToFirst()
+            assertEquals(10, it.getInt(0))
+            assertEquals(150, it.getInt(1))
+            assertEquals(3.5f, it.getFloat(2))
+            it.moveToNext()
+            assertEquals(11, it.getInt(0))
+            assertEquals(7, it.getInt(1))
+        }
+    }
+
     @Test
     @Throws(IOException::class)
     fun migrate7To8() {
@@ -171,4 +226,212 @@ class MigrationTest {
         }
         helper.runMigrationsAndValidate(TEST_DB, 8, true, MIGRATION_4_8)
     }
-}
\ No newline at end of file
+}
+
+/**
+ * [MVPDao.ingestMetric] against the previous write path of the analyses (one `INSERT OR REPLACE`
+ * transaction per chunk of 500 rows), on an encrypted database as in production.
+ */
+@RunWith(AndroidJUnit4::class)
+class MetricIngestTest {
+    private val TEST_DB = "ingest-test"
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private lateinit var db: MVPRoomDatabase
+    private lateinit var dao: MVPDao
+
+    @Before
+    fun open() {
+        context.deleteDatabase(TEST_DB)
+        db = Room.databaseBuilder(context, MVPRoomDatabase::class.java, TEST_DB)
+            .openHelperFactory(SupportFactory(getBytes("test".toCharArray())))
+            .build()
+        dao = db.mvpDao()
+    }
+
+    @After
+    fun close() {
+        db.close()
+        context.deleteDatabase(TEST_DB)
+    }
+
+    private fun threeYears(code: String, shift: Double = 0.0) = List(3 * 365) {
+        val timestamp = 1_600_000_000L + it * 86400L
+        StatisticEntity(code + timestamp, code, timestamp, it % 100 + shift, "Europe/Zurich", 0, Double.NaN, Double.NaN, 0.5)
+    }
+
+    @Test
+    fun ingestSkipsUnchangedRows() {
+        val code = "003-001-001-002"
+        val rows = threeYears(code)
+        assertEquals(rows.size, dao.ingestMetric(code, rows))
+        assertEquals(0, dao.ingestMetric(code, rows))
+        val changed = rows.mapIndexed { i, row -> if (i % 100 == 0) row.copy(value = -1.0) else row }
+        assertEquals(11, dao.ingestMetric(code, changed))
+        assertEquals(changed, dao.getMetricStatisticRows(code, 0, Long.MAX_VALUE).sortedBy { it.timestamp })
+    }
+
+    @Test
+    fun benchmarkStatTableIngest() {
+        val metrics = List(10) { "003-001-001-%03d".format(it) }
+
+        fun rate(rows: Int, nanos: Long) = rows * 1_000_000_000L / maxOf(nanos, 1L)
+
+        // first sync of three years, then a refresh with a few changed values
+        listOf(0.0, 0.0, 0.5).forEachIndexed { round, shift ->
+            val responses = metrics.map { threeYears(it, if (it == metrics[0]) shift else 0.0) }
+            val total = responses.sumOf { it.size }
+
+            var start = System.nanoTime()
+            responses.forEach { rows -> rows.chunked(500).forEach { dao.insertOrUpdateMetric(it) } }
+            val chunkedNanos = System.nanoTime() - start
+            db.clearAllTables()
+            if (round > 0) metrics.forEach { dao.ingestMetric(it, threeYears(it)) }
+
+            start = System.nanoTime()
+            val written = metrics.indices.sumOf { dao.ingestMetric(metrics[it], responses[it]) }
+            val ingestNanos = System.nanoTime() - start
+
+            println("stat_table round $round: chunked ${rate(total, chunkedNanos)} rows/s, ingestMetric ${rate(total, ingestNanos)} rows/s ($written rows written)")
+        }
+    }
+}
+
+/**
+ * EXPLAIN QUERY PLAN of the DAO queries run on every metric read, ingest and sync: none of them
+ * may fall back to a scan of the table (the indices are declared on the entities, see
+ * MIGRATION_13_14). The statements are the ones Room runs, recorded with a query callback.
+ */
+@RunWith(AndroidJUnit4::class)
+class QueryPlanTest {
+    private lateinit var db: MVPRoomDatabase
+    private lateinit var dao: MVPDao
+    private val statements = mutableListOf<Pair<String, List<Any?>>>()
+
+    @Before
+    fun open() {
+        db = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getInstrumentation().targetContext, MVPRoomDatabase::class.java)
+            .setQueryCallback(
+                RoomDatabase.QueryCallback { sql, args -> synchronized(statements) { statements.add(sql to args) } },
+                Executor { it.run() }
+            )
+            .build()
+        dao = db.mvpDao()
+    }
+
+    @After
+    fun close() {
+        db.close()
+    }
+
+    /** Statements of our tables run by [call], without those of Room's own bookkeeping. */
+    private fun statementsOf(call: suspend () -> Unit): List<Pair<String, List<Any?>>> {
+        synchronized(statements) { statements.clear() }
+        runBlocking { call() }
+        return synchronized(statements) {
+            statements.filter { (sql, _) ->
+                sql.trimStart().substringBefore(' ').uppercase() in setOf("SELECT", "UPDATE", "DELETE") &&
+                    !sql.contains("room_")
+            }
+        }
+    }
+
+    private fun plan(sql: String, args: List<Any?>): List<String> {
+        val details = mutableListOf<String>()
+        db.openHelper.readableDatabase.query(SimpleSQLiteQuery("EXPLAIN QUERY PLAN $sql", args.toTypedArray())).use { cursor ->
+            val detail = cursor.getColumnIndexOrThrow("detail")
+            while (cursor.moveToNext()) details.add(cursor.getString(detail))
+        }
+        return details
+    }
+
+    @Test
+    fun hotQueriesUseIndices() {
+        fun call(name: String, block: suspend () -> Unit) = name to block
+
+        val calls = listOf(
+            // metric reads
+            call("getMetricStatistic") { dao.getMetricStatistic("003-001-001-002", 0L, 1L).first() },
+            call("getTrend") { dao.getTrend("003-002-001-001", 0L, 1L).first() },
+            call("getMetricSleepSummary") { dao.getMetricSleepSummary(0L, 1L).first() },
+            call("getMetricStatisticString") { dao.getMetricStatisticString(0L, 1L).first() },
+            // ingest of the analyses
+            call("getMetricStatisticRows") { dao.getMetricStatisticRows("003-001-001-002", 0L, 1L) },
+            call("getTrendRows") { dao.getTrendRows("003-002-001-001", 0L, 1L) },
+            call("getMetricSleepSummaryRows") { dao.getMetricSleepSummaryRows(0L, 1L) },
+            call("getMetricStatisticStringRows") { dao.getMetricStatisticStringRows(0L, 1L) },
+            // pending rows probed before the sync
+            call("hasTapDataParsedToSync") { dao.hasTapDataParsedToSync() },
+            call("hasDeviceHealthParsedToSync") { dao.hasDeviceHealthParsedToSync() },
+            call("hasActivityToSync") { dao.hasActivityToSync() },
+            call("hasPendingJournalEntries") { dao.hasPendingJournalEntries() },
+            // sync
+            call("getTapDataParsedToSync") { dao.getTapDataParsedToSync() },
+            call("getTapDataParsedToSyncPage") { dao.getTapDataParsedToSyncPage(0, 100) },
+            call("updateTapDataParsedSyncStatus") { dao.updateTapDataParsedSyncStatus(listOf(0L, 1L)) },
+            call("removeInvalidTapSessionsFromStart") { dao.removeInvalidTapSessionsFromStart(listOf(0L, 1L)) },
+            call("getDeviceHealthParsedToSync") { dao.getDeviceHealthParsedToSync() },
+            call("updateDeviceHealthParsedSyncStatus") { dao.updateDeviceHealthParsedSyncStatus(listOf(0L, 1L)) },
+            call("getActivityToSync") { dao.getActivityToSync() },
+            call("updateActivitySyncStatus") { dao.updateActivitySyncStatus(listOf(0L, 1L)) },
+            call("getPendingJournalEntries") { dao.getPendingJournalEntries() },
+            call("getPendingAppCodes") { dao.getPendingAppCodes() },
+            // retention
+            call("pruneSyncedTapDataParsed") { dao.pruneSyncedTapDataParsed(0L, 100) },
+            call("pruneSyncedDeviceHealthParsed") { dao.pruneSyncedDeviceHealthParsed(0L, 100) },
+            call("pruneSyncedActivity") { dao.pruneSyncedActivity(0L, 100) },
+        )
+        // hasQuestionnaireResponses has no WHERE, its scan stops at the first row
+        calls.forEach { (name, call) ->
+            val recorded = statementsOf(call)
+            assertFalse("$name ran no statement", recorded.isEmpty())
+            recorded.forEach { (sql, args) ->
+                val details = plan(sql, args)
+                println("$name: $sql -> $details")
+                assertFalse("$name: $sql -> $details", details.any { it.startsWith("SCAN") })
+            }
+        }
+    }
+}
+
+/**
+ * Retention of the synced raw data, see [DatabaseCompactor].
+ */
+@RunWith(AndroidJUnit4::class)
+class DatabaseCompactorTest {
+    private val TEST_DB = "compactor-test"
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private lateinit var db: MVPRoomDatabase
+
+    @Before
+    fun open() {
+        context.deleteDatabase(TEST_DB)
+        db = Room.databaseBuilder(context, MVPRoomDatabase::class.java, TEST_DB).build()
+    }
+
+    @After
+    fun close() {
+        db.close()
+        context.deleteDatabase(TEST_DB)
+    }
+
+    @Test
+    fun pruneKeepsUnsyncedAndRecentRows() = runBlocking {
+        val dao = db.mvpDao()
+        // 2000 old synced events, 10 old unsynced and 10 recent synced ones
+        val rows = List(2000) { DeviceHealthParsed(0, "$it", "50", "SO", it.toLong(), it.toLong(), 1) } +
+            List(10) { DeviceHealthParsed(0, "$it", "50", "SO", it.toLong(), it.toLong(), 0) } +
+            List(10) { DeviceHealthParsed(0, "$it", "50", "SO", 10_000L + it, 10_000L + it, 1) }
+        db.runInTransaction { rows.forEach { dao.insertOrUpdateDeviceHealthParsed(it) } }
+
+        val compactor = DatabaseCompactor(db, batchSize = 300)
+        val before = compactor.size()
+        assertEquals(2000, compactor.prune(5_000L))
+        assertEquals(10, dao.getDeviceHealthParsedToSync().size)
+        assertEquals(0, compactor.prune(5_000L))
+
+        compactor.incrementalVacuum()
+        val after = compactor.size()
+        assertEquals(0L, after.freePages)
+        assertTrue("$before -> $after", after.bytes < before.bytes)
+    }
+}
@@ -27,19 +27,21 @@ import android.view.View
 import android.view.WindowManager
 import androidx.annotation.Keep
 import com.google.firebase.crashlytics.FirebaseCrashlytics
-import com.quantactions.sdk.data.entity.CodeOfApp
-import com.quantactions.sdk.data.entity.HourlyTapsEntity
+import com.quantactions.sdk.data.repository.AppDictionary
 import com.quantactions.sdk.data.repository.MVPDao
 import com.quantactions.sdk.data.repository.MVPRoomDatabase.Companion.getDatabase
 import com.quantactions.sdk.data.repository.TapDataParsed
-import kotlinx.coroutines.DelicateCoroutinesApi
+import com.quantactions.sdk.data.repository.TapSessionCodec
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
 import timber.log.Timber
-import java.text.SimpleDateFormat
 import java.time.Instant
-import java.util.Calendar
+import java.time.LocalDateTime
+import java.time.format.DateTimeFormatter
+import java.time.format.DecimalStyle
 import java.util.Locale
 import java.util.TimeZone
-import java.util.Vector
 
 /**
  * This private class is called from the public ReadingService.class
@@ -48,10 +50,17 @@ import java.util.Vector
  */
 internal class Actuator private constructor() {
     private var layerView: CustomTouchView? = null
-    private var logs: Vector<EntryLog> = Vector()
+    private val tapBuffer = TapBuffer()
     private var startTime: Long = 0
     private lateinit var mvpDao: MVPDao
+    // I save in the database the name of all the Apps used. In this way I can save in the file
+    // only the code of the app and add the name corresponding to the code to the HEADER of the Data sent
+    // This is just a way to compress the recordings data.
+    private lateinit var appDictionary: AppDictionary
     private lateinit var usm: UsageStatsManager
+    private lateinit var appContext: Context
+    private val sessionScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val sessions = SessionPipeline<Session>(sessionScope) { saveSession(it) }
     var added: Boolean = false
 
     @Keep
@@ -72,10 +81,11 @@ internal class Actuator private constructor() {
                 if (instance == null) {
                     instance = Actuator()
                     INSTANCE = instance
-                    instance.logs = Vector()
                     instance.addView(context)
                     instance.mvpDao = getDatabase(context).mvpDao()
+                    instance.appDictionary = AppDictionary.getInstance(instance.mvpDao)
                     instance.usm = context.getSystemService(Context.USAGE_STATS_SERVICE) as UsageStatsManager
+                    instance.appContext = context.applicationContext
                 } else {
                     instance.addView(context)
                 }
@@ -171,63 +181,60 @@ internal class Actuator private constructor() {
 
     fun startSession(time: Long) {
         startTime = time
-        logs = Vector()
+        tapBuffer.clear()
     }
 
-    class AppUsageEvent(var packageName: String, var eventTime: Long)
+    /** A session closed at screen off, with its taps already out of the [TapBuffer]. */
+    private class Session(val startTime: Long, val timeStop: Long, val taps: TapBuffer.Snapshot)
 
-    @DelicateCoroutinesApi
-    suspend fun saveSession(timeStop: Long, context: Context) {
+    /** Queue depth and save latency of the sessions waiting to be saved. */
+    val sessionStats: SessionPipeline.Stats
+        get() = sessions.stats
+
+    /**
+     * Closes the current session and queues it for saving. The taps are taken out of the buffer
+     * here, on the thread that receives the screen events, so that the next [startSession] can
+     * never clear taps of a session that is not saved yet.
+     */
+    fun endSession(timeStop: Long) {
+        sessions.submit(Session(startTime, timeStop, tapBuffer.drain()))
+    }
+
+    private fun saveSession(session: Session) {
 
         val tic = Instant.now().toEpochMilli()
 
-        // query usage events from 1 second before start to 30 ms after stop
-        val usageEvents: UsageEvents = usm.queryEvents(startTime - 1000, timeStop + 30)
-
-        val recentAppUsages: MutableList<AppUsageEvent> =
-            java.util.ArrayList<AppUsageEvent>()
-
-        // go through every event and filter in only the activity resumed event i.e. app becoming
-        // visible
-        val event = UsageEvents.Event()
-        while (usageEvents.hasNextEvent()) {
-            usageEvents.getNextEvent(event)
-            if (event.eventType == UsageEvents.Event.ACTIVITY_RESUMED) {
-                recentAppUsages.add(
-                    AppUsageEvent(
-                        event.packageName,
-                        event.timeStamp
-                    )
-                )
+        val context = appContext
+        val startTime = session.startTime
+        val timeStop = session.timeStop
+        val taps = session.taps
+        val tapTimes = taps.timestamps
+
+        val nTaps = taps.size
+
+        // the foreground apps are only needed when there are taps to attribute
+        val events = ForegroundEvents()
+        if (nTaps > 0) {
+            // query usage events from 1 second before start to 30 ms after stop
+            val usageEvents: UsageEvents = usm.queryEvents(startTime - 1000, timeStop + 30)
+
+            // go through every event and filter in only the activity resumed event i.e. app becoming
+            // visible
+            val event = UsageEvents.Event()
+            while (usageEvents.hasNextEvent()) {
+                usageEvents.getNextEvent(event)
+                if (event.eventType == UsageEvents.Event.ACTIVITY_RESUMED) {
+                    events.add(event.timeStamp, event.packageName)
+                }
             }
         }
 
         // add the stop event to make sure the taps after the last activity resume event can be
         // assigned correctly
-        recentAppUsages.add(AppUsageEvent(
-            "NULL",
-            timeStop
-        ))
-
-        // Sort the list by event time
-        recentAppUsages.sortWith { o1, o2 ->
-            o1.eventTime.compareTo(o2.eventTime)
-        }
-
-        val nEvents = recentAppUsages.size
-
-        var tapsCounter = 0
-        val nTaps = logs.size
-
-        for (i in 0 until nEvents - 1) {
-            val thisEvent = recentAppUsages[i]
-            val nextEventTime = recentAppUsages[i + 1].eventTime
+        events.add(timeStop, "NULL")
+        events.sort()
 
-            while (tapsCounter < nTaps && logs[tapsCounter].timeStamp < nextEventTime) {
-                logs[tapsCounter].top3[0] = thisEvent.packageName
-                tapsCounter++
-            }
-        }
+        val appSlots = TapAttribution.attribute(events.times, events.apps, events.size, tapTimes)
 
         //BATTERY
         val intentFilter = IntentFilter(Intent.ACTION_BATTERY_CHANGED)
@@ -253,38 +260,34 @@ internal class Actuator private constructor() {
 
         try {
 
-            val currentList = mvpDao.getListOfApps().toMutableList()
-
-            val allAppIds0 = ArrayList<Int>()
-            val allAppIds1 = ArrayList<Int>()
-            val allAppIds2 = ArrayList<Int>()
-            val allTaps = ArrayList<Long>()
-            val allOrient = ArrayList<Int>()
-
-            // this logs!! is unsafe
-            logs.map { entry ->
-                val currentCodes = entry.top3.map { app ->
-                    val appId = currentList.find { it.appName == app }?.id
-                    if (appId != null) {
-                        appId
-                    } else {
-                        val newId = putAppInDB(app)
-                        currentList.add(CodeOfApp(newId, app, 0))
-                        newId
-                    }
+            // app ids are resolved once per package rather than once per tap, the apps seen
+            // for the first time are added to code_of_app in one batch
+            val packageIds = IntArray(events.packages.size) { TapBuffer.NO_APP }
+            var nullId = TapBuffer.NO_APP
+            if (nTaps > 0) {
+                val used = BooleanArray(events.packages.size)
+                for (column in appSlots) for (app in column) if (app != TapBuffer.NO_APP) used[app] = true
+                val names = mutableListOf("NULL")
+                for (app in used.indices) if (used[app]) names.add(events.packages[app])
+                val ids = appDictionary.idsOf(names)
+                nullId = ids[0]
+                var k = 1
+                for (app in used.indices) if (used[app]) packageIds[app] = ids[k++]
+            }
+            // the slots become app ids in place
+            for (column in appSlots) {
+                for (i in 0 until nTaps) {
+                    val app = column[i]
+                    column[i] = if (app == TapBuffer.NO_APP) nullId else packageIds[app]
                 }
-                allAppIds0.add(currentCodes[0])
-                allAppIds1.add(currentCodes[1])
-                allAppIds2.add(currentCodes[2])
-                allTaps.add(entry.timeStamp)
-                allOrient.add(if (entry.orientation == "P") 1 else 0)
             }
-
-            val tapsSession = allTaps.size
+            val allOrient = IntArray(nTaps) {
+                if (taps.orientations[it] == TapBuffer.ORIENTATION_PORTRAIT) 1 else 0
+            }
 
             val startTime2 = if (startTime == 0L) {
-                if (allTaps.size > 0) {
-                    allTaps[0]
+                if (nTaps > 0) {
+                    tapTimes[0]
                 } else {
                     timeStop
                 }
@@ -293,23 +296,25 @@ internal class Actuator private constructor() {
             mvpDao.insertOrUpdateTapDataParsed(
                 TapDataParsed(
                     0,
-                    allTaps.toString(),
+                    "",
                     startTime2,
                     timeStop,
-                    allOrient.toString(),
-                    allAppIds0.toString(),
-                    allAppIds1.toString(),
-                    allAppIds2.toString(),
-                    tapsSession + 0L,
-                    if (tapsSession > 1) allTaps.last() - allTaps.first() else 0L,
+                    "",
+                    "",
+                    "",
+                    "",
+                    nTaps + 0L,
+                    if (nTaps > 1) tapTimes.last() - tapTimes.first() else 0L,
                     timeZone,
                     "$charging",
-                    0
+                    0,
+                    tapsBlob = TapSessionCodec.encodeTimestamps(tapTimes),
+                    orientationsBlob = TapSessionCodec.encodeOrientations(allOrient),
+                    appIdsBlob = TapSessionCodec.encodeAppIds(appSlots[0], appSlots[1], appSlots[2])
                 )
             )
 
-            addTapsDB(allTaps.size, allTaps.speed())
-            logs = Vector()
+            addTapsDB(nTaps, tapTimes.speed())
         } catch (e: Exception) {
             try {
                 FirebaseCrashlytics.getInstance().recordException(e)
@@ -318,7 +323,7 @@ internal class Actuator private constructor() {
             }
             e.printStackTrace()
         }
-        Log.i("ReadingService","Saving session: ${Instant.now().toEpochMilli() - tic} ms")
+        Log.i("ReadingService","Saving session: ${Instant.now().toEpochMilli() - tic} ms, ${sessions.stats.queueDepth - 1} waiting")
     }
 
     private val timeZone: String
@@ -327,97 +332,75 @@ internal class Actuator private constructor() {
             return timezone.id
         }
 
+    // date_tap is read back formatted with the default locale (see TapsStats), the formatter is
+    // rebuilt only when the locale changes
+    @Volatile
+    private var dayFormatter: Pair<Locale, DateTimeFormatter>? = null
+
+    private fun dayFormatter(): DateTimeFormatter {
+        val locale = Locale.getDefault()
+        dayFormatter?.let { (cachedLocale, formatter) -> if (cachedLocale == locale) return formatter }
+        return DateTimeFormatter.ofPattern("yyyy-MM-dd", locale)
+            .withDecimalStyle(DecimalStyle.of(locale))
+            .also { dayFormatter = locale to it }
+    }
+
     @SuppressLint("LogNotTimber")
     private fun addTapsDB(effectiveTAPs: Int, speed: Float) {
         // Adding count of taps per day every
         // get day from last time step
-        val calendar = Calendar.getInstance()
-        val date = calendar.time
-        val hour = calendar[Calendar.HOUR_OF_DAY]
-        val sdf = SimpleDateFormat("yyyy-MM-dd", Locale.getDefault())
-        val currentDate = sdf.format(date)
+        val now = LocalDateTime.now()
+        val hour = now.hour
+        val currentDate = now.format(dayFormatter())
 
         // there is something we should update
         // check speed
         if (speed > 0) Log.i("ReadingService","Saving session: $effectiveTAPs taps")
         else Log.i("ReadingService","Saving session: $effectiveTAPs taps")
 
-        val currentTaps = mvpDao.getTapsInDateAndHour(currentDate, hour)
-
-        if (currentTaps != null) {
-
-            val updatedEntry: HourlyTapsEntity = if (speed > currentTaps.speed) {
-                HourlyTapsEntity(
-                    currentTaps.id,
-                    currentDate,
-                    hour,
-                    currentTaps.taps + effectiveTAPs,
-                    speed
-                )
-            } else {
-                HourlyTapsEntity(
-                    currentTaps.id,
-                    currentDate,
-                    hour,
-                    currentTaps.taps + effectiveTAPs,
-                    currentTaps.speed
-                )
-            }
-            mvpDao.insertOrUpdateHourlyTapsEntity(listOf(updatedEntry))
-        } else {
-            // New day!
-            mvpDao.insertOrUpdateHourlyTapsEntity(
-                listOf(HourlyTapsEntity(0, currentDate, hour, effectiveTAPs, speed))
-            )
-        }
-
+        // single statement pair in one transaction, concurrent sessions of the same hour add up
+        // instead of overwriting each other
+        mvpDao.addHourlyTaps(currentDate, hour, effectiveTAPs, speed)
     }
 
-    private fun List<Long>.speed(): Float {
-        val diff = mutableListOf<Long>()
+    private fun LongArray.speed(): Float {
         return if (this.size > 1) {
+            var minDiff = Long.MAX_VALUE
             for (i in 1 .. this.indices.last) {
-                diff.add(this[i] - this[i - 1])
+                val diff = this[i] - this[i - 1]
+                if (diff < minDiff) minDiff = diff
             }
-            1.0f / (diff.minOrNull() ?: 1)
+            1.0f / minDiff
         } else 0f
     }
 
-    private fun putAppInDB(appName: String): Int {
-        // I save in the database the name of all the Apps used. In this way I can save in the file
-        // only the code of the app and add the name corresponding to the code to the HEADER of the Data sent
-        // This is just a way to compress the recordings data.
-        return mvpDao.insertOrUpdateAppCode(listOf(CodeOfApp(0, appName, 0)))[0].toInt()
-    }
-
     private inner class CustomTouchView  // This is the special view that listen for all the taps happening on the screen.
     // Starting from Honey Comb is not possible to get information about position,size,etc of a
     // tap that happened outside of the view itself. This is a security measure to avoid Tap-jacking.
     // that is why we save this information only if the phone is old enough.
         (context: Context?) : View(context) {
+
+        // orientation is cached here and refreshed on configuration changes so that the touch
+        // path does not need to go through the resources
+        private var orientation: Byte = resources.configuration.toTapOrientation()
+
+        override fun onConfigurationChanged(newConfig: Configuration) {
+            super.onConfigurationChanged(newConfig)
+            orientation = newConfig.toTapOrientation()
+        }
+
         @SuppressLint("ClickableViewAccessibility")
         override fun onTouchEvent(event: MotionEvent): Boolean {
             super.onTouchEvent(event)
-            val time = Instant.now().toEpochMilli()
-            logs.add(
-                EntryLog(
-                    time, arrayOf("NULL", "NULL", "NULL"), context
-                )
-            )
+            tapBuffer.record(System.currentTimeMillis(), orientation)
             return false // Return false for other touch events
         }
     }
 
-    private inner class EntryLog(
-        val timeStamp: Long,
-        var top3: Array<String>,
-        context: Context
-    ) {
-        var orientation: String = when (context.resources.configuration.orientation) {
-            Configuration.ORIENTATION_LANDSCAPE -> "L"
-            Configuration.ORIENTATION_PORTRAIT -> "P"
-            else -> "-"
-        }
+    private fun Configuration.toTapOrientation(): Byte = when (orientation) {
+        Configuration.ORIENTATION_LANDSCAPE -> TapBuffer.ORIENTATION_LANDSCAPE
+        Configuration.ORIENTATION_PORTRAIT -> TapBuffer.ORIENTATION_PORTRAIT
+        else -> TapBuffer.ORIENTATION_UNDEFINED
     }
 
 }
\ No newline at end of file
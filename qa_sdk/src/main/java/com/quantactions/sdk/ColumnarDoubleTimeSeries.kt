@@ -0,0 +1,358 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import androidx.annotation.Keep
+import java.lang.Double.NaN
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneId
+import java.time.ZonedDateTime
+
+/**
+ * Lazy [ZonedDateTime] view over a sorted array of epoch seconds in a single [zoneId].
+ * Every element is only created the first time it is read and then kept.
+ * @suppress
+ */
+internal class EpochSecondTimestamps(
+    val epochSeconds: LongArray,
+    val zoneId: ZoneId
+) : AbstractList<ZonedDateTime>(), RandomAccess, SortedTimestamps {
+
+    private val cache = arrayOfNulls<ZonedDateTime>(epochSeconds.size)
+
+    override val size: Int
+        get() = epochSeconds.size
+
+    override fun get(index: Int): ZonedDateTime {
+        return cache[index] ?: ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds[index]), zoneId)
+            .also { cache[index] = it }
+    }
+}
+
+/**
+ * Alternative to [TimeSeries.DoubleTimeSeries] that stores its columns in primitive arrays:
+ * values, confidence intervals and confidence are [DoubleArray]s and the timestamps are epoch
+ * seconds in a single [zoneId]. The list properties of [ManageTimeSeries] are views over the arrays
+ * (values are boxed when read, [ZonedDateTime]s are created when read), and the operations work
+ * on the arrays directly so no boxed lists are created along the way.
+ *
+ * The list properties can not be reassigned (only an in-place [fillMissingDays] replaces the
+ * columns). Use [ColumnarDoubleTimeSeries.of] or [TimeSeries.DoubleTimeSeries.toColumnar] to
+ * create one. The epoch seconds must be sorted in ascending order.
+ * @suppress
+ */
+@Keep
+internal class ColumnarDoubleTimeSeries(
+    private var valueArray: DoubleArray,
+    private var epochSecondArray: LongArray,
+    val zoneId: ZoneId,
+    private var confidenceIntervalLowArray: DoubleArray,
+    private var confidenceIntervalHighArray: DoubleArray,
+    private var confidenceArray: DoubleArray,
+) : TimeSeries<Double>(
+    valueArray.asList(),
+    EpochSecondTimestamps(epochSecondArray, zoneId),
+    confidenceIntervalLowArray.asList(),
+    confidenceIntervalHighArray.asList(),
+    confidenceArray.asList()
+) {
+
+    /** Epoch seconds of the timestamps, in ascending order. */
+    val epochSeconds: LongArray
+        get() = epochSecondArray
+
+    // set while replaceColumns updates the list views
+    private var replacingColumns = false
+
+    override fun checkReassignable() {
+        if (!replacingColumns) {
+            throw UnsupportedOperationException("The columns of a ColumnarDoubleTimeSeries can not be reassigned")
+        }
+    }
+
+    private fun columns() = Columns(
+        valueArray,
+        epochSecondArray,
+        confidenceIntervalLowArray,
+        confidenceIntervalHighArray,
+        confidenceArray,
+    )
+
+    private class Columns(
+        val values: DoubleArray,
+        val epochSeconds: LongArray,
+        val low: DoubleArray,
+        val high: DoubleArray,
+        val confidence: DoubleArray,
+    ) {
+        fun select(mask: BooleanArray, count: Int, zoneId: ZoneId): ColumnarDoubleTimeSeries {
+            val v = DoubleArray(count)
+            val t = LongArray(count)
+            val l = DoubleArray(count)
+            val h = DoubleArray(count)
+            val c = DoubleArray(count)
+            var j = 0
+            for (i in mask.indices) {
+                if (!mask[i]) continue
+                v[j] = values[i]; t[j] = epochSeconds[i]; l[j] = low[i]; h[j] = high[i]; c[j] = confidence[i]
+                j++
+            }
+            return ColumnarDoubleTimeSeries(v, t, zoneId, l, h, c)
+        }
+
+        fun range(from: Int, to: Int, zoneId: ZoneId) = ColumnarDoubleTimeSeries(
+            values.copyOfRange(from, to),
+            epochSeconds.copyOfRange(from, to),
+            zoneId,
+            low.copyOfRange(from, to),
+            high.copyOfRange(from, to),
+            confidence.copyOfRange(from, to),
+        )
+    }
+
+    /**
+     * This is an `in-place` operation if [inplace] is true. Use this function to fill missing days
+     * (the function adds NaNs) both in the future and in the past (up to the specified number of
+     * days in the past), see [TimeSeries.DoubleTimeSeries.fillMissingDays].
+     * @param rewindDays how many days to fill in in the past
+     * */
+    @Keep
+    override fun fillMissingDays(rewindDays: Int, inplace: Boolean): ColumnarDoubleTimeSeries {
+        return fillMissingDays(rewindDays, inplace, null)
+    }
+
+    override fun fillMissingDays(rewindDays: Int, inplace: Boolean, previous: DayGapIndex?): ColumnarDoubleTimeSeries {
+        val cols = columns()
+        val n = cols.values.size
+        val rules = zoneId.rules
+        val localDays = LongArray(n) {
+            val s = cols.epochSeconds[it]
+            Math.floorDiv(s + rules.getOffset(Instant.ofEpochSecond(s)).totalSeconds, SECONDS_PER_DAY)
+        }
+        val index = DayGapIndex.build(localDays, rewindDays, LocalDate.now(zoneId).toEpochDay(), previous)
+
+        val outSize = index.size
+        val v = DoubleArray(outSize) { NaN }
+        val t = LongArray(outSize)
+        val l = DoubleArray(outSize) { NaN }
+        val h = DoubleArray(outSize) { NaN }
+        val c = DoubleArray(outSize) { NaN }
+        for (k in 0 until outSize) {
+            val i = index.source[k]
+            if (i < 0) {
+                t[k] = startOfDay(index.days[k])
+                continue
+            }
+            v[k] = cols.values[i]; t[k] = cols.epochSeconds[i]; l[k] = cols.low[i]
+            h[k] = cols.high[i]; c[k] = cols.confidence[i]
+        }
+
+        val filled = if (inplace) {
+            replaceColumns(v, t, l, h, c)
+            this
+        } else {
+            ColumnarDoubleTimeSeries(v, t, zoneId, l, h, c)
+        }
+        filled.gapIndex = index
+        return filled
+    }
+
+    override fun copy(): ColumnarDoubleTimeSeries {
+        val copied = columns().range(0, size, zoneId)
+        copied.gapIndex = gapIndex
+        return copied
+    }
+
+    private fun startOfDay(epochDay: Long): Long =
+        LocalDate.ofEpochDay(epochDay).atStartOfDay(zoneId).toEpochSecond()
+
+    private fun replaceColumns(v: DoubleArray, t: LongArray, l: DoubleArray, h: DoubleArray, c: DoubleArray) {
+        valueArray = v
+        epochSecondArray = t
+        confidenceIntervalLowArray = l
+        confidenceIntervalHighArray = h
+        confidenceArray = c
+        replacingColumns = true
+        try {
+            values = v.asList()
+            timestamps = EpochSecondTimestamps(t, zoneId)
+            confidenceIntervalLow = l.asList()
+            confidenceIntervalHigh = h.asList()
+            confidence = c.asList()
+        } finally {
+            replacingColumns = false
+        }
+    }
+
+    @Keep
+    override fun takeLast(n: Int): ColumnarDoubleTimeSeries {
+        require(n >= 0) { "Requested element count $n is less than zero." }
+        return columns().range(maxOf(0, size - n), size, zoneId)
+    }
+
+    @Keep
+    override fun dropLast(n: Int): ColumnarDoubleTimeSeries {
+        require(n >= 0) { "Requested element count $n is less than zero." }
+        return columns().range(0, maxOf(0, size - n), zoneId)
+    }
+
+    /** [n] points of this series picked at random (all of them if it has fewer), in order. */
+    override fun getRandomSample(n: Int): ColumnarDoubleTimeSeries {
+        require(n >= 0) { "Requested element count $n is less than zero." }
+        val mask = BooleanArray(size)
+        val picked = (0 until size).shuffled().take(n)
+        picked.forEach { mask[it] = true }
+        return columns().select(mask, picked.size, zoneId)
+    }
+
+    override fun extractDoubleTimeSeries(flag: Int): TimeSeries.DoubleTimeSeries {
+        return toDoubleTimeSeries()
+    }
+
+    override fun extractMonthlyAverages(): ColumnarDoubleTimeSeries {
+        return aggregate(TimeBucket.Month)
+    }
+
+    override fun extractWeeklyAverages(): ColumnarDoubleTimeSeries {
+        return aggregate(TimeBucket.Week())
+    }
+
+    /**
+     * Aggregates the columns that fall in the same [bucket] of time using [reducer], NaNs are
+     * ignored, see [TimeSeries.DoubleTimeSeries.aggregate]. Buckets start at midnight in [zoneId].
+     * */
+    @Keep
+    fun aggregate(bucket: TimeBucket, reducer: Reducer = Reducer.MEAN): ColumnarDoubleTimeSeries {
+        val cols = columns()
+        val buckets = bucketize(cols.epochSeconds, zoneId, bucket)
+        val (v, l, h, c) = buckets.reduce(arrayOf(cols.values, cols.low, cols.high, cols.confidence), reducer)
+        return ColumnarDoubleTimeSeries(v, buckets.epochSeconds(zoneId), zoneId, l, h, c)
+    }
+
+    override fun dropna(): ColumnarDoubleTimeSeries {
+        return filterByValues { !it.isNaN() }
+    }
+
+    /**
+     * Same as [TimeSeries.DoubleTimeSeries.getPlaceholderTimeSeries], the days are the last year
+     * in the [zoneId] of this series.
+     * */
+    override fun getPlaceholderTimeSeries(bias: Double, deviation: Double): ColumnarDoubleTimeSeries {
+        val days = of(DoubleArray(0), LongArray(0), zoneId).fillMissingDays(366, false)
+        val v = DoubleArray(days.size) { placeholderScore[it] * deviation + bias }
+        return ColumnarDoubleTimeSeries(
+            v,
+            days.epochSecondArray,
+            zoneId,
+            DoubleArray(v.size) { v[it] - 5 },
+            DoubleArray(v.size) { v[it] + 5 },
+            days.confidenceArray,
+        )
+    }
+
+    /**
+     * This function helps filtering the [TimeSeries] for elements that follow a certain rule in the
+     * timestamps. Provide a lambda that receives a [ZonedDateTime] and return a boolean.
+     * */
+    @Suppress("unused")
+    @Keep
+    fun filterByTimestamps(filter: (ZonedDateTime) -> Boolean): ColumnarDoubleTimeSeries {
+        val ts = timestamps
+        val mask = BooleanArray(size)
+        var count = 0
+        for (i in mask.indices) if (filter(ts[i])) { mask[i] = true; count++ }
+        return columns().select(mask, count, zoneId)
+    }
+
+    /**
+     * This function helps filtering the [TimeSeries] for elements that follow a certain rule in the
+     * values. Provide a lambda that receives a [Double] and returns a boolean.
+     * */
+    @Suppress("unused")
+    @Keep
+    fun filterByValues(filter: (Double) -> Boolean): ColumnarDoubleTimeSeries {
+        val cols = columns()
+        val mask = BooleanArray(cols.values.size)
+        var count = 0
+        for (i in mask.indices) if (filter(cols.values[i])) { mask[i] = true; count++ }
+        return cols.select(mask, count, zoneId)
+    }
+
+    /**
+     * Converts this series to a [TimeSeries.DoubleTimeSeries] (this materializes all the boxed
+     * values and timestamps).
+     * */
+    @Keep
+    fun toDoubleTimeSeries(): TimeSeries.DoubleTimeSeries {
+        return TimeSeries.DoubleTimeSeries(
+            values.toList(),
+            timestamps.toList(),
+            confidenceIntervalLow.toList(),
+            confidenceIntervalHigh.toList(),
+            confidence.toList()
+        )
+    }
+
+    companion object {
+        private const val SECONDS_PER_DAY = 86_400L
+
+        /**
+         * Creates a [ColumnarDoubleTimeSeries] from primitive columns. The columns are sorted by
+         * timestamp if needed, the arrays are used as they are (not copied) when already sorted.
+         * */
+        @Keep
+        fun of(
+            values: DoubleArray,
+            epochSeconds: LongArray,
+            zoneId: ZoneId = ZoneId.systemDefault(),
+            confidenceIntervalLow: DoubleArray = DoubleArray(values.size) { NaN },
+            confidenceIntervalHigh: DoubleArray = DoubleArray(values.size) { NaN },
+            confidence: DoubleArray = DoubleArray(values.size) { NaN },
+        ): ColumnarDoubleTimeSeries {
+            val n = values.size
+            require(epochSeconds.size == n && confidenceIntervalLow.size == n &&
+                    confidenceIntervalHigh.size == n && confidence.size == n) {
+                "All provided sequences should be of equal length"
+            }
+            var sorted = true
+            for (i in 1 until n) if (epochSeconds[i] < epochSeconds[i - 1]) { sorted = false; break }
+            if (sorted) {
+                return ColumnarDoubleTimeSeries(values, epochSeconds, zoneId, confidenceIntervalLow, confidenceIntervalHigh, confidence)
+            }
+            val order = (0 until n).sortedBy { epochSeconds[it] }
+            return ColumnarDoubleTimeSeries(
+                DoubleArray(n) { values[order[it]] },
+                LongArray(n) { epochSeconds[order[it]] },
+                zoneId,
+                DoubleArray(n) { confidenceIntervalLow[order[it]] },
+                DoubleArray(n) { confidenceIntervalHigh[order[it]] },
+                DoubleArray(n) { confidence[order[it]] },
+            )
+        }
+    }
+}
+
+/**
+ * Converts a [TimeSeries.DoubleTimeSeries] into a [ColumnarDoubleTimeSeries], the timestamps
+ * are expressed in [zoneId].
+ * */
+@Keep
+internal fun TimeSeries<Double>.toColumnar(zoneId: ZoneId = ZoneId.systemDefault()): ColumnarDoubleTimeSeries {
+    if (this is ColumnarDoubleTimeSeries && this.zoneId == zoneId) return this
+    return ColumnarDoubleTimeSeries.of(
+        values.toDoubleArray(),
+        LongArray(size) { timestamps[it].toEpochSecond() },
+        zoneId,
+        confidenceIntervalLow.toDoubleArray(),
+        confidenceIntervalHigh.toDoubleArray(),
+        confidence.toDoubleArray(),
+    )
+}
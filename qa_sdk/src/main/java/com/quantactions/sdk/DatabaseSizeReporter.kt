@@ -0,0 +1,42 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import androidx.annotation.Keep
+
+/**
+ * Outcome of one run of the retention of the synced raw data (see [QA.setSyncedDataRetention]).
+ * @property rowsDeleted number of synced tap sessions, device health events and activity
+ * transitions deleted
+ * @property sizeBefore size of the database in bytes before deleting
+ * @property sizeAfter size of the database in bytes after the incremental vacuum
+ * @property durationMillis duration of the whole run
+ * @property fullVacuumMillis duration of the VACUUM that switches a database created by a previous
+ * version of the SDK to incremental vacuum, included in [durationMillis]. It only happens in the
+ * first run, 0 afterwards
+ */
+@Keep
+data class CompactionReport(
+    val rowsDeleted: Int,
+    val sizeBefore: Long,
+    val sizeAfter: Long,
+    val durationMillis: Long,
+    val fullVacuumMillis: Long,
+)
+
+/**
+ * Receives the [CompactionReport] of every retention run, e.g. to forward it to the analytics of
+ * the app. Called from a background thread.
+ */
+@Keep
+interface DatabaseSizeReporter {
+
+    fun onCompaction(report: CompactionReport)
+}
@@ -0,0 +1,223 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import androidx.annotation.Keep
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import java.time.LocalDate
+import java.time.ZoneId
+import java.time.ZonedDateTime
+
+/**
+ * Marker for timestamp lists that are sorted by construction, [TimeSeries] does not sort them again.
+ * @suppress
+ */
+internal interface SortedTimestamps
+
+/**
+ * Mapping from the positions of a gap-filled series (one entry per day, see
+ * [ManageTimeSeries.fillMissingDays]) to the points of the original series.
+ *
+ * [source] holds, for every position, the index of the original point or, for filled days,
+ * `-2 - anchor` where `anchor` is the original point whose time zone the filled day takes (-1 for
+ * the device time zone). [days] is the local epoch day of every position.
+ *
+ * The mapping only depends on the days of the original points, so when a new version of a series
+ * only adds trailing points it can be extended with [build] passing the previous mapping, instead
+ * of being computed again.
+ * @suppress
+ */
+internal class DayGapIndex private constructor(
+    val rewindDays: Int,
+    val today: Long,
+    private val realDays: LongArray,
+    val source: IntArray,
+    val days: LongArray,
+    private val lastRealPosition: Int,
+) {
+
+    val size: Int
+        get() = source.size
+
+    fun isFiller(position: Int) = source[position] < 0
+
+    fun anchorOf(position: Int) = -2 - source[position]
+
+    companion object {
+
+        /**
+         * @param realDays local epoch day of every point of the series, in ascending order
+         * @param today local epoch day of today
+         * @param previous mapping computed for a previous version of the series, reused if
+         * [realDays] only adds days after the ones of [previous]
+         */
+        fun build(realDays: LongArray, rewindDays: Int, today: Long, previous: DayGapIndex? = null): DayGapIndex {
+            val n = realDays.size
+            val source = IntBuilder()
+            val days = LongBuilder()
+
+            var start = 0
+            if (previous != null && previous.rewindDays == rewindDays && previous.realDays.isNotEmpty() &&
+                previous.realDays.size <= n && previous.realDays.isPrefixOf(realDays)
+            ) {
+                // everything up to the last original point of the previous mapping is still valid
+                val keep = previous.lastRealPosition + 1
+                source.addAll(previous.source, keep)
+                days.addAll(previous.days, keep)
+                start = previous.realDays.size
+            }
+
+            var lastRealPosition = if (start > 0) source.size - 1 else -1
+            if (n == 0) {
+                for (d in today - rewindDays + 1 until today) {
+                    source.add(-2 - (-1))
+                    days.add(d)
+                }
+            } else {
+                var prev = if (start > 0) realDays[start - 1] else realDays[0] - rewindDays
+                for (i in start until n) {
+                    val anchor = if (i > 0) i - 1 else 0
+                    for (d in prev + 1 until realDays[i]) {
+                        source.add(-2 - anchor)
+                        days.add(d)
+                    }
+                    source.add(i)
+                    days.add(realDays[i])
+                    lastRealPosition = source.size - 1
+                    prev = realDays[i]
+                }
+            }
+
+            // missing days up to today
+            if (days.size > 0) {
+                val anchor = if (n > 0) n - 1 else -1
+                for (d in days.last() + 1..today) {
+                    source.add(-2 - anchor)
+                    days.add(d)
+                }
+            }
+
+            return DayGapIndex(rewindDays, today, realDays.copyOf(), source.toArray(), days.toArray(), lastRealPosition)
+        }
+
+        /**
+         * Builds the mapping for [timestamps], days are the local dates in the zone of each
+         * timestamp and today is taken in the zone of the last point.
+         */
+        fun build(timestamps: List<ZonedDateTime>, rewindDays: Int, previous: DayGapIndex? = null): DayGapIndex {
+            val zone = timestamps.lastOrNull()?.zone ?: ZoneId.systemDefault()
+            return build(
+                LongArray(timestamps.size) { timestamps[it].toLocalDate().toEpochDay() },
+                rewindDays,
+                LocalDate.now(zone).toEpochDay(),
+                previous
+            )
+        }
+
+        private fun LongArray.isPrefixOf(other: LongArray): Boolean {
+            for (i in indices) if (this[i] != other[i]) return false
+            return true
+        }
+    }
+
+    private class IntBuilder {
+        var array = IntArray(16)
+        var size = 0
+        fun add(v: Int) {
+            if (size == array.size) array = array.copyOf(size * 2)
+            array[size++] = v
+        }
+        fun addAll(from: IntArray, count: Int) {
+            if (size + count > array.size) array = array.copyOf(maxOf(size + count, size * 2))
+            System.arraycopy(from, 0, array, size, count)
+            size += count
+        }
+        fun toArray() = array.copyOf(size)
+    }
+
+    private class LongBuilder {
+        var array = LongArray(16)
+        var size = 0
+        fun add(v: Long) {
+            if (size == array.size) array = array.copyOf(size * 2)
+            array[size++] = v
+        }
+        fun addAll(from: LongArray, count: Int) {
+            if (size + count > array.size) array = array.copyOf(maxOf(size + count, size * 2))
+            System.arraycopy(from, 0, array, size, count)
+            size += count
+        }
+        fun last() = array[size - 1]
+        fun toArray() = array.copyOf(size)
+    }
+}
+
+/**
+ * Gap-filled view over a column of a series: positions mapped to an original point read it from
+ * [original], filled days return [filler]. Nothing is copied.
+ * @suppress
+ */
+internal class GapFilledList<T>(
+    private val original: List<T>,
+    private val index: DayGapIndex,
+    private val filler: T,
+) : AbstractList<T>(), RandomAccess {
+
+    override val size: Int
+        get() = index.size
+
+    override fun get(index: Int): T {
+        val source = this.index.source[index]
+        return if (source >= 0) original[source] else filler
+    }
+}
+
+/**
+ * Gap-filled view over the timestamps of a series, the timestamps of the filled days (midnight in
+ * the zone of their anchor point) are created when read.
+ * @suppress
+ */
+internal class GapFilledTimestamps(
+    private val original: List<ZonedDateTime>,
+    private val index: DayGapIndex,
+) : AbstractList<ZonedDateTime>(), RandomAccess, SortedTimestamps {
+
+    private val cache = arrayOfNulls<ZonedDateTime>(index.size)
+
+    override val size: Int
+        get() = index.size
+
+    override fun get(index: Int): ZonedDateTime {
+        val source = this.index.source[index]
+        if (source >= 0) return original[source]
+        return cache[index] ?: run {
+            val anchor = this.index.anchorOf(index)
+            val zone = if (anchor >= 0) original[anchor].zone else ZoneId.systemDefault()
+            LocalDate.ofEpochDay(this.index.days[index]).atStartOfDay(zone)
+        }.also { cache[index] = it }
+    }
+}
+
+/**
+ * Applies [ManageTimeSeries.fillMissingDays] to every time series emitted by the flow (e.g. the
+ * flow returned by [QA.getMetric]). The day mapping of the previous emission is reused when a new
+ * emission only adds trailing points, so only the new part of the series is processed.
+ * @param rewindDays how many days to fill in in the past
+ * */
+@Keep
+fun <T> Flow<TimeSeries<T>>.fillMissingDays(rewindDays: Int): Flow<TimeSeries<T>> = flow {
+    var previous: DayGapIndex? = null
+    collect { series ->
+        val filled = series.fillMissingDays(rewindDays, false, previous)
+        previous = filled.gapIndex
+        emit(filled)
+    }
+}
@@ -405,6 +405,90 @@ class ManagePref2 private constructor(context: Context) : GenericPreferences {
         }
     }
 
+    /**
+     * Newest timestamp (in seconds) received from the analyses endpoint for the metric or trend
+     * with [code] of [identityId] in [participationId], 0 if it was never synced. Used to only
+     * request the months after it, a different identity or participation starts from scratch.
+     */
+    fun getMetricSyncedUpTo(identityId: String, participationId: String, code: String): Long {
+        return sharedPref.getLong("${METRIC_SYNCED_UP_TO}_${identityId}_${participationId}_$code", 0L)
+    }
+
+    fun saveMetricSyncedUpTo(identityId: String, participationId: String, code: String, timestamp: Long) {
+        sharedPref.edit {
+            putLong("${METRIC_SYNCED_UP_TO}_${identityId}_${participationId}_$code", timestamp)
+        }
+    }
+
+    /**
+     * Total number of metric and trend rows received from the analyses endpoint, and number of
+     * those that were new or different from the stored ones.
+     */
+    var metricRowsFetched: Long
+        get() = sharedPref.getLong(METRIC_ROWS_FETCHED, 0L)
+        set(newVal) {
+            sharedPref.edit {
+                putLong(METRIC_ROWS_FETCHED, newVal)
+            }
+        }
+
+    var metricRowsChanged: Long
+        get() = sharedPref.getLong(METRIC_ROWS_CHANGED, 0L)
+        set(newVal) {
+            sharedPref.edit {
+                putLong(METRIC_ROWS_CHANGED, newVal)
+            }
+        }
+
+    /**
+     * Total time (ns) spent writing the rows counted in [metricRowsFetched], i.e. the ingest rate
+     * of the metrics is `metricRowsFetched / metricIngestNanos`.
+     */
+    var metricIngestNanos: Long
+        get() = sharedPref.getLong(METRIC_INGEST_NANOS, 0L)
+        set(newVal) {
+            sharedPref.edit {
+                putLong(METRIC_INGEST_NANOS, newVal)
+            }
+        }
+
+    /**
+     * Identity and API key the cached reference responses belong to (see
+     * [com.quantactions.sdk.data.api.ReferenceCache]), "" if the cache was never used.
+     */
+    var referenceCacheOwner: String
+        get() = sharedPref.getString(REFERENCE_CACHE_OWNER, "")!!
+        set(newVal) {
+            sharedPref.edit {
+                putString(REFERENCE_CACHE_OWNER, newVal)
+            }
+        }
+
+    /**
+     * Days the raw recordings are kept once synced, see
+     * [com.quantactions.sdk.workers.CompactDatabaseWorker]. 0 (the default) keeps them forever,
+     * the retention is enabled by the app with [QA.setSyncedDataRetention].
+     */
+    var syncedDataRetentionDays: Int
+        get() = sharedPref.getInt(SYNCED_DATA_RETENTION_DAYS, DEFAULT_SYNCED_DATA_RETENTION_DAYS)
+        set(newVal) {
+            sharedPref.edit {
+                putInt(SYNCED_DATA_RETENTION_DAYS, newVal)
+            }
+        }
+
+    /**
+     * Report of the last sync cycle (rows sent, bytes sent and wall time of every stage), see
+     * [com.quantactions.sdk.workers.SyncReport].
+     */
+    var lastSyncReport: String
+        get() = sharedPref.getString(LAST_SYNC_REPORT, "") ?: ""
+        set(newVal) {
+            sharedPref.edit {
+                putString(LAST_SYNC_REPORT, newVal)
+            }
+        }
+
     companion object : SingletonHolder<ManagePref2, Context>(::ManagePref2){
         const val API_KEY                        = "api_key"
         const val APP_ID_NEEDED                  = "app_id_needed"
@@ -441,5 +525,13 @@ class ManagePref2 private constructor(context: Context) : GenericPreferences {
         const val DEVICE_SPECS                   = "device_specs"
         const val OLD_TO_NEW_API_MIGRATION_DONE  = "old_to_new_api_migration_done"
         const val HEALTHY_RANGES                 = "healthy_ranges"
+        const val METRIC_SYNCED_UP_TO            = "metric_synced_up_to"
+        const val METRIC_ROWS_FETCHED            = "metric_rows_fetched"
+        const val METRIC_ROWS_CHANGED            = "metric_rows_changed"
+        const val METRIC_INGEST_NANOS            = "metric_ingest_nanos"
+        const val SYNCED_DATA_RETENTION_DAYS     = "synced_data_retention_days"
+        const val DEFAULT_SYNCED_DATA_RETENTION_DAYS = 0
+        const val LAST_SYNC_REPORT               = "last_sync_report"
+        const val REFERENCE_CACHE_OWNER          = "reference_cache_owner"
     }
 }
@@ -15,6 +15,10 @@ import androidx.annotation.Keep
 import com.hadiyarajesh.flower_core.ApiResponse
 import com.hadiyarajesh.flower_core.ApiSuccessResponse
 import com.quantactions.sdk.data.api.ApiService
+import com.quantactions.sdk.data.api.adapters.prepareOneMonthOfMetric
+import com.quantactions.sdk.data.api.adapters.prepareOneMonthOfSleepMetric
+import com.quantactions.sdk.data.api.adapters.prepareOneMonthOfStringMetric
+import com.quantactions.sdk.data.api.responses.Analysis
 import com.quantactions.sdk.data.entity.SleepSummaryEntity
 import com.quantactions.sdk.data.entity.StatisticEntity
 import com.quantactions.sdk.data.entity.StatisticStringEntity
@@ -39,10 +43,10 @@ import java.time.ZonedDateTime
 @Keep
 sealed class Metric<P : TimestampedEntity, T>(
     val id: String,
-    val code: String,
+    public override val code: String,
     val eta: Int,
     internal var range: PopulationRange
-) : CanReturnCompiledTimeSeries<P, T> {
+) : CanReturnCompiledTimeSeries<P, T>, IngestsAnalyses<P> {
 
     /**
      * A series of detailed information for each night detected.
@@ -142,6 +146,14 @@ sealed class Metric<P : TimestampedEntity, T>(
             mvpDao.insertOrUpdateSleepSummary(statistics)
         }
 
+        override fun ingest(mvpDao: MVPDao, statistics: List<SleepSummaryEntity>): Int {
+            return mvpDao.ingestSleepSummary(statistics)
+        }
+
+        override fun fromAnalyses(analyses: List<Analysis>): List<SleepSummaryEntity> {
+            return analyses.flatMap { prepareOneMonthOfSleepMetric(it.code, it.frame) }
+        }
+
         @Keep
         override fun filterScoreBasedOnTimeZone(timeSeries: TimeSeries<SleepSummary>): TimeSeries<SleepSummary> {
             return timeSeries
@@ -237,6 +249,14 @@ sealed class Metric<P : TimestampedEntity, T>(
             mvpDao.insertOrUpdateStringMetric(statistics)
         }
 
+        override fun ingest(mvpDao: MVPDao, statistics: List<StatisticStringEntity>): Int {
+            return mvpDao.ingestStringMetric(statistics)
+        }
+
+        override fun fromAnalyses(analyses: List<Analysis>): List<StatisticStringEntity> {
+            return analyses.flatMap { prepareOneMonthOfStringMetric(it.code, it.frame) }
+        }
+
         override fun filterScoreBasedOnTimeZone(timeSeries: TimeSeries<ScreenTimeAggregate>): TimeSeries<ScreenTimeAggregate> {
             val evolution =
                 timeSeries.values.filterIndexed { i, _ ->
@@ -480,6 +500,10 @@ sealed class Metric<P : TimestampedEntity, T>(
             mvpDao.insertOrUpdateMetric(statistics)
         }
 
+        override fun ingest(mvpDao: MVPDao, statistics: List<StatisticEntity>): Int {
+            return mvpDao.ingestMetric(code, statistics)
+        }
+
         @Keep
         override fun filterScoreBasedOnTimeZone(timeSeries: TimeSeries<Double>): TimeSeries<Double> {
             return timeSeries
@@ -610,6 +634,14 @@ sealed class Metric<P : TimestampedEntity, T>(
             mvpDao.insertOrUpdateMetric(statistics)
         }
 
+        override fun ingest(mvpDao: MVPDao, statistics: List<StatisticEntity>): Int {
+            return mvpDao.ingestMetric(code, statistics)
+        }
+
+        override fun fromAnalyses(analyses: List<Analysis>): List<StatisticEntity> {
+            return analyses.flatMap { prepareOneMonthOfMetric(it.code, it.frame) }
+        }
+
         @Keep
         override fun filterScoreBasedOnTimeZone(timeSeries: TimeSeries<Double>): TimeSeries<Double> {
 
@@ -669,6 +701,23 @@ fun prepareFilter(code: String, from: String, to: String): String {
     return filter.stringify()
 }
 
+/**
+ * Same as [prepareFilter] for several metrics at once, the codes are matched with `inq`.
+ * @suppress
+ */
+fun prepareFilter(codes: List<String>, from: String, to: String): String {
+    if (codes.size == 1) return prepareFilter(codes[0], from, to)
+
+    val filter = mutableMapOf<String, Any>()
+    filter["where"] = mutableMapOf<String, Any>().apply {
+        put("code", mapOf("inq" to codes))
+        put("start", from)
+        put("end", to)
+    }
+    filter["limit"] = 1000 * codes.size
+    return filter.stringify()
+}
+
 fun prepareFilterCode(code: String): String {
 
     val filter = mutableMapOf<String, Any>()
@@ -713,3 +762,30 @@ interface CanReturnCompiledTimeSeries<P : TimestampedEntity, T> {
     ): ApiResponse<List<P>>
 
 }
+
+/**
+ * Metrics and trends whose rows are fetched from the analyses endpoint in batches and ingested
+ * by [com.quantactions.sdk.data.repository.MVPRepository.getStat].
+ * @suppress
+ */
+internal interface IngestsAnalyses<P : TimestampedEntity> {
+
+    /**
+     * Code of the metric or trend (e.g. XXX-XXX-XXX-XXX), used to request it from the analyses
+     * endpoint together with other metrics.
+     */
+    val code: String
+
+    /**
+     * Writes the rows of one analyses response in a single transaction, skipping the ones already
+     * stored with the same values (see [MVPDao.ingestMetric]).
+     * @return number of rows written
+     */
+    fun ingest(mvpDao: MVPDao, statistics: List<P>): Int
+
+    /**
+     * Converts the analyses returned for this metric (one [Analysis] per month) into rows
+     * to store, same as the adapter used by [CanReturnCompiledTimeSeries.getStat].
+     */
+    fun fromAnalyses(analyses: List<Analysis>): List<P>
+}
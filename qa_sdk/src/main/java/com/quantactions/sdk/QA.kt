@@ -100,6 +100,29 @@ class QA private constructor(
         qaPrivate.activityPermissionNotification = activityPermissionNotification
     }
 
+    /**
+     * Sets for how many days the raw data recorded by the SDK is kept on the device once it has
+     * been synced. **The retention is off by default** (0, the synced data is kept forever as in
+     * the previous versions of the SDK): once enabled, older synced data is deleted once a day
+     * while the device is idle and charging, and the database is compacted afterwards. The first
+     * compaction of an existing database rewrites the whole file once, see
+     * [CompactionReport.fullVacuumMillis].
+     * @param days number of days, 0 to disable the retention
+     * */
+    fun setSyncedDataRetention(days: Int) {
+        require(days >= 0) { "Retention must be >= 0 days" }
+        qaPrivate.syncedDataRetentionDays = days
+    }
+
+    /**
+     * Registers a [DatabaseSizeReporter] that receives the size of the SDK database before and
+     * after every retention run (see [setSyncedDataRetention]).
+     * @param reporter the reporter, null to remove it
+     * */
+    fun setDatabaseSizeReporter(reporter: DatabaseSizeReporter?) {
+        qaPrivate.databaseSizeReporter = reporter
+    }
+
     /**
      * Pause the data collection.
      * @param context Android application context
@@ -34,6 +34,7 @@ import com.google.firebase.crashlytics.FirebaseCrashlytics
 import com.quantactions.sdk.data.repository.DeviceHealthParsed
 import com.quantactions.sdk.data.repository.MVPDao
 import com.quantactions.sdk.data.repository.MVPRoomDatabase.Companion.getDatabase
+import com.quantactions.sdk.workers.CompactDatabaseWorker
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
@@ -124,6 +125,7 @@ class QABroadcastReceiver : BroadcastReceiver() {
                         ExistingPeriodicWorkPolicy.UPDATE,
                         relaunchRequest
                     )
+                    CompactDatabaseWorker.schedule(context)
                     setAlarm(context)
                     if (intent.action == "android.intent.action.BOOT_COMPLETED") {
                         insertHealthRow(mvpDao, Instant.now(), batteryLevel, "RB")
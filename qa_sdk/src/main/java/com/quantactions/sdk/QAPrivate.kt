@@ -36,6 +36,7 @@ import com.quantactions.sdk.data.model.JournalEntry
 import com.quantactions.sdk.data.repository.*
 import com.quantactions.sdk.exceptions.QASDKException
 import com.quantactions.sdk.exceptions.SDKNotInitialisedException
+import com.quantactions.sdk.workers.CompactDatabaseWorker
 import com.quantactions.sdk.workers.RegisterWorker
 import com.quantactions.sdk.workers.UpdateDeviceWorker
 import kotlinx.coroutines.CoroutineScope
@@ -82,6 +83,12 @@ internal class QAPrivate private constructor(
 
     var activityPermissionNotification: ActivityPermissionNotification = ActivityPermissionNotificationImpl()
     var restartedRequiredNotification: RestartedRequiredNotification = RestartedRequiredNotificationImpl()
+    var databaseSizeReporter: DatabaseSizeReporter? = null
+    var syncedDataRetentionDays: Int
+        get() = preferences.syncedDataRetentionDays
+        set(value) {
+            preferences.syncedDataRetentionDays = value
+        }
     val deviceID: String
         get() = repository.deviceID
     val identityId: String
@@ -215,6 +222,7 @@ internal class QAPrivate private constructor(
             ExistingPeriodicWorkPolicy.KEEP,
             relaunchRequest
         )
+        CompactDatabaseWorker.schedule(context)
     }
 
     @Throws(QASDKException::class)
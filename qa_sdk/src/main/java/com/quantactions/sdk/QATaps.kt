@@ -18,15 +18,110 @@ class QATaps(var taps: List<Int>, var totalTaps: Int, var speed: List<Float>)
 //public class QATaps(var total_taps: Int)
 
 /**
+ * Parses a stringified list of the database (e.g. `[1, 2, 3]`).
  * @suppress
  */
-fun String.literalToLongList(): List<Long> {
-    return this.filter { it !in listOf('[', ']') }.split(',').filter { it != "" }.map{it.trim().toLong()}
+fun String.literalToLongList(): List<Long> = literalToLongArray().asList()
+
+/**
+ * @suppress
+ */
+fun String.literalToIntList(): List<Int> = literalToIntArray().asList()
+
+/**
+ * Same as [literalToLongList] into a [LongArray], in a single scan of the string. Anything but
+ * ASCII digits, signs, blanks and brackets goes through the original parser, so that odd or
+ * malformed input gives the same result (or exception) as before.
+ * @suppress
+ */
+internal fun String.literalToLongArray(): LongArray {
+    val values = LongArray(literalCapacity())
+    val n = parseLiteral(this, Long.MIN_VALUE, Long.MAX_VALUE) { i, value -> values[i] = value }
+    if (n < 0) return literalToLongListSlow().toLongArray()
+    return if (n == values.size) values else values.copyOf(n)
 }
 
 /**
+ * Same as [literalToIntList] into an [IntArray], see [literalToLongArray].
  * @suppress
  */
-fun String.literalToIntList(): List<Int> {
+internal fun String.literalToIntArray(): IntArray {
+    val values = IntArray(literalCapacity())
+    val n = parseLiteral(this, Int.MIN_VALUE.toLong(), Int.MAX_VALUE.toLong()) { i, value -> values[i] = value.toInt() }
+    if (n < 0) return literalToIntListSlow().toIntArray()
+    return if (n == values.size) values else values.copyOf(n)
+}
+
+internal fun String.literalToLongListSlow(): List<Long> {
+    return this.filter { it !in listOf('[', ']') }.split(',').filter { it != "" }.map{it.trim().toLong()}
+}
+
+internal fun String.literalToIntListSlow(): List<Int> {
     return this.filter { it !in listOf('[', ']') }.split(',').filter { it != "" }.map{it.trim().toInt()}
 }
+
+/** Upper bound of the number of values, one per comma plus one. */
+private fun String.literalCapacity(): Int {
+    var commas = 0
+    for (c in this) if (c == ',') commas++
+    return commas + 1
+}
+
+private fun isBlank(c: Char) = c == ' ' || c == '\t' || c == '\n' || c == '\r'
+
+/**
+ * Parses the values of [text] into [store], returns their number or -1 if [text] has to go
+ * through the original parser (unexpected character, value out of [min]..[max], blank value).
+ * Brackets are dropped wherever they are, blanks are allowed around the values.
+ */
+private inline fun parseLiteral(text: String, min: Long, max: Long, store: (Int, Long) -> Unit): Int {
+    var n = 0
+    var i = 0
+    val length = text.length
+    while (i <= length) {
+        // one value, up to the next comma or the end
+        var negative = false
+        var digits = 0
+        var started = false  // sign or digit seen
+        var ended = false  // blank after the sign or the digits
+        var blank = false
+        var value = 0L  // accumulated negatively, like Long.parseLong
+        var limit = -max
+        while (i < length) {
+            val c = text[i]
+            if (c == ',') break
+            i++
+            when {
+                c == '[' || c == ']' -> {}
+                isBlank(c) -> {
+                    blank = true
+                    if (started) ended = true
+                }
+                c == '-' || c == '+' -> {
+                    if (started) return -1
+                    started = true
+                    negative = c == '-'
+                    if (negative) limit = min
+                }
+                c in '0'..'9' -> {
+                    if (ended) return -1
+                    started = true
+                    val d = c - '0'
+                    if (value < limit / 10) return -1
+                    value *= 10
+                    if (value < limit + d) return -1
+                    value -= d
+                    digits++
+                }
+                else -> return -1
+            }
+        }
+        if (digits > 0) {
+            store(n++, if (negative) value else -value)
+        } else if (blank || started) {
+            return -1
+        }
+        i++  // skip the comma
+    }
+    return n
+}
@@ -30,11 +30,6 @@ import com.google.android.gms.location.ActivityTransition
 import com.google.android.gms.location.ActivityTransitionRequest
 import com.google.android.gms.location.DetectedActivity
 import com.quantactions.sdk.QA.Companion.getInstance
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.DelicateCoroutinesApi
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.SupervisorJob
-import kotlinx.coroutines.launch
 import timber.log.Timber
 import java.util.Arrays
 
@@ -47,8 +42,6 @@ class ReadingsService : Service() {
     private val mBinder: IBinder = LocalBinder()
     private var mReceiver: BroadcastReceiver? = null
     private lateinit var actuator: Actuator
-    private val job = SupervisorJob()
-    private val scope = CoroutineScope(Dispatchers.IO + job)
 
     override fun onCreate() {
 
@@ -189,7 +182,6 @@ class ReadingsService : Service() {
      * @param startId additional Id
      * @return status
      */
-    @OptIn(DelicateCoroutinesApi::class)
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
 
         getInstance(this@ReadingsService).updater.updateNotification()
@@ -219,9 +211,7 @@ class ReadingsService : Service() {
                 if (!screenOff) { // If screen is on I register the accelerometer that start recording
                     startSession(System.currentTimeMillis())
                 } else { // otherwise (if the screen goes off) I analyze the data recorded in the last session
-                    scope.launch {
-                        actuator.saveSession(System.currentTimeMillis(), this@ReadingsService)
-                    }
+                    actuator.endSession(System.currentTimeMillis())
                 }
             }
 
@@ -0,0 +1,115 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import timber.log.Timber
+
+/**
+ * Single consumer of the sessions closed at screen off: [submit] hands over an immutable session
+ * and returns immediately, a single coroutine of [scope] saves the sessions one at a time in the
+ * order they were submitted, so that saves never overlap however fast the screen is toggled.
+ * @suppress
+ */
+internal class SessionPipeline<T>(
+    scope: CoroutineScope,
+    private val save: suspend (T) -> Unit,
+) {
+
+    /**
+     * Counters of the pipeline since it was created.
+     * @property submitted sessions handed over with [submit]
+     * @property saved sessions whose save completed (successfully or not)
+     * @property failed sessions whose save threw
+     * @property queueDepth sessions waiting or being saved right now
+     * @property maxQueueDepth highest [queueDepth] seen
+     * @property lastSaveNanos duration of the last save
+     * @property maxSaveNanos longest save
+     * @property totalSaveNanos sum of the durations of all saves
+     * @property totalWaitNanos sum of the time the sessions waited in the queue before their save
+     */
+    data class Stats(
+        val submitted: Long = 0,
+        val saved: Long = 0,
+        val failed: Long = 0,
+        val queueDepth: Int = 0,
+        val maxQueueDepth: Int = 0,
+        val lastSaveNanos: Long = 0,
+        val maxSaveNanos: Long = 0,
+        val totalSaveNanos: Long = 0,
+        val totalWaitNanos: Long = 0,
+    ) {
+        val meanSaveNanos: Long
+            get() = if (saved > 0) totalSaveNanos / saved else 0
+    }
+
+    private class Entry<T>(val item: T, val submittedAt: Long)
+
+    private val channel = Channel<Entry<T>>(Channel.UNLIMITED)
+
+    private val lock = Any()
+
+    @Volatile
+    var stats = Stats()
+        private set
+
+    init {
+        scope.launch {
+            for (entry in channel) {
+                val start = System.nanoTime()
+                var failed = false
+                try {
+                    save(entry.item)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    failed = true
+                    Timber.e(e)
+                }
+                val end = System.nanoTime()
+                synchronized(lock) {
+                    val s = stats
+                    stats = s.copy(
+                        saved = s.saved + 1,
+                        failed = s.failed + if (failed) 1 else 0,
+                        queueDepth = s.queueDepth - 1,
+                        lastSaveNanos = end - start,
+                        maxSaveNanos = maxOf(s.maxSaveNanos, end - start),
+                        totalSaveNanos = s.totalSaveNanos + (end - start),
+                        totalWaitNanos = s.totalWaitNanos + (start - entry.submittedAt),
+                    )
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues [item] for saving.
+     * @return false if the pipeline was closed and [item] will not be saved
+     */
+    fun submit(item: T): Boolean = synchronized(lock) {
+        if (channel.trySend(Entry(item, System.nanoTime())).isFailure) return false
+        val s = stats
+        stats = s.copy(
+            submitted = s.submitted + 1,
+            queueDepth = s.queueDepth + 1,
+            maxQueueDepth = maxOf(s.maxQueueDepth, s.queueDepth + 1),
+        )
+        true
+    }
+
+    /** Stops accepting sessions, the ones already submitted are still saved. */
+    fun close() {
+        channel.close()
+    }
+}
@@ -18,7 +18,10 @@ package com.quantactions.sdk
 
 import android.app.AppOpsManager
 import android.content.Context
+import androidx.work.Constraints
 import androidx.work.ExistingWorkPolicy
+import androidx.work.ListenableWorker
+import androidx.work.NetworkType
 import androidx.work.OneTimeWorkRequest
 import androidx.work.WorkManager
 import com.quantactions.sdk.data.repository.MVPRepository
@@ -30,6 +33,8 @@ import com.quantactions.sdk.workers.SubmitActivityWorker
 import com.quantactions.sdk.workers.SubmitHealthDataParsedWorker
 import com.quantactions.sdk.workers.SubmitStatsWorker
 import com.quantactions.sdk.workers.SubmitTapDataParsedWorker
+import com.quantactions.sdk.workers.SyncReport
+import com.quantactions.sdk.workers.SyncReportWorker
 import com.quantactions.sdk.workers.UpdateAppsListWorker
 import com.quantactions.sdk.workers.UpdateDeviceWorker
 import timber.log.Timber
@@ -62,103 +67,62 @@ internal class SyncHelper(context: Context) {
 
         if (managePref.deviceID != "") {
 
+            // The stages run one after the other in a single chain with the same constraints, the
+            // tables are only probed here (EXISTS), the workers load the rows themselves.
+            val stages = mutableListOf<OneTimeWorkRequest>()
+
             // always update device info (can catch a new android version)
-            workManager.enqueueUniqueWork(
-                "updateDevice",
-                ExistingWorkPolicy.REPLACE,
-                OneTimeWorkRequest.Builder(UpdateDeviceWorker::class.java)
-                    .addTag("updateDevice")
-                    .build()
-            )
+            stages.add(stage(UpdateDeviceWorker::class.java, "updateDevice"))
 
             // push taps stats
             if (pushStats) {
-
-                workManager.enqueueUniqueWork(
-                    "submitStats",
-                    ExistingWorkPolicy.REPLACE,
-                    OneTimeWorkRequest.Builder(SubmitStatsWorker::class.java)
-                        .addTag("submitStats")
-                        .build()
-                )
+                stages.add(stage(SubmitStatsWorker::class.java, "submitStats"))
             }
 
             // pending quest
-            val pendingQuestionnaires = repository.getQuestionnaireResponses()
-            if (pendingQuestionnaires.isNotEmpty()) {
-                workManager.enqueueUniqueWork(
-                    "submitPendingQuest",
-                    ExistingWorkPolicy.REPLACE,
-                    OneTimeWorkRequest.Builder(PushPendingQuestionnairesWorker::class.java)
-                        .addTag("submitPendingQuest")
-                        .build()
-                )
+            if (repository.hasQuestionnaireResponses()) {
+                stages.add(stage(PushPendingQuestionnairesWorker::class.java, "submitPendingQuest"))
             } else {
                 Timber.i("No pending questionnaires -> not running")
             }
 
             // pending cog test
-            val pendingCognitiveTest = repository.getPendingCognitiveTests()
-            if (pendingCognitiveTest.isNotEmpty()) {
-                workManager.enqueueUniqueWork(
-                    "submitPendingCogTest",
-                    ExistingWorkPolicy.REPLACE,
-                    OneTimeWorkRequest.Builder(PushPendingCognitiveTestsWorker::class.java)
-                        .addTag("submitPendingCogTest")
-                        .build()
-                )
+            if (repository.hasPendingCognitiveTests()) {
+                stages.add(stage(PushPendingCognitiveTestsWorker::class.java, "submitPendingCogTest"))
             } else {
                 Timber.i("No pending cog tests -> not running")
             }
 
-            // pending journal entries
-            val pendingEntries = repository.getPendingJournalEntries()
-            val pendingEntriesToDelete = repository.getPendingJournalEntriesToDelete()
-            if (pendingEntries.isNotEmpty() or pendingEntriesToDelete.isNotEmpty()) {
-                workManager.enqueueUniqueWork(
-                    "submitPendingJournal",
-                    ExistingWorkPolicy.REPLACE,
-                    OneTimeWorkRequest.Builder(PushPendingJournalEntriesWorker::class.java)
-                        .addTag("submitPendingJournal")
-                        .build()
-                )
+            // pending journal entries (to create or to delete)
+            if (repository.hasPendingJournalEntries()) {
+                stages.add(stage(PushPendingJournalEntriesWorker::class.java, "submitPendingJournal"))
             } else {
                 Timber.i("No pending journal entries -> not running")
             }
 
-            // update list of apps
-            updateAppList()
-
-            if (repository.getTapDataParsedToSync().isNotEmpty()) {
-                workManager.enqueueUniqueWork(
-                    "submitTapDataParsed",
-                    ExistingWorkPolicy.REPLACE,
-                    OneTimeWorkRequest.Builder(SubmitTapDataParsedWorker::class.java)
-                        .addTag("submitTapDataParsed")
-                        .build()
-                )
+            // update list of apps, before the sessions that refer to them (the worker returns
+            // right away when there is nothing to push)
+            stages.add(stage(UpdateAppsListWorker::class.java, "updateAppsList"))
+
+            if (repository.hasTapDataParsedToSync()) {
+                stages.add(stage(SubmitTapDataParsedWorker::class.java, "submitTapDataParsed"))
             }
 
-            if (repository.getDeviceHealthParsedToSync().isNotEmpty()) {
-                workManager.enqueueUniqueWork(
-                    "submitHealthDataParsed",
-                    ExistingWorkPolicy.REPLACE,
-                    OneTimeWorkRequest.Builder(SubmitHealthDataParsedWorker::class.java)
-                        .addTag("submitHealthDataParsed")
-                        .build()
-                )
+            if (repository.hasDeviceHealthParsedToSync()) {
+                stages.add(stage(SubmitHealthDataParsedWorker::class.java, "submitHealthDataParsed"))
             }
 
-            if (repository.getActivityToSync().isNotEmpty()) {
-                workManager.enqueueUniqueWork(
-                    "activityRecognition",
-                    ExistingWorkPolicy.REPLACE,
-                    OneTimeWorkRequest.Builder(SubmitActivityWorker::class.java)
-                        .addTag("activityRecognition")
-                        .build()
-                )
+            if (repository.hasActivityToSync()) {
+                stages.add(stage(SubmitActivityWorker::class.java, "activityRecognition"))
             }
 
+            // a cycle still waiting for its constraints or running is left alone
+            stages.drop(1).fold(
+                workManager.beginUniqueWork(SYNC_CYCLE, ExistingWorkPolicy.KEEP, stages.first())
+            ) { chain, next -> chain.then(next) }
+                .then(stage(SyncReportWorker::class.java, "syncReport"))
+                .enqueue()
+
         } else { // if not we still sync the pending syncs
             Timber.w("ID is not present I will try to register the user unless the task is already there")
             workManager.enqueueUniqueWork(
@@ -173,13 +137,20 @@ internal class SyncHelper(context: Context) {
         return true
     }
 
-    private fun updateAppList() {
-        workManager.enqueueUniqueWork(
-            "updateAppsList",
-            ExistingWorkPolicy.REPLACE,
-            OneTimeWorkRequest.Builder(UpdateAppsListWorker::class.java)
-                .addTag("updateAppsList")
-                .build()
-        )
+    private fun stage(worker: Class<out ListenableWorker>, tag: String) =
+        OneTimeWorkRequest.Builder(worker)
+            .setConstraints(constraints)
+            .setInputData(SyncReport.cycleInput)
+            .addTag(tag)
+            .addTag(SYNC_CYCLE)
+            .build()
+
+    companion object {
+        const val SYNC_CYCLE = "syncCycle"
+
+        private val constraints = Constraints.Builder()
+            .setRequiredNetworkType(NetworkType.CONNECTED)
+            .setRequiresBatteryNotLow(true)
+            .build()
     }
 }
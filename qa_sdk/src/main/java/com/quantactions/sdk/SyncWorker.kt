@@ -18,6 +18,7 @@ import androidx.core.app.NotificationCompat
 import androidx.work.CoroutineWorker
 import androidx.work.WorkerParameters
 import com.google.firebase.crashlytics.FirebaseCrashlytics
+import com.quantactions.sdk.data.api.HttpStack
 import com.quantactions.sdk.exceptions.SDKNotInitialisedException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -66,6 +67,8 @@ class SyncWorker(context: Context, params: WorkerParameters) : CoroutineWorker(c
     }
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        // connect to the API while the sync reads its rows
+        if (isInit) HttpStack.prewarm()
         try {
             doSync()
         } catch (e: SDKNotInitialisedException) {
@@ -0,0 +1,133 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+/**
+ * Foreground changes of one session: time of every `ACTIVITY_RESUMED` event and the package that
+ * came to the foreground, as an index in [packages] so that the same app is one name however many
+ * times it is resumed.
+ * @suppress
+ */
+internal class ForegroundEvents(initialCapacity: Int = DEFAULT_CAPACITY) {
+
+    var times = LongArray(initialCapacity.coerceAtLeast(1))
+        private set
+    var apps = IntArray(initialCapacity.coerceAtLeast(1))
+        private set
+    var size = 0
+        private set
+
+    /** Distinct package names of the session, indexed by the values of [apps]. */
+    val packages = ArrayList<String>()
+    private val packageIndex = HashMap<String, Int>()
+    private var sorted = true
+
+    fun add(time: Long, packageName: String) {
+        if (size == times.size) {
+            times = times.copyOf(size shl 1)
+            apps = apps.copyOf(size shl 1)
+        }
+        if (size > 0 && time < times[size - 1]) sorted = false
+        times[size] = time
+        apps[size] = packageIndex.getOrPut(packageName) {
+            packages.add(packageName)
+            packages.size - 1
+        }
+        size++
+    }
+
+    /** Orders the events by time, events with the same time keep the order they were added in. */
+    fun sort() {
+        if (sorted) return
+        val order = (0 until size).sortedBy { times[it] }
+        val newTimes = LongArray(times.size)
+        val newApps = IntArray(apps.size)
+        order.forEachIndexed { i, from ->
+            newTimes[i] = times[from]
+            newApps[i] = apps[from]
+        }
+        times = newTimes
+        apps = newApps
+        sorted = true
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 32
+    }
+}
+
+/**
+ * Attribution of the taps of a session to the apps in the foreground.
+ * @suppress
+ */
+internal object TapAttribution {
+
+    /** Number of apps attributed to every tap. */
+    const val SLOTS = 3
+
+    /**
+     * Attributes every tap to the app in the foreground at that time (slot 0) and to the two
+     * distinct apps that were in the foreground before it (slots 1 and 2, most recent first).
+     *
+     * A tap belongs to the last event at or before it. Taps before the first event belong to the
+     * first event. The last event marks the end of the session, so taps at or after it get
+     * [TapBuffer.NO_APP] in every slot, and it is never a foreground app itself. Slots without an
+     * app are [TapBuffer.NO_APP] too.
+     *
+     * Runs one binary search per tap, so [tapTimes] does not need to be ordered.
+     * @param eventTimes times of the events, ordered
+     * @param eventApps app of every event
+     * @param nEvents number of events in [eventTimes] and [eventApps]
+     * @param tapTimes times of the taps
+     * @return [SLOTS] columns with the app of every tap
+     */
+    fun attribute(eventTimes: LongArray, eventApps: IntArray, nEvents: Int, tapTimes: LongArray): Array<IntArray> {
+        val nTaps = tapTimes.size
+        val result = Array(SLOTS) { IntArray(nTaps) { TapBuffer.NO_APP } }
+        if (nEvents < 2 || nTaps == 0) return result
+
+        // the apps of every event are computed once, the taps only look them up
+        val last = nEvents - 1
+        val recent = Array(SLOTS) { IntArray(last) { TapBuffer.NO_APP } }
+        for (i in 0 until last) {
+            val app = eventApps[i]
+            recent[0][i] = app
+            if (i > 0) {
+                var slot = 1
+                for (s in 0 until SLOTS) {
+                    if (slot == SLOTS) break
+                    val previous = recent[s][i - 1]
+                    if (previous == TapBuffer.NO_APP) break
+                    if (previous != app) recent[slot++][i] = previous
+                }
+            }
+        }
+
+        val end = eventTimes[last]
+        for (t in 0 until nTaps) {
+            val time = tapTimes[t]
+            if (time >= end) continue
+            val event = maxOf(lastAtOrBefore(eventTimes, last, time), 0)
+            for (s in 0 until SLOTS) result[s][t] = recent[s][event]
+        }
+        return result
+    }
+
+    /** Index of the last of the first [n] [times] that is <= [time], -1 if there is none. */
+    private fun lastAtOrBefore(times: LongArray, n: Int, time: Long): Int {
+        var low = 0
+        var high = n - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (times[mid] <= time) low = mid + 1 else high = mid - 1
+        }
+        return high
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+/**
+ * Growable primitive buffer used by [Actuator] to record taps during a screen session.
+ *
+ * Timestamps and orientations are kept in parallel primitive arrays so that [record] does not
+ * allocate anything once the buffer has reached its working capacity. The capacity is retained
+ * across sessions: [drain] copies the recorded taps into a [Snapshot] and rewinds the buffer
+ * without shrinking it.
+ * @suppress
+ */
+internal class TapBuffer(initialCapacity: Int = DEFAULT_CAPACITY) {
+
+    private var timestamps = LongArray(initialCapacity.coerceAtLeast(1))
+    private var orientations = ByteArray(initialCapacity.coerceAtLeast(1))
+
+    /** Number of taps currently recorded. */
+    @Volatile
+    var size: Int = 0
+        private set
+
+    /** Current capacity of the backing arrays. */
+    val capacity: Int
+        get() = timestamps.size
+
+    /**
+     * Records a tap. Allocation-free unless the backing arrays have to grow.
+     * @param timestamp epoch millis of the tap
+     * @param orientation one of [ORIENTATION_PORTRAIT], [ORIENTATION_LANDSCAPE],
+     * [ORIENTATION_UNDEFINED]
+     */
+    @Synchronized
+    fun record(timestamp: Long, orientation: Byte) {
+        val n = size
+        if (n == timestamps.size) grow()
+        timestamps[n] = timestamp
+        orientations[n] = orientation
+        size = n + 1
+    }
+
+    /** Discards all recorded taps, keeping the allocated capacity. */
+    @Synchronized
+    fun clear() {
+        size = 0
+    }
+
+    /**
+     * Copies the recorded taps into an immutable [Snapshot] and clears the buffer. The taps are
+     * attributed to the foreground apps afterwards, see [TapAttribution.attribute].
+     */
+    @Synchronized
+    fun drain(): Snapshot {
+        val n = size
+        val snapshot = Snapshot(
+            timestamps.copyOf(n),
+            orientations.copyOf(n)
+        )
+        size = 0
+        return snapshot
+    }
+
+    private fun grow() {
+        val newCapacity = timestamps.size shl 1
+        timestamps = timestamps.copyOf(newCapacity)
+        orientations = orientations.copyOf(newCapacity)
+    }
+
+    /** Taps of one session, as drained from the [TapBuffer]. */
+    class Snapshot(
+        val timestamps: LongArray,
+        val orientations: ByteArray
+    ) {
+        val size: Int
+            get() = timestamps.size
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 1024
+        /** Index of no app in the attribution of the taps, see [TapAttribution.attribute]. */
+        const val NO_APP = -1
+        const val ORIENTATION_LANDSCAPE: Byte = 0
+        const val ORIENTATION_PORTRAIT: Byte = 1
+        const val ORIENTATION_UNDEFINED: Byte = -1
+    }
+}
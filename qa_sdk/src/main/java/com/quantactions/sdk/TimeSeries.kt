@@ -18,7 +18,6 @@ import timber.log.Timber
 import java.lang.Double.NaN
 import java.time.*
 import java.time.temporal.ChronoUnit
-import java.time.temporal.TemporalAdjusters
 import kotlin.random.Random
 
 /**
@@ -53,13 +52,48 @@ fun ZonedDateTime.norm(): ZonedDateTime {
  * */
 @Keep
 sealed class TimeSeries<T>(
-    final override var values: List<T> = mutableListOf(),
-    final override var timestamps: List<ZonedDateTime> = mutableListOf(),
-    final override var confidenceIntervalLow: List<T> = mutableListOf(),
-    final override var confidenceIntervalHigh: List<T> = mutableListOf(),
-    final override var confidence: List<Double> = mutableListOf(),
+    values: List<T> = mutableListOf(),
+    timestamps: List<ZonedDateTime> = mutableListOf(),
+    confidenceIntervalLow: List<T> = mutableListOf(),
+    confidenceIntervalHigh: List<T> = mutableListOf(),
+    confidence: List<Double> = mutableListOf(),
 ) : ManageTimeSeries<T> {
 
+    final override var values: List<T> = values
+        set(value) {
+            checkReassignable()
+            field = value
+        }
+    // assure monotonicity (epoch second and gap-filled timestamps are sorted on creation)
+    final override var timestamps: List<ZonedDateTime> =
+        if (timestamps is SortedTimestamps) timestamps else timestamps.sorted()
+        set(value) {
+            checkReassignable()
+            field = value
+        }
+    final override var confidenceIntervalLow: List<T> = confidenceIntervalLow
+        set(value) {
+            checkReassignable()
+            field = value
+        }
+    final override var confidenceIntervalHigh: List<T> = confidenceIntervalHigh
+        set(value) {
+            checkReassignable()
+            field = value
+        }
+    final override var confidence: List<Double> = confidence
+        set(value) {
+            checkReassignable()
+            field = value
+        }
+
+    /**
+     * Called before any of the lists is replaced, series whose lists are views over other
+     * storage (see [ColumnarDoubleTimeSeries]) throw here.
+     * @suppress
+     * */
+    internal open fun checkReassignable() {}
+
     init {
         val sizes = listOf(
             values.size,
@@ -76,9 +110,6 @@ sealed class TimeSeries<T>(
                     "Confidence Interval High = ${confidenceIntervalHigh.size}\n" +
                     "Confidence               = ${confidence.size}\n"
         }
-
-        // assure monotonicity
-        timestamps = timestamps.sorted()
     }
 
     /**
@@ -87,6 +118,76 @@ sealed class TimeSeries<T>(
     val size: Int
         get() = values.size
 
+    /**
+     * Day mapping of the last [fillMissingDays] that produced this series, reused by the
+     * `Flow.fillMissingDays` operator for the next version of the series.
+     * @suppress
+     * */
+    internal var gapIndex: DayGapIndex? = null
+
+    /**
+     * Same as [fillMissingDays] but extends [previous] (the mapping of a previous version of the
+     * same series) if this series only adds trailing points to it.
+     * @suppress
+     * */
+    internal abstract fun fillMissingDays(rewindDays: Int, inplace: Boolean, previous: DayGapIndex?): TimeSeries<T>
+
+    /**
+     * Copy of this series with its own lists, every collector of a shared series gets one so
+     * that an in-place operation of one collector does not change the series of the others.
+     * @suppress
+     * */
+    internal abstract fun copy(): TimeSeries<T>
+
+    internal fun <S : TimeSeries<T>> copyWith(
+        create: (List<T>, List<ZonedDateTime>, List<T>, List<T>, List<Double>) -> S
+    ): S {
+        // sorted timestamps are read-only views, they can be shared
+        val copied = create(
+            values.toList(),
+            if (timestamps is SortedTimestamps) timestamps else timestamps.toList(),
+            confidenceIntervalLow.toList(),
+            confidenceIntervalHigh.toList(),
+            confidence.toList()
+        )
+        copied.gapIndex = gapIndex
+        return copied
+    }
+
+    /**
+     * Fills the missing days with views over the current columns: the mapping of the days is
+     * computed once and nothing is copied, filled days read [filler] (NaN for the confidence).
+     * @suppress
+     * */
+    @Suppress("UNCHECKED_CAST")
+    internal fun <S : TimeSeries<T>> fillMissingDaysWith(
+        rewindDays: Int,
+        inplace: Boolean,
+        previous: DayGapIndex?,
+        filler: T,
+        create: (List<T>, List<ZonedDateTime>, List<T>, List<T>, List<Double>) -> S
+    ): S {
+        val index = DayGapIndex.build(timestamps, rewindDays, previous)
+        val newValues = GapFilledList(values, index, filler)
+        val newTimestamps = GapFilledTimestamps(timestamps, index)
+        val newConfidenceIntervalLow = GapFilledList(confidenceIntervalLow, index, filler)
+        val newConfidenceIntervalHigh = GapFilledList(confidenceIntervalHigh, index, filler)
+        val newConfidence = GapFilledList(confidence, index, NaN)
+
+        val filled = if (inplace) {
+            this.values = newValues
+            this.confidenceIntervalLow = newConfidenceIntervalLow
+            this.confidenceIntervalHigh = newConfidenceIntervalHigh
+            this.confidence = newConfidence
+            this.timestamps = newTimestamps
+            this as S
+        } else {
+            create(newValues, newTimestamps, newConfidenceIntervalLow, newConfidenceIntervalHigh, newConfidence)
+        }
+        filled.gapIndex = index
+        return filled
+    }
+
     @Keep
     class DoubleTimeSeries(
         values: List<Double> = mutableListOf(),
@@ -111,78 +212,15 @@ sealed class TimeSeries<T>(
          * */
         @Keep
         override fun fillMissingDays(rewindDays: Int, inplace: Boolean): DoubleTimeSeries {
-            val newTimestamps = mutableListOf<ZonedDateTime>()
-            val newValues = mutableListOf<Double>()
-            val newConfidenceIntervalLow = mutableListOf<Double>()
-            val newConfidenceIntervalHigh = mutableListOf<Double>()
-            val newConfidence = mutableListOf<Double>()
-            val currentDay = ZonedDateTime.now()
-            var prevDate =
-                if (timestamps.isNotEmpty()) timestamps[0].minusDays(rewindDays.toLong()) else currentDay.minusDays(
-                    rewindDays.toLong()
-                )
-
-            if (timestamps.isEmpty()) {
-                val nMissingDays = ChronoUnit.DAYS.between(prevDate.norm(), currentDay.norm()) - 1
-                for (j in 0 until nMissingDays) {
-                    newTimestamps.add(prevDate.norm().plusDays(j + 1L))
-                    newValues.add(NaN)
-                    newConfidenceIntervalLow.add(NaN)
-                    newConfidenceIntervalHigh.add(NaN)
-                    newConfidence.add(NaN)
-                }
-            }
-
-            for (i in values.indices) {
-                val nMissingDays =
-                    ChronoUnit.DAYS.between(prevDate.norm(), timestamps[i].norm()) - 1
-                for (j in 0 until nMissingDays) {
-                    newTimestamps.add(prevDate.norm().plusDays(j + 1L))
-                    newValues.add(NaN)
-                    newConfidenceIntervalLow.add(NaN)
-                    newConfidenceIntervalHigh.add(NaN)
-                    newConfidence.add(NaN)
-                }
-                newTimestamps.add(timestamps[i])
-                newValues.add(values[i])
-                newConfidenceIntervalLow.add(confidenceIntervalLow[i])
-                newConfidenceIntervalHigh.add(confidenceIntervalHigh[i])
-                newConfidence.add(confidence[i])
-                prevDate = timestamps[i]
-            }
-
-            // Adding missing days up to today
-            val nMissingFutureDays = if (newTimestamps.isNotEmpty()) ChronoUnit.DAYS.between(
-                newTimestamps.last().norm(),
-                currentDay.norm()
-            ) else 0
-            val lastValue = newTimestamps.last()
-            for (j in 0 until nMissingFutureDays) {
-                newTimestamps.add(lastValue.norm().plusDays(j + 1L))
-                newValues.add(NaN)
-                newConfidenceIntervalLow.add(NaN)
-                newConfidenceIntervalHigh.add(NaN)
-                newConfidence.add(NaN)
-            }
+            return fillMissingDays(rewindDays, inplace, null)
+        }
 
-            return if (inplace) {
-                this.values = newValues
-                this.confidenceIntervalLow = newConfidenceIntervalLow
-                this.confidenceIntervalHigh = newConfidenceIntervalHigh
-                this.confidence = newConfidence
-                this.timestamps = newTimestamps
-                this
-            } else {
-                DoubleTimeSeries(
-                    newValues,
-                    newTimestamps,
-                    newConfidenceIntervalLow,
-                    newConfidenceIntervalHigh,
-                    newConfidence
-                )
-            }
+        override fun fillMissingDays(rewindDays: Int, inplace: Boolean, previous: DayGapIndex?): DoubleTimeSeries {
+            return fillMissingDaysWith(rewindDays, inplace, previous, NaN, ::DoubleTimeSeries)
         }
 
+        override fun copy(): DoubleTimeSeries = copyWith(::DoubleTimeSeries)
+
         @Keep
         override fun takeLast(n: Int): DoubleTimeSeries {
             return DoubleTimeSeries(
@@ -218,63 +256,33 @@ sealed class TimeSeries<T>(
         }
 
         override fun extractMonthlyAverages(): DoubleTimeSeries {
-
-
-            val averagedValues = timestamps.zip(values).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).norm().withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            val averagedConfidenceIntervalLow = timestamps.zip(confidenceIntervalLow).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).norm().withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            val averagedConfidenceIntervalHigh = timestamps.zip(confidenceIntervalHigh).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).norm().withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            val averagedConfidence = timestamps.zip(confidence).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).norm().withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            return DoubleTimeSeries(
-                averagedValues.values.toList(),
-                averagedValues.keys.toList(),
-                averagedConfidenceIntervalLow.values.toList(),
-                averagedConfidenceIntervalHigh.values.toList(),
-                averagedConfidence.values.toList()
-            )
-
+            return aggregate(TimeBucket.Month)
         }
 
         override fun extractWeeklyAverages(): DoubleTimeSeries {
+            return aggregate(TimeBucket.Week())
+        }
 
-            val averagedValues = timestamps.zip(values).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1))).norm()
-                    .withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            val averagedConfidenceIntervalLow = timestamps.zip(confidenceIntervalLow).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1))).norm()
-                    .withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            val averagedConfidenceIntervalHigh = timestamps.zip(confidenceIntervalHigh).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1))).norm()
-                    .withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            val averagedConfidence = timestamps.zip(confidence).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1))).norm()
-                    .withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            return DoubleTimeSeries(
-                averagedValues.values.toList(),
-                averagedValues.keys.toList(),
-                averagedConfidenceIntervalLow.values.toList(),
-                averagedConfidenceIntervalHigh.values.toList(),
-                averagedConfidence.values.toList()
+        /**
+         * Aggregates the values (and confidence intervals and confidence) that fall in the same
+         * [bucket] of time using [reducer], NaNs are ignored. The timestamps of the result are the
+         * start of every bucket in the local time zone of the device.
+         * @param bucket the bucket of time e.g. [TimeBucket.Month] or [TimeBucket.Days]
+         * @param reducer how values are combined, average by default
+         * */
+        @Keep
+        fun aggregate(bucket: TimeBucket, reducer: Reducer = Reducer.MEAN): DoubleTimeSeries {
+            val buckets = bucketize(timestamps, bucket)
+            val (v, l, h, c) = buckets.reduce(
+                arrayOf(
+                    values.toDoubleArray(),
+                    confidenceIntervalLow.toDoubleArray(),
+                    confidenceIntervalHigh.toDoubleArray(),
+                    confidence.toDoubleArray()
+                ),
+                reducer
             )
+            return DoubleTimeSeries(v.asList(), buckets.timestamps(), l.asList(), h.asList(), c.asList())
         }
 
         override fun dropna(): TimeSeries<Double> {
@@ -375,82 +383,16 @@ sealed class TimeSeries<T>(
          * @return the current [TimeSeries] as this is an `in-place` operation
          * */
         @Keep
-        override fun fillMissingDays(
-            rewindDays: Int,
-            inplace: Boolean
-        ): SleepSummaryTimeTimeSeries {
-            val newTimestamps = mutableListOf<ZonedDateTime>()
-            val newValues = mutableListOf<SleepSummary>()
-            val newConfidenceIntervalLow = mutableListOf<SleepSummary>()
-            val newConfidenceIntervalHigh = mutableListOf<SleepSummary>()
-            val newConfidence = mutableListOf<Double>()
-            val currentDay = ZonedDateTime.now()
-            var prevDate =
-                if (timestamps.isNotEmpty()) timestamps[0].minusDays(rewindDays.toLong()) else currentDay.minusDays(
-                    rewindDays.toLong()
-                )
-
-            if (timestamps.isEmpty()) {
-                val nMissingDays = ChronoUnit.DAYS.between(prevDate.norm(), currentDay.norm()) - 1
-                for (j in 0 until nMissingDays) {
-                    newTimestamps.add(prevDate.norm().plusDays(j + 1L))
-                    newValues.add(SleepSummary())
-                    newConfidenceIntervalLow.add(SleepSummary())
-                    newConfidenceIntervalHigh.add(SleepSummary())
-                    newConfidence.add(NaN)
-                }
-            }
-
-            for (i in values.indices) {
-                val nMissingDays =
-                    ChronoUnit.DAYS.between(prevDate.norm(), timestamps[i].norm()) - 1
-                for (j in 0 until nMissingDays) {
-                    newTimestamps.add(prevDate.norm().plusDays(j + 1L))
-                    newValues.add(SleepSummary())
-                    newConfidenceIntervalLow.add(SleepSummary())
-                    newConfidenceIntervalHigh.add(SleepSummary())
-                    newConfidence.add(NaN)
-                }
-                newTimestamps.add(timestamps[i])
-                newValues.add(values[i])
-                newConfidenceIntervalLow.add(confidenceIntervalLow[i])
-                newConfidenceIntervalHigh.add(confidenceIntervalHigh[i])
-                newConfidence.add(confidence[i])
-                prevDate = timestamps[i]
-            }
-
-            // Adding missing days up to today
-            val nMissingFutureDays = if (newTimestamps.isNotEmpty()) ChronoUnit.DAYS.between(
-                newTimestamps.last().norm(),
-                currentDay.norm()
-            ) else 0
-            val lastValue = newTimestamps.last()
-            for (j in 0 until nMissingFutureDays) {
-                newTimestamps.add(lastValue.norm().plusDays(j + 1L))
-                newValues.add(SleepSummary())
-                newConfidenceIntervalLow.add(SleepSummary())
-                newConfidenceIntervalHigh.add(SleepSummary())
-                newConfidence.add(NaN)
-            }
+        override fun fillMissingDays(rewindDays: Int, inplace: Boolean): SleepSummaryTimeTimeSeries {
+            return fillMissingDays(rewindDays, inplace, null)
+        }
 
-            return if (inplace) {
-                this.values = newValues
-                this.confidenceIntervalLow = newConfidenceIntervalLow
-                this.confidenceIntervalHigh = newConfidenceIntervalHigh
-                this.confidence = newConfidence
-                this.timestamps = newTimestamps
-                this
-            } else {
-                SleepSummaryTimeTimeSeries(
-                    newValues,
-                    newTimestamps,
-                    newConfidenceIntervalLow,
-                    newConfidenceIntervalHigh,
-                    newConfidence
-                )
-            }
+        override fun fillMissingDays(rewindDays: Int, inplace: Boolean, previous: DayGapIndex?): SleepSummaryTimeTimeSeries {
+            return fillMissingDaysWith(rewindDays, inplace, previous, SleepSummary(), ::SleepSummaryTimeTimeSeries)
         }
 
+        override fun copy(): SleepSummaryTimeTimeSeries = copyWith(::SleepSummaryTimeTimeSeries)
+
         @Keep
         override fun takeLast(n: Int): SleepSummaryTimeTimeSeries {
             return SleepSummaryTimeTimeSeries(
@@ -499,50 +441,26 @@ sealed class TimeSeries<T>(
         }
 
         override fun extractMonthlyAverages(): SleepSummaryTimeTimeSeries {
-
-            val averagedValues = timestamps.zip(values).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).toLocalDateTime()
-            }, { Pair(it.first, it.second) }).mapValues { (k, v) ->
-
-                val vFiltered = v.filter { it.second.sleepStart != ZonedDateTimePlaceholder }
-                val vFilteredAverage = vFiltered.map { it.second.interruptionsStart.size }.average()
-                val averageNumberOfInterruptions = if (vFilteredAverage.isNaN()) 0 else kotlin.math.ceil(
-                    vFilteredAverage
-                ).toInt()
-
-                SleepSummary(
-                    periodicMean(
-                        v.map { it.second.sleepStart }.dropna(),
-                        vFiltered.map { it.first },
-                        k
-                    ),
-                    periodicMean(
-                        v.map { it.second.sleepEnd }.dropna(),
-                        v.filter { it.second.sleepStart != ZonedDateTimePlaceholder }.map { it.first },
-                        k
-                    ),
-                    List(averageNumberOfInterruptions) { ZonedDateTimePlaceholder },
-                    List(averageNumberOfInterruptions) { ZonedDateTimePlaceholder },
-                    List(averageNumberOfInterruptions) { 0 },
-                )
-            }
-
-            return SleepSummaryTimeTimeSeries(
-                averagedValues.values.toList(),
-                averagedValues.keys.toList().map { ZonedDateTime.of(it, ZoneId.systemDefault()) },
-                averagedValues.values.toList(),
-                averagedValues.values.toList(),
-                List(averagedValues.size) { Double.NaN }
-            )
+            return aggregate(TimeBucket.Month)
         }
 
         override fun extractWeeklyAverages(): SleepSummaryTimeTimeSeries {
+            return aggregate(TimeBucket.Week())
+        }
 
-            val averagedValues = timestamps.zip(values).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1)))
-                    .truncatedTo(ChronoUnit.DAYS).toLocalDateTime()
-            }, { Pair(it.first, it.second) }).mapValues { (k, v) ->
+        /**
+         * Averages the sleep summaries that fall in the same [bucket] of time: sleep start and end
+         * are periodic means, the number of interruptions is the rounded up average.
+         * @param bucket the bucket of time e.g. [TimeBucket.Month] or [TimeBucket.Days]
+         * */
+        @Keep
+        fun aggregate(bucket: TimeBucket): SleepSummaryTimeTimeSeries {
+            val buckets = bucketize(timestamps, bucket)
+            val members = buckets.members()
 
+            val averagedValues = List(buckets.size) { b ->
+                val k = buckets.starts[b].atStartOfDay()
+                val v = members[b].map { Pair(timestamps[it], values[it]) }
                 val vFiltered = v.filter { it.second.sleepStart != ZonedDateTimePlaceholder }
                 val vFilteredAverage = vFiltered.map { it.second.interruptionsStart.size }.average()
                 val averageNumberOfInterruptions = if (vFilteredAverage.isNaN()) 0 else kotlin.math.ceil(
@@ -557,7 +475,7 @@ sealed class TimeSeries<T>(
                     ),
                     periodicMean(
                         v.map { it.second.sleepEnd }.dropna(),
-                        v.filter { it.second.sleepStart != ZonedDateTimePlaceholder }.map { it.first },
+                        vFiltered.map { it.first },
                         k
                     ),
                     List(averageNumberOfInterruptions) { ZonedDateTimePlaceholder },
@@ -567,10 +485,10 @@ sealed class TimeSeries<T>(
             }
 
             return SleepSummaryTimeTimeSeries(
-                averagedValues.values.toList(),
-                averagedValues.keys.toList().map { ZonedDateTime.of(it, ZoneId.systemDefault()) },
-                averagedValues.values.toList(),
-                averagedValues.values.toList(),
+                averagedValues,
+                buckets.timestamps(),
+                averagedValues,
+                averagedValues,
                 List(averagedValues.size) { Double.NaN }
             )
         }
@@ -680,82 +598,16 @@ sealed class TimeSeries<T>(
          * @return the current [TimeSeries] as this is an `in-place` operation
          * */
         @Keep
-        override fun fillMissingDays(
-            rewindDays: Int,
-            inplace: Boolean
-        ): TrendTimeSeries {
-            val newTimestamps = mutableListOf<ZonedDateTime>()
-            val newValues = mutableListOf<TrendHolder>()
-            val newConfidenceIntervalLow = mutableListOf<TrendHolder>()
-            val newConfidenceIntervalHigh = mutableListOf<TrendHolder>()
-            val newConfidence = mutableListOf<Double>()
-            val currentDay = ZonedDateTime.now()
-            var prevDate =
-                if (timestamps.isNotEmpty()) timestamps[0].minusDays(rewindDays.toLong()) else currentDay.minusDays(
-                    rewindDays.toLong()
-                )
-
-            if (timestamps.isEmpty()) {
-                val nMissingDays = ChronoUnit.DAYS.between(prevDate.norm(), currentDay.norm()) - 1
-                for (j in 0 until nMissingDays) {
-                    newTimestamps.add(prevDate.norm().plusDays(j + 1L))
-                    newValues.add(TrendHolder())
-                    newConfidenceIntervalLow.add(TrendHolder())
-                    newConfidenceIntervalHigh.add(TrendHolder())
-                    newConfidence.add(NaN)
-                }
-            }
-
-            for (i in values.indices) {
-                val nMissingDays =
-                    ChronoUnit.DAYS.between(prevDate.norm(), timestamps[i].norm()) - 1
-                for (j in 0 until nMissingDays) {
-                    newTimestamps.add(prevDate.norm().plusDays(j + 1L))
-                    newValues.add(TrendHolder())
-                    newConfidenceIntervalLow.add(TrendHolder())
-                    newConfidenceIntervalHigh.add(TrendHolder())
-                    newConfidence.add(NaN)
-                }
-                newTimestamps.add(timestamps[i])
-                newValues.add(values[i])
-                newConfidenceIntervalLow.add(confidenceIntervalLow[i])
-                newConfidenceIntervalHigh.add(confidenceIntervalHigh[i])
-                newConfidence.add(confidence[i])
-                prevDate = timestamps[i]
-            }
-
-            // Adding missing days up to today
-            val nMissingFutureDays = if (newTimestamps.isNotEmpty()) ChronoUnit.DAYS.between(
-                newTimestamps.last().norm(),
-                currentDay.norm()
-            ) else 0
-            val lastValue = newTimestamps.last()
-            for (j in 0 until nMissingFutureDays) {
-                newTimestamps.add(lastValue.norm().plusDays(j + 1L))
-                newValues.add(TrendHolder())
-                newConfidenceIntervalLow.add(TrendHolder())
-                newConfidenceIntervalHigh.add(TrendHolder())
-                newConfidence.add(NaN)
-            }
+        override fun fillMissingDays(rewindDays: Int, inplace: Boolean): TrendTimeSeries {
+            return fillMissingDays(rewindDays, inplace, null)
+        }
 
-            return if (inplace) {
-                this.values = newValues
-                this.confidenceIntervalLow = newConfidenceIntervalLow
-                this.confidenceIntervalHigh = newConfidenceIntervalHigh
-                this.confidence = newConfidence
-                this.timestamps = newTimestamps
-                this
-            } else {
-                TrendTimeSeries(
-                    newValues,
-                    newTimestamps,
-                    newConfidenceIntervalLow,
-                    newConfidenceIntervalHigh,
-                    newConfidence
-                )
-            }
+        override fun fillMissingDays(rewindDays: Int, inplace: Boolean, previous: DayGapIndex?): TrendTimeSeries {
+            return fillMissingDaysWith(rewindDays, inplace, previous, TrendHolder(), ::TrendTimeSeries)
         }
 
+        override fun copy(): TrendTimeSeries = copyWith(::TrendTimeSeries)
+
         @Keep
         override fun takeLast(n: Int): TrendTimeSeries {
             return TrendTimeSeries(
@@ -940,78 +792,15 @@ sealed class TimeSeries<T>(
          * */
         @Keep
         override fun fillMissingDays(rewindDays: Int, inplace: Boolean): ScreenTimeAggregateTimeSeries {
-            val newTimestamps = mutableListOf<ZonedDateTime>()
-            val newValues = mutableListOf<ScreenTimeAggregate>()
-            val newConfidenceIntervalLow = mutableListOf<ScreenTimeAggregate>()
-            val newConfidenceIntervalHigh = mutableListOf<ScreenTimeAggregate>()
-            val newConfidence = mutableListOf<Double>()
-            val currentDay = ZonedDateTime.now()
-            var prevDate =
-                if (timestamps.isNotEmpty()) timestamps[0].minusDays(rewindDays.toLong()) else currentDay.minusDays(
-                    rewindDays.toLong()
-                )
-
-            if (timestamps.isEmpty()) {
-                val nMissingDays = ChronoUnit.DAYS.between(prevDate.norm(), currentDay.norm()) - 1
-                for (j in 0 until nMissingDays) {
-                    newTimestamps.add(prevDate.norm().plusDays(j + 1L))
-                    newValues.add(ScreenTimeAggregate())
-                    newConfidenceIntervalLow.add(ScreenTimeAggregate())
-                    newConfidenceIntervalHigh.add(ScreenTimeAggregate())
-                    newConfidence.add(NaN)
-                }
-            }
-
-            for (i in values.indices) {
-                val nMissingDays =
-                    ChronoUnit.DAYS.between(prevDate.norm(), timestamps[i].norm()) - 1
-                for (j in 0 until nMissingDays) {
-                    newTimestamps.add(prevDate.norm().plusDays(j + 1L))
-                    newValues.add(ScreenTimeAggregate())
-                    newConfidenceIntervalLow.add(ScreenTimeAggregate())
-                    newConfidenceIntervalHigh.add(ScreenTimeAggregate())
-                    newConfidence.add(NaN)
-                }
-                newTimestamps.add(timestamps[i])
-                newValues.add(values[i])
-                newConfidenceIntervalLow.add(confidenceIntervalLow[i])
-                newConfidenceIntervalHigh.add(confidenceIntervalHigh[i])
-                newConfidence.add(confidence[i])
-                prevDate = timestamps[i]
-            }
-
-            // Adding missing days up to today
-            val nMissingFutureDays = if (newTimestamps.isNotEmpty()) ChronoUnit.DAYS.between(
-                newTimestamps.last().norm(),
-                currentDay.norm()
-            ) else 0
-            val lastValue = newTimestamps.last()
-            for (j in 0 until nMissingFutureDays) {
-                newTimestamps.add(lastValue.norm().plusDays(j + 1L))
-                newValues.add(ScreenTimeAggregate())
-                newConfidenceIntervalLow.add(ScreenTimeAggregate())
-                newConfidenceIntervalHigh.add(ScreenTimeAggregate())
-                newConfidence.add(NaN)
-            }
+            return fillMissingDays(rewindDays, inplace, null)
+        }
 
-            return if (inplace) {
-                this.values = newValues
-                this.confidenceIntervalLow = newConfidenceIntervalLow
-                this.confidenceIntervalHigh = newConfidenceIntervalHigh
-                this.confidence = newConfidence
-                this.timestamps = newTimestamps
-                this
-            } else {
-                ScreenTimeAggregateTimeSeries(
-                    newValues,
-                    newTimestamps,
-                    newConfidenceIntervalLow,
-                    newConfidenceIntervalHigh,
-                    newConfidence
-                )
-            }
+        override fun fillMissingDays(rewindDays: Int, inplace: Boolean, previous: DayGapIndex?): ScreenTimeAggregateTimeSeries {
+            return fillMissingDaysWith(rewindDays, inplace, previous, ScreenTimeAggregate(), ::ScreenTimeAggregateTimeSeries)
         }
 
+        override fun copy(): ScreenTimeAggregateTimeSeries = copyWith(::ScreenTimeAggregateTimeSeries)
+
         @Keep
         override fun takeLast(n: Int): ScreenTimeAggregateTimeSeries {
             return ScreenTimeAggregateTimeSeries(
@@ -1048,92 +837,40 @@ sealed class TimeSeries<T>(
         }
 
         override fun extractMonthlyAverages(): ScreenTimeAggregateTimeSeries {
-
-            val averagedValues = timestamps.zip(values).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).norm().withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) ->
-                ScreenTimeAggregate(
-                    v.map { it.totalScreenTime }.filter { !it.isNaN() }.average(),
-                    v.map { it.socialScreenTime }.filter { !it.isNaN() }.average()
-                )
-            }
-
-            val averagedConfidenceIntervalLow = timestamps.zip(confidenceIntervalLow).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).norm().withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) ->
-                ScreenTimeAggregate(
-                    v.map { it.totalScreenTime }.filter { !it.isNaN() }.average(),
-                    v.map { it.socialScreenTime }.filter { !it.isNaN() }.average()
-                )
-            }
-
-            val averagedConfidenceIntervalHigh = timestamps.zip(confidenceIntervalHigh).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).norm().withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) ->
-                ScreenTimeAggregate(
-                    v.map { it.totalScreenTime }.filter { !it.isNaN() }.average(),
-                    v.map { it.socialScreenTime }.filter { !it.isNaN() }.average()
-                )
-            }
-
-            val averagedConfidence = timestamps.zip(confidence).groupBy({
-                it.first.withDayOfMonth(1).withHour(0).norm().withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
-            return ScreenTimeAggregateTimeSeries(
-                averagedValues.values.toList(),
-                averagedValues.keys.toList(),
-                averagedConfidenceIntervalLow.values.toList(),
-                averagedConfidenceIntervalHigh.values.toList(),
-                averagedConfidence.values.toList()
-            )
-
+            return aggregate(TimeBucket.Month)
         }
 
-
         override fun extractWeeklyAverages(): ScreenTimeAggregateTimeSeries {
+            return aggregate(TimeBucket.Week())
+        }
 
-            val averagedValues = timestamps.zip(values).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1))).norm()
-                    .withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) ->
-                ScreenTimeAggregate(
-                    v.map { it.totalScreenTime }.filter { !it.isNaN() }.average(),
-                    v.map { it.socialScreenTime }.filter { !it.isNaN() }.average()
-                )
-            }
-
-            val averagedConfidenceIntervalLow = timestamps.zip(confidenceIntervalLow).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1))).norm()
-                    .withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) ->
-                ScreenTimeAggregate(
-                    v.map { it.totalScreenTime }.filter { !it.isNaN() }.average(),
-                    v.map { it.socialScreenTime }.filter { !it.isNaN() }.average()
-                )
-            }
-
-            val averagedConfidenceIntervalHigh = timestamps.zip(confidenceIntervalHigh).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1))).norm()
-                    .withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) ->
-                ScreenTimeAggregate(
-                    v.map { it.totalScreenTime }.filter { !it.isNaN() }.average(),
-                    v.map { it.socialScreenTime }.filter { !it.isNaN() }.average()
-                )
-            }
-
-            val averagedConfidence = timestamps.zip(confidence).groupBy({
-                it.first.with(TemporalAdjusters.previousOrSame(DayOfWeek.of(1))).norm()
-                    .withZoneSameLocal(ZoneId.systemDefault())
-            }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
-
+        /**
+         * Aggregates total and social screen time (and their confidence intervals and confidence)
+         * that fall in the same [bucket] of time using [reducer], NaNs are ignored.
+         * @param bucket the bucket of time e.g. [TimeBucket.Month] or [TimeBucket.Days]
+         * @param reducer how values are combined, average by default
+         * */
+        @Keep
+        fun aggregate(bucket: TimeBucket, reducer: Reducer = Reducer.MEAN): ScreenTimeAggregateTimeSeries {
+            val buckets = bucketize(timestamps, bucket)
+            val reduced = buckets.reduce(
+                arrayOf(
+                    DoubleArray(size) { values[it].totalScreenTime },
+                    DoubleArray(size) { values[it].socialScreenTime },
+                    DoubleArray(size) { confidenceIntervalLow[it].totalScreenTime },
+                    DoubleArray(size) { confidenceIntervalLow[it].socialScreenTime },
+                    DoubleArray(size) { confidenceIntervalHigh[it].totalScreenTime },
+                    DoubleArray(size) { confidenceIntervalHigh[it].socialScreenTime },
+                    confidence.toDoubleArray()
+                ),
+                reducer
+            )
             return ScreenTimeAggregateTimeSeries(
-                averagedValues.values.toList(),
-                averagedValues.keys.toList(),
-                averagedConfidenceIntervalLow.values.toList(),
-                averagedConfidenceIntervalHigh.values.toList(),
-                averagedConfidence.values.toList()
+                List(buckets.size) { ScreenTimeAggregate(reduced[0][it], reduced[1][it]) },
+                buckets.timestamps(),
+                List(buckets.size) { ScreenTimeAggregate(reduced[2][it], reduced[3][it]) },
+                List(buckets.size) { ScreenTimeAggregate(reduced[4][it], reduced[5][it]) },
+                reduced[6].asList()
             )
         }
 
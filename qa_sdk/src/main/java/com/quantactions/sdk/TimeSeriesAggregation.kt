@@ -0,0 +1,204 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import androidx.annotation.Keep
+import java.time.DayOfWeek
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneId
+import java.time.ZonedDateTime
+import java.time.temporal.TemporalAdjusters
+
+/**
+ * Buckets of time used to aggregate a [TimeSeries], see for example
+ * [TimeSeries.DoubleTimeSeries.aggregate]. Every bucket is identified by the local date it starts on.
+ */
+@Keep
+sealed class TimeBucket {
+
+    internal abstract fun startOf(date: LocalDate): LocalDate
+
+    /** Calendar months, starting on the first day of the month. */
+    @Keep
+    data object Month : TimeBucket() {
+        override fun startOf(date: LocalDate): LocalDate = date.withDayOfMonth(1)
+    }
+
+    /** Weeks starting on [firstDayOfWeek]. */
+    @Keep
+    open class Week(val firstDayOfWeek: DayOfWeek = DayOfWeek.MONDAY) : TimeBucket() {
+        override fun startOf(date: LocalDate): LocalDate =
+            date.with(TemporalAdjusters.previousOrSame(firstDayOfWeek))
+    }
+
+    /** ISO-8601 weeks (Monday to Sunday). */
+    @Keep
+    data object IsoWeek : Week(DayOfWeek.MONDAY)
+
+    /** Consecutive buckets of [days] days, counted from [anchor]. */
+    @Keep
+    class Days(val days: Int, val anchor: LocalDate = LocalDate.of(1970, 1, 5)) : TimeBucket() {
+        init {
+            require(days > 0) { "A bucket must contain at least one day" }
+        }
+
+        override fun startOf(date: LocalDate): LocalDate =
+            anchor.plusDays(Math.floorDiv(date.toEpochDay() - anchor.toEpochDay(), days.toLong()) * days)
+    }
+}
+
+/**
+ * How the values falling in the same [TimeBucket] are combined. NaNs are always ignored, a bucket
+ * without valid values gives NaN (0 for [COUNT]).
+ */
+@Keep
+enum class Reducer { MEAN, MEDIAN, MIN, MAX, COUNT }
+
+/**
+ * Assignment of the points of a time series to time buckets, computed once per point by
+ * [bucketize]. [starts] are the (sorted) local dates the buckets start on and [bucketOf] gives the
+ * bucket of every point.
+ * @suppress
+ */
+internal class Buckets(val starts: Array<LocalDate>, val bucketOf: IntArray) {
+
+    val size: Int
+        get() = starts.size
+
+    fun timestamps(zoneId: ZoneId = ZoneId.systemDefault()): List<ZonedDateTime> =
+        starts.map { it.atStartOfDay(zoneId) }
+
+    fun epochSeconds(zoneId: ZoneId): LongArray =
+        LongArray(size) { starts[it].atStartOfDay(zoneId).toEpochSecond() }
+
+    /** Indices of the points of every bucket, in the original order. */
+    fun members(): Array<IntArray> {
+        val counts = IntArray(size)
+        for (b in bucketOf) counts[b]++
+        val members = Array(size) { IntArray(counts[it]) }
+        val fill = IntArray(size)
+        for (i in bucketOf.indices) {
+            val b = bucketOf[i]
+            members[b][fill[b]++] = i
+        }
+        return members
+    }
+
+    /**
+     * Reduces all the [columns] (one value per point each) in a single pass over the points.
+     * @return one array per column with one value per bucket
+     */
+    fun reduce(columns: Array<DoubleArray>, reducer: Reducer): Array<DoubleArray> {
+        if (reducer == Reducer.MEDIAN) return median(columns)
+
+        val init = when (reducer) {
+            Reducer.MIN -> Double.POSITIVE_INFINITY
+            Reducer.MAX -> Double.NEGATIVE_INFINITY
+            else -> 0.0
+        }
+        val acc = Array(columns.size) { DoubleArray(size) { init } }
+        val counts = Array(columns.size) { IntArray(size) }
+
+        for (i in bucketOf.indices) {
+            val b = bucketOf[i]
+            for (c in columns.indices) {
+                val v = columns[c][i]
+                if (v.isNaN()) continue
+                counts[c][b]++
+                when (reducer) {
+                    Reducer.MEAN -> acc[c][b] += v
+                    Reducer.MIN -> if (v < acc[c][b]) acc[c][b] = v
+                    Reducer.MAX -> if (v > acc[c][b]) acc[c][b] = v
+                    else -> Unit
+                }
+            }
+        }
+
+        for (c in columns.indices) {
+            for (b in 0 until size) {
+                val n = counts[c][b]
+                acc[c][b] = when {
+                    reducer == Reducer.COUNT -> n.toDouble()
+                    n == 0 -> Double.NaN
+                    reducer == Reducer.MEAN -> acc[c][b] / n
+                    else -> acc[c][b]
+                }
+            }
+        }
+        return acc
+    }
+
+    private fun median(columns: Array<DoubleArray>): Array<DoubleArray> {
+        val members = members()
+        val scratch = DoubleArray(members.maxOfOrNull { it.size } ?: 0)
+        return Array(columns.size) { c ->
+            DoubleArray(size) { b ->
+                var n = 0
+                for (i in members[b]) {
+                    val v = columns[c][i]
+                    if (!v.isNaN()) scratch[n++] = v
+                }
+                if (n == 0) {
+                    Double.NaN
+                } else {
+                    scratch.sort(0, n)
+                    if (n % 2 == 1) scratch[n / 2] else (scratch[n / 2 - 1] + scratch[n / 2]) / 2
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Assigns every point to its [bucket], the bucket start is computed once per distinct day.
+ * @param epochDays local day of every point (as in [LocalDate.toEpochDay])
+ * @suppress
+ */
+internal fun bucketize(epochDays: LongArray, bucket: TimeBucket): Buckets {
+    val index = HashMap<LocalDate, Int>()
+    val starts = ArrayList<LocalDate>()
+    val bucketOf = IntArray(epochDays.size)
+    var lastDay = Long.MIN_VALUE
+    var lastBucket = -1
+    for (i in epochDays.indices) {
+        val day = epochDays[i]
+        if (day != lastDay) {
+            val start = bucket.startOf(LocalDate.ofEpochDay(day))
+            lastBucket = index.getOrPut(start) { starts.add(start); starts.size - 1 }
+            lastDay = day
+        }
+        bucketOf[i] = lastBucket
+    }
+
+    // keep the buckets in chronological order whatever the order of the points
+    val order = starts.indices.sortedBy { starts[it] }
+    val rank = IntArray(order.size)
+    order.forEachIndexed { r, b -> rank[b] = r }
+    for (i in bucketOf.indices) bucketOf[i] = rank[bucketOf[i]]
+    return Buckets(Array(order.size) { starts[order[it]] }, bucketOf)
+}
+
+/**
+ * @suppress
+ */
+internal fun bucketize(timestamps: List<ZonedDateTime>, bucket: TimeBucket): Buckets =
+    bucketize(LongArray(timestamps.size) { timestamps[it].toLocalDate().toEpochDay() }, bucket)
+
+/**
+ * @suppress
+ */
+internal fun bucketize(epochSeconds: LongArray, zoneId: ZoneId, bucket: TimeBucket): Buckets {
+    val rules = zoneId.rules
+    return bucketize(LongArray(epochSeconds.size) {
+        val s = epochSeconds[it]
+        Math.floorDiv(s + rules.getOffset(Instant.ofEpochSecond(s)).totalSeconds, 86_400L)
+    }, bucket)
+}
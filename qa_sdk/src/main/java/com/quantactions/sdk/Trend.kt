@@ -14,6 +14,8 @@ package com.quantactions.sdk
 import androidx.annotation.Keep
 import com.hadiyarajesh.flower_core.ApiResponse
 import com.quantactions.sdk.data.api.ApiService
+import com.quantactions.sdk.data.api.adapters.prepareOneMonthOfTrend
+import com.quantactions.sdk.data.api.responses.Analysis
 import com.quantactions.sdk.data.entity.TimestampedEntity
 import com.quantactions.sdk.data.entity.TrendEntity
 import com.quantactions.sdk.data.model.TrendHolder
@@ -30,8 +32,8 @@ import kotlinx.coroutines.flow.Flow
 @Keep
 sealed class Trend<P : TimestampedEntity, T> (
     val id: String,
-    val code: String,
-) : CanReturnCompiledTimeSeries<P, T> {
+    public override val code: String,
+) : CanReturnCompiledTimeSeries<P, T>, IngestsAnalyses<P> {
 
     // SPEED SCORES TRENDS
     @Keep
@@ -182,6 +184,14 @@ open class BasicTrendObject(id: String, code: String) :
         mvpDao.insertOrUpdateTrend(statistics)
     }
 
+    override fun ingest(mvpDao: MVPDao, statistics: List<TrendEntity>): Int {
+        return mvpDao.ingestTrend(code, statistics)
+    }
+
+    override fun fromAnalyses(analyses: List<Analysis>): List<TrendEntity> {
+        return analyses.flatMap { prepareOneMonthOfTrend(it.code, it.frame) }
+    }
+
     @Keep
     override fun filterScoreBasedOnTimeZone(timeSeries: TimeSeries<TrendHolder>): TimeSeries<TrendHolder> {
         return timeSeries
@@ -275,6 +285,14 @@ open class FilterByTimeZoneTrendObject(id: String, code: String) :
         mvpDao.insertOrUpdateTrend(statistics)
     }
 
+    override fun ingest(mvpDao: MVPDao, statistics: List<TrendEntity>): Int {
+        return mvpDao.ingestTrend(code, statistics)
+    }
+
+    override fun fromAnalyses(analyses: List<Analysis>): List<TrendEntity> {
+        return analyses.flatMap { prepareOneMonthOfTrend(it.code, it.frame) }
+    }
+
     @Keep
     override fun filterScoreBasedOnTimeZone(timeSeries: TimeSeries<TrendHolder>): TimeSeries<TrendHolder> {
         val evolution =
@@ -19,11 +19,6 @@ import com.hadiyarajesh.flower_core.ApiSuccessResponse
 import com.hadiyarajesh.flower_retrofit.FlowerCallAdapterFactory
 import com.quantactions.sdk.BuildConfig
 import com.quantactions.sdk.GenericPreferences
-import com.quantactions.sdk.data.api.adapters.QuestionnaireAdapter
-import com.quantactions.sdk.data.api.adapters.SleepSummaryAdapter
-import com.quantactions.sdk.data.api.adapters.StatisticAdapter
-import com.quantactions.sdk.data.api.adapters.StatisticStringAdapter
-import com.quantactions.sdk.data.api.adapters.TrendAdapter
 import com.quantactions.sdk.data.api.responses.*
 import com.quantactions.sdk.data.entity.JournalEventEntity
 import com.quantactions.sdk.data.entity.SleepSummaryEntity
@@ -48,27 +43,27 @@ import com.quantactions.sdk.data.repository.ActivityBody
 import com.quantactions.sdk.data.repository.HealthDataBody
 import com.quantactions.sdk.data.repository.TapDataBody
 import com.squareup.moshi.JsonClass
-import com.squareup.moshi.Moshi
-import com.squareup.moshi.kotlin.reflect.KotlinJsonAdapterFactory
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.runBlocking
 import kotlinx.serialization.Contextual
 import kotlinx.serialization.Serializable
 import okhttp3.Authenticator
+import okhttp3.Cache
 import okhttp3.Cookie
 import okhttp3.CookieJar
 import okhttp3.HttpUrl
-import okhttp3.OkHttpClient
+import okhttp3.Interceptor
 import okhttp3.Request
 import okhttp3.Response
 import okhttp3.Route
-import okhttp3.logging.HttpLoggingInterceptor
+import okio.ByteString.Companion.decodeBase64
 import retrofit2.Retrofit
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory
 import retrofit2.converter.moshi.MoshiConverterFactory
 import retrofit2.http.Body
 import retrofit2.http.DELETE
 import retrofit2.http.GET
+import retrofit2.http.Headers
 import retrofit2.http.PATCH
 import retrofit2.http.POST
 import retrofit2.http.Path
@@ -76,13 +71,13 @@ import retrofit2.http.Query
 import timber.log.Timber
 import java.io.IOException
 import java.nio.charset.Charset
-import java.util.concurrent.TimeUnit
 import jakarta.inject.Inject
 
 
 interface ApiService {
 
     @GET("flows/identities/{identityId}/healthyranges")
+    @Headers(ReferenceCache.DAY)
     suspend fun getHealthyRanges(
         @Path("identityId") identityId: String,
         @Query("filter") filter: String,
@@ -128,6 +123,24 @@ interface ApiService {
         @Query("containerId") containerId: String
     ): ApiResponse<List<TrendEntity>>
 
+    /**
+     * Same endpoint as [getStatStatisticEntity] but returns the analyses as they are, so that a
+     * single request can carry several metrics (see [com.quantactions.sdk.prepareFilter] with a
+     * list of codes). Every [Analysis] is one month of one metric, decoded by [AnalysesAdapter].
+     * @param identityId
+     * @param participationId
+     * @param filter
+     * @param containerId container shared by all the requested codes
+     * @return A list of [Analysis]
+     */
+    @GET("flows/identities/{identityId}/participations/{participationId}/analyses")
+    suspend fun getAnalyses(
+        @Path("identityId") identityId: String,
+        @Path("participationId") participationId: String,
+        @Query("filter") filter: String,
+        @Query("containerId") containerId: String
+    ): ApiResponse<List<Analysis>>
+
     /**
      * Registers the device with the backend.
      */
@@ -188,6 +201,7 @@ interface ApiService {
 
     // OK
     @POST("flows/identities/{identityId}/devices/{deviceId}/recordings")
+    @Headers(GzipRequestInterceptor.COMPRESS_GZIP)
     suspend fun submitActivity(
         @Path("identityId") identityId: String,
         @Path("deviceId") deviceId: String,
@@ -195,6 +209,7 @@ interface ApiService {
     ): ApiResponse<ActivityBody>
 
     @POST("flows/identities/{identityId}/devices/{deviceId}/recordings")
+    @Headers(GzipRequestInterceptor.COMPRESS_GZIP)
     suspend fun submitTap(
         @Path("identityId") identityId: String,
         @Path("deviceId") deviceId: String,
@@ -202,6 +217,7 @@ interface ApiService {
     ): ApiResponse<TapDataBody>
 
     @POST("flows/identities/{identityId}/devices/{deviceId}/recordings")
+    @Headers(GzipRequestInterceptor.COMPRESS_GZIP)
     suspend fun submitHealth(
         @Path("identityId") identityId: String,
         @Path("deviceId") deviceId: String,
@@ -251,6 +267,7 @@ interface ApiService {
      * @return a list of [com.quantactions.sdk.data.entity.JournalEventEntity]
      * */
     @GET("flows/identities/{identityId}/journals/events/types")
+    @Headers(ReferenceCache.DAY)
     suspend fun getJournalEventTypes(
         @Path("identityId") identityId: String,
         @Query("filter") filter: String
@@ -306,6 +323,7 @@ interface ApiService {
     ): ApiResponse<String>
 
     @GET("flows/identities/{identityId}/studies/{studyId}/questionnaires")
+    @Headers(ReferenceCache.HOUR)
     suspend fun getQuestionnaires(
         @Path("identityId") identityId: String,
         @Path("studyId") studyId: String,
@@ -397,6 +415,7 @@ interface ApiService {
         @Body response: CognitiveTestResponseBody
     ): ApiResponse<IdResponse>
 
+    @JsonClass(generateAdapter = true)
     @Serializable
     data class IdResponse(
         val id: String,
@@ -499,17 +518,13 @@ interface ApiService {
             apiKey: String,
             tokenAuthenticator: TokenAuthenticator,
             cookieJar: UvCookieJar,
+            cache: Cache? = null,
         ): ApiService {
-            val logger =
-//                HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.BODY }
-                HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.BASIC }
-//                HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.HEADERS }
-
-            val client = OkHttpClient.Builder()
-                .readTimeout(30, TimeUnit.SECONDS)
+            val client = HttpStack.client.newBuilder()
                 .cookieJar(cookieJar)
                 .authenticator(tokenAuthenticator)
-                .addInterceptor(logger)
+                .addInterceptor(GzipRequestInterceptor())
+                .addInterceptor(tokenAuthenticator)
                 .addInterceptor { chain ->
                     val original = chain.request()
                     // Request customization: add request headers
@@ -519,16 +534,9 @@ interface ApiService {
                     val request = requestBuilder.build()
                     chain.proceed(request)
                 }
-                .build()
-
-            val customMoshi = Moshi.Builder()
-                .add(StatisticAdapter())
-                .add(StatisticStringAdapter())
-                .add(SleepSummaryAdapter())
-                .add(StatisticStringAdapter())
-                .add(QuestionnaireAdapter())
-                .add(TrendAdapter())
-                .add(KotlinJsonAdapterFactory())
+                .addInterceptor(ReferenceCache.interceptor)
+                .addNetworkInterceptor(ReferenceCache.networkInterceptor)
+                .apply { if (cache != null) cache(cache) }
                 .build()
 
             return Retrofit.Builder()
@@ -536,7 +544,7 @@ interface ApiService {
                 .client(client)
                 .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
                 .addCallAdapterFactory(FlowerCallAdapterFactory.create())
-                .addConverterFactory(MoshiConverterFactory.create(customMoshi).withNullSerialization())
+                .addConverterFactory(MoshiConverterFactory.create(HttpStack.moshi).withNullSerialization())
                 .build()
                 .create(ApiService::class.java)
         }
@@ -594,15 +602,78 @@ interface ApiService {
 }
 
 
+/**
+ * Renews the tokens when a request gets a 401 and, as an [Interceptor] of the same client, shortly
+ * before the access token expires.
+ *
+ * Renewals are single-flight: the requests that get a 401 while another thread is renewing wait
+ * for it, and the ones that were sent before the last successful renewal retry right away with
+ * the new token instead of renewing again.
+ */
 class TokenAuthenticator @Inject constructor(
     private val tokenApi: TokenApi,
     private val preferences: GenericPreferences
-) : Authenticator {
+) : Authenticator, Interceptor {
+
+    private val lock = Any()
+
+    /** When the tokens were last renewed (epoch millis). */
+    @Volatile
+    private var renewedAt = 0L
+
+    @Volatile
+    private var lastProactiveAttempt = 0L
+
+    private var expiryOfToken: Pair<String, Long?>? = null
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        if (expiresSoon()) {
+            synchronized(lock) {
+                // the token may have been renewed while this request was waiting for the lock
+                val now = System.currentTimeMillis()
+                if (expiresSoon() && now - lastProactiveAttempt > PROACTIVE_RETRY_MILLIS) {
+                    lastProactiveAttempt = now
+                    Timber.d("Access token about to expire")
+                    // if this fails the request gets a 401 and goes through authenticate
+                    try {
+                        runBlocking { refreshToken() }
+                    } catch (e: IOException) {
+                        Timber.w(e, "Refresh ahead of expiry failed")
+                    }
+                }
+            }
+        }
+        return chain.proceed(chain.request())
+    }
+
+    private fun expiresSoon(): Boolean {
+        val expiresAt = accessTokenExpiresAt() ?: return false
+        return expiresAt - System.currentTimeMillis() < REFRESH_MARGIN_MILLIS
+    }
+
+    /** Expiry of the current access token, null if it is not a JWT with an `exp` claim. */
+    @Synchronized
+    private fun accessTokenExpiresAt(): Long? {
+        val token = preferences.accessToken ?: return null
+        expiryOfToken?.let { (cachedToken, expiry) -> if (cachedToken == token) return expiry }
+        return jwtExpiry(token).also { expiryOfToken = token to it }
+    }
 
     override fun authenticate(route: Route?, response: okhttp3.Response): Request {
 
         Timber.e("Got a 401 [${route}] : $response")
 
+        synchronized(lock) {
+            if (response.sentRequestAtMillis <= renewedAt && preferences.accessToken != null) {
+                Timber.d("Tokens were renewed after the request was sent, retrying")
+                return buildNewRequestWithAccessToken(response, preferences)
+            }
+            return renew(response)
+        }
+    }
+
+    private fun renew(response: Response): Request {
+
         // authenticator is called when the call returns a 401
         // 4 scenarios:
         // - the user has never logged in -> accessToken is null -> the device logs in -> saves the tokens -> continues
@@ -716,13 +787,35 @@ class TokenAuthenticator @Inject constructor(
 
     private suspend fun refreshToken(): ApiResponse<Void> {
         Timber.d("I refresh")
-        return tokenApi.refreshToken()
+        return tokenApi.refreshToken().also(::markRenewed)
     }
 
     private suspend fun login(): ApiResponse<Void> {
         Timber.d("I login")
-        return tokenApi.login(getBasicAuthHeader(preferences))
+        return tokenApi.login(getBasicAuthHeader(preferences)).also(::markRenewed)
     }
+
+    private fun markRenewed(response: ApiResponse<Void>) {
+        if (response !is ApiErrorResponse) renewedAt = System.currentTimeMillis()
+    }
+
+    companion object {
+        /** Access tokens expiring within this margin are refreshed before the request. */
+        const val REFRESH_MARGIN_MILLIS = 60_000L
+
+        /** Minimum time between two proactive refreshes, a failing one is not repeated per request. */
+        const val PROACTIVE_RETRY_MILLIS = 30_000L
+    }
+}
+
+private val JWT_EXP = Regex("\"exp\"\\s*:\\s*(\\d+)")
+
+/** `exp` claim of [token] in epoch millis, null if [token] is not a JWT or has no expiry. */
+internal fun jwtExpiry(token: String): Long? {
+    val parts = token.split('.')
+    if (parts.size != 3) return null
+    val payload = parts[1].decodeBase64()?.utf8() ?: return null
+    return JWT_EXP.find(payload)?.groupValues?.get(1)?.toLongOrNull()?.times(1000)
 }
 
 private fun buildNewRequestWithAccessToken(response: Response, preferences: GenericPreferences): Request {
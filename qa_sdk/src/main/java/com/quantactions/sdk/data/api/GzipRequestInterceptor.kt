@@ -0,0 +1,57 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.api
+
+import okhttp3.Interceptor
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
+import okio.Buffer
+import okio.GzipSink
+import okio.buffer
+
+/**
+ * Compresses the body of the requests that opted in with the [COMPRESS_HEADER] header
+ * (see [ApiService.submitTap]) and sends them with `Content-Encoding: gzip`.
+ * Bodies smaller than [minBytes] are sent as they are since the gzip header and the CPU time
+ * are not worth it there. The marker header never leaves the client.
+ * @suppress
+ */
+class GzipRequestInterceptor(private val minBytes: Long = DEFAULT_MIN_BYTES) : Interceptor {
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val original = chain.request()
+        if (original.header(COMPRESS_HEADER) == null) return chain.proceed(original)
+
+        val builder = original.newBuilder().removeHeader(COMPRESS_HEADER)
+        val body = original.body
+        val contentLength = body?.contentLength() ?: 0L
+        if (body == null || original.header("Content-Encoding") != null ||
+            (contentLength in 0 until minBytes)
+        ) {
+            return chain.proceed(builder.build())
+        }
+
+        val compressed = Buffer()
+        GzipSink(compressed).buffer().use { body.writeTo(it) }
+
+        return chain.proceed(
+            builder
+                .header("Content-Encoding", "gzip")
+                .method(original.method, compressed.readByteString().toRequestBody(body.contentType()))
+                .build()
+        )
+    }
+
+    companion object {
+        const val COMPRESS_HEADER = "X-QA-Compress"
+        const val COMPRESS_GZIP = "$COMPRESS_HEADER: gzip"
+        const val DEFAULT_MIN_BYTES = 1024L
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.api
+
+import com.quantactions.sdk.BuildConfig
+import com.quantactions.sdk.data.api.adapters.AnalysesAdapter
+import com.quantactions.sdk.data.api.adapters.QuestionnaireAdapter
+import com.quantactions.sdk.data.api.adapters.SleepSummaryAdapter
+import com.quantactions.sdk.data.api.adapters.StatisticAdapter
+import com.quantactions.sdk.data.api.adapters.StatisticStringAdapter
+import com.quantactions.sdk.data.api.adapters.TrendAdapter
+import com.squareup.moshi.Moshi
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.ConnectionPool
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.logging.HttpLoggingInterceptor
+import timber.log.Timber
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * HTTP stack shared by [TokenApi] and [ApiService] for the whole process.
+ *
+ * Both clients are derived from [client] with [OkHttpClient.newBuilder], so they share one
+ * connection pool and TLS sessions: the API host is connected (and multiplexed over HTTP/2) once,
+ * also after [com.quantactions.sdk.data.repository.MVPRepository.reInit] rebuilds the clients for
+ * a new API key.
+ * @suppress
+ */
+internal object HttpStack {
+
+    /** The API has a single host, a couple of idle HTTP/2 connections are enough. */
+    private const val MAX_IDLE_CONNECTIONS = 2
+    private const val KEEP_ALIVE_MINUTES = 5L
+
+    val client: OkHttpClient by lazy {
+        val logger =
+//            HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.BODY }
+            HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.BASIC }
+//            HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.HEADERS }
+
+        OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .readTimeout(30, TimeUnit.SECONDS)
+            .addInterceptor(logger)
+            .addNetworkInterceptor(TrafficCounter)
+            .build()
+    }
+
+    /**
+     * Moshi of both APIs: the adapters of the API responses and the generated adapters of the
+     * `@JsonClass(generateAdapter = true)` classes, no reflection.
+     */
+    val moshi: Moshi by lazy {
+        Moshi.Builder()
+            .add(StatisticAdapter())
+            .add(StatisticStringAdapter())
+            .add(SleepSummaryAdapter())
+            .add(QuestionnaireAdapter())
+            .add(TrendAdapter())
+            .add(AnalysesAdapter())
+            .build()
+    }
+
+    /**
+     * Opens a connection to [url] in the background if the pool has none, so that the first
+     * request does not pay the TLS handshake. The response itself is discarded.
+     */
+    fun prewarm(url: String = BuildConfig.QA_API_ROUTE) {
+        if (client.connectionPool.connectionCount() > 0) return
+        client.newCall(Request.Builder().url(url).head().build()).enqueue(object : Callback {
+            override fun onFailure(call: Call, e: IOException) {
+                Timber.d("Prewarm of $url failed: ${e.message}")
+            }
+
+            override fun onResponse(call: Call, response: Response) {
+                response.close()
+            }
+        })
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.api
+
+import okhttp3.Cache
+import okhttp3.CacheControl
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.HttpUrl
+import okhttp3.Interceptor
+import okhttp3.Response
+import okio.blackholeSink
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * On-disk HTTP cache of the reference GET endpoints (healthy ranges, journal event types and
+ * questionnaires), which change rarely but are fetched at every init.
+ *
+ * The cache is a plain OkHttp [Cache] in the cache directory of the app: it is **not encrypted**
+ * like the database. Only responses without data about the participant may opt in, e.g. the
+ * participations and anything recorded by the user are never cached. The cached URLs still carry
+ * the identity id (and the study id for the questionnaires), the entries are dropped when the
+ * identity changes (see [clear]).
+ *
+ * An endpoint opts in with a [CACHE_HEADER] header (e.g. [DAY]) carrying its policy:
+ * - `max-age`: seconds the response is used without asking the server;
+ * - `stale-while-revalidate`: seconds after that in which the stale response is still returned
+ *   right away while it is revalidated in the background.
+ *
+ * Once stale, a response is revalidated with a conditional GET (`If-None-Match` /
+ * `If-Modified-Since`), so an unchanged resource costs a `304` without body. The policy replaces
+ * whatever caching headers the server sends. The marker header never leaves the client.
+ * @suppress
+ */
+internal object ReferenceCache {
+
+    const val CACHE_HEADER = "X-QA-Cache"
+
+    /** Always revalidated, the body is only downloaded when it changed. */
+    const val REVALIDATE = "$CACHE_HEADER: max-age=0"
+
+    /** Fresh for an hour, then served for a day while revalidated. */
+    const val HOUR = "$CACHE_HEADER: max-age=3600, stale-while-revalidate=86400"
+
+    /** Fresh for a day, then served for a week while revalidated. */
+    const val DAY = "$CACHE_HEADER: max-age=86400, stale-while-revalidate=604800"
+
+    private const val MAX_SIZE = 5L * 1024 * 1024
+
+    /**
+     * Requests are served from the cache ([hits]), revalidated with a `304` ([revalidated]) or
+     * downloaded ([misses]). [backgroundRevalidations] are the revalidations started after
+     * returning a stale response, they are not counted in the other three.
+     */
+    data class Stats(
+        val hits: Long,
+        val revalidated: Long,
+        val misses: Long,
+        val backgroundRevalidations: Long,
+    ) {
+        /** Requests that did not download the body. */
+        val saved: Long
+            get() = hits + revalidated
+    }
+
+    data class Policy(val maxAgeSeconds: Long, val staleWhileRevalidateSeconds: Long) {
+        companion object {
+            private val DIRECTIVE = Regex("([a-z-]+)=(\\d+)")
+
+            /** Policy in the value of [CACHE_HEADER], null if there is no `max-age`. */
+            fun parse(value: String?): Policy? {
+                if (value == null) return null
+                val directives = DIRECTIVE.findAll(value).associate { it.groupValues[1] to it.groupValues[2].toLong() }
+                val maxAge = directives["max-age"] ?: return null
+                return Policy(maxAge, directives["stale-while-revalidate"] ?: 0)
+            }
+        }
+    }
+
+    private val hits = AtomicLong()
+    private val revalidated = AtomicLong()
+    private val misses = AtomicLong()
+    private val backgroundRevalidations = AtomicLong()
+
+    /** Calls started by [interceptor] to revalidate a stale response, they go to the network. */
+    private val revalidations = Collections.synchronizedSet(Collections.newSetFromMap(IdentityHashMap<Call, Boolean>()))
+    private val revalidatedUrls = Collections.synchronizedSet(HashSet<HttpUrl>())
+
+    private var cache: Cache? = null
+
+    val stats: Stats
+        get() = Stats(hits.get(), revalidated.get(), misses.get(), backgroundRevalidations.get())
+
+    /** The cache in [directory], one instance per process as OkHttp requires. */
+    @Synchronized
+    fun cache(directory: File): Cache =
+        cache ?: Cache(File(directory, "reference_http_cache"), MAX_SIZE).also { cache = it }
+
+    /** Drops every cached response, e.g. when they belong to another identity. */
+    fun clear(directory: File) {
+        try {
+            cache(directory).evictAll()
+        } catch (e: IOException) {
+            Timber.e(e)
+        }
+    }
+
+    /** Application interceptor: applies the policy of the request and serves stale responses. */
+    val interceptor = Interceptor { chain ->
+        val original = chain.request()
+        val policy = Policy.parse(original.header(CACHE_HEADER))
+            ?: return@Interceptor chain.proceed(original)
+        val request = original.newBuilder()
+            .removeHeader(CACHE_HEADER)
+            .tag(Policy::class.java, policy)
+            .build()
+
+        if (chain.call() in revalidations) return@Interceptor chain.proceed(request)
+
+        if (policy.staleWhileRevalidateSeconds > 0) {
+            val cached = chain.proceed(
+                request.newBuilder()
+                    .cacheControl(
+                        CacheControl.Builder()
+                            .onlyIfCached()
+                            .maxStale(policy.staleWhileRevalidateSeconds.toInt(), TimeUnit.SECONDS)
+                            .build()
+                    )
+                    .build()
+            )
+            if (cached.isSuccessful) {
+                hits.incrementAndGet()
+                val age = System.currentTimeMillis() - cached.receivedResponseAtMillis
+                if (age > TimeUnit.SECONDS.toMillis(policy.maxAgeSeconds)) revalidate(chain.call())
+                return@Interceptor cached
+            }
+            // 504: not in the cache or too old
+            cached.close()
+        }
+
+        chain.proceed(request).also { response ->
+            when {
+                response.networkResponse == null -> hits.incrementAndGet()
+                response.networkResponse?.code == 304 -> revalidated.incrementAndGet()
+                else -> misses.incrementAndGet()
+            }
+        }
+    }
+
+    /**
+     * Network interceptor: replaces the caching headers of the responses with the policy. All the
+     * other responses share the client but are never stored, the cache is not encrypted.
+     */
+    val networkInterceptor = Interceptor { chain ->
+        val response = chain.proceed(chain.request())
+        val policy = chain.request().tag(Policy::class.java)
+        if (policy == null || (response.code != 200 && response.code != 304)) {
+            return@Interceptor response.newBuilder().header("Cache-Control", "no-store").build()
+        }
+        response.newBuilder()
+            .header("Cache-Control", "max-age=${policy.maxAgeSeconds}")
+            .removeHeader("Expires")
+            .removeHeader("Pragma")
+            // the URLs carry the identity, the cookies must not split the entries
+            .removeHeader("Vary")
+            .build()
+    }
+
+    /** Revalidates the response of [call] in the background, once at a time per URL. */
+    private fun revalidate(call: Call) {
+        val url = call.request().url
+        if (!revalidatedUrls.add(url)) return
+        val revalidation = call.clone()
+        revalidations.add(revalidation)
+        backgroundRevalidations.incrementAndGet()
+        revalidation.enqueue(object : Callback {
+            override fun onFailure(call: Call, e: IOException) {
+                revalidations.remove(call)
+                revalidatedUrls.remove(url)
+                Timber.d("Revalidation of $url failed: ${e.message}")
+            }
+
+            override fun onResponse(call: Call, response: Response) {
+                try {
+                    // a changed resource is only written to the cache as its body is read
+                    response.use { it.body.source().readAll(blackholeSink()) }
+                } finally {
+                    revalidations.remove(call)
+                    revalidatedUrls.remove(url)
+                }
+            }
+        })
+    }
+}
@@ -15,16 +15,15 @@ import com.quantactions.sdk.BuildConfig
 import com.squareup.moshi.JsonClass
 import kotlinx.serialization.Serializable
 import okhttp3.CookieJar
+import okhttp3.Dispatcher
 import okhttp3.OkHttpClient
-import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory
-import retrofit2.converter.gson.GsonConverterFactory
+import retrofit2.converter.moshi.MoshiConverterFactory
 import retrofit2.http.Body
 import retrofit2.http.GET
 import retrofit2.http.HeaderMap
 import retrofit2.http.POST
-import java.util.concurrent.TimeUnit
 
 interface TokenApi {
 
@@ -86,12 +85,13 @@ interface TokenApi {
     companion object {
         fun buildTokenApi(
             apiKey: String,
-            cookieJar: ApiService.UvCookieJar
+            cookieJar: ApiService.UvCookieJar,
+            baseUrl: String = BuildConfig.QA_API_ROUTE,
         ): TokenApi {
             return Retrofit.Builder()
-                .baseUrl(BuildConfig.QA_API_ROUTE)
+                .baseUrl(baseUrl)
                 .client(getRetrofitClient(apiKey, cookieJar))
-                .addConverterFactory(GsonConverterFactory.create())
+                .addConverterFactory(MoshiConverterFactory.create(HttpStack.moshi))
                 .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
                 .addCallAdapterFactory(FlowerCallAdapterFactory.create())
                 .build()
@@ -104,13 +104,10 @@ private fun getRetrofitClient(
     apiKey: String,
     cookieJar: CookieJar
 ): OkHttpClient {
-
-//    val logger = HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.BODY }
-    val logger = HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.BASIC }
-//    val logger = HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.HEADERS }
-
-    return OkHttpClient.Builder()
-        .readTimeout(30, TimeUnit.SECONDS)
+    // own dispatcher: the refresh runs while API calls of the shared one wait for it in
+    // TokenAuthenticator, it must not queue behind them
+    return HttpStack.client.newBuilder()
+        .dispatcher(Dispatcher())
         .cookieJar(cookieJar)
         .addInterceptor { chain ->
             chain.proceed(chain.request().newBuilder().also {
@@ -120,6 +117,5 @@ private fun getRetrofitClient(
 //                it.addHeader("cache-control", "max-age=30")
             }.build())
         }
-        .addInterceptor(logger)
         .build()
 }
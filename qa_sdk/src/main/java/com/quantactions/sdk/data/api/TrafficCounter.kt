@@ -0,0 +1,39 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.api
+
+import okhttp3.Interceptor
+import okhttp3.Response
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Network interceptor counting the bytes of the request bodies as they go on the wire (i.e.
+ * after [GzipRequestInterceptor]), used by the report of the sync cycle. Bodies of unknown
+ * length are not counted.
+ *
+ * The count is process wide: the bytes of a stage are the difference of [bytesSent] before and
+ * after it, so they also include the requests made at the same time outside of the stage (e.g.
+ * a [com.quantactions.sdk.data.repository.MVPRepository.getStat] update) and are approximate.
+ * @suppress
+ */
+internal object TrafficCounter : Interceptor {
+
+    private val sent = AtomicLong()
+
+    /** Bytes of request bodies sent since the process started. */
+    val bytesSent: Long
+        get() = sent.get()
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val length = chain.request().body?.contentLength() ?: 0L
+        if (length > 0) sent.addAndGet(length)
+        return chain.proceed(chain.request())
+    }
+}
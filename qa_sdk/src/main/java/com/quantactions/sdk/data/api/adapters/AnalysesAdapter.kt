@@ -0,0 +1,163 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.api.adapters
+
+import com.quantactions.sdk.data.api.responses.Analysis
+import com.quantactions.sdk.data.api.responses.DataFrame
+import com.squareup.moshi.FromJson
+import com.squareup.moshi.JsonReader
+import com.squareup.moshi.ToJson
+
+/**
+ * Streaming decoder of the analyses endpoint: the pandas `schema`/`data` of every month is read
+ * token by token into a [DataFrame] (no map per row, numbers are not boxed), the other fields of
+ * the response are skipped.
+ */
+class AnalysesAdapter {
+
+    @FromJson
+    fun fromJson(reader: JsonReader): List<Analysis> = readAnalyses(reader)
+
+    @ToJson
+    fun toJson(@Suppress("UNUSED_PARAMETER") value: List<Analysis>): String {
+        throw UnsupportedOperationException()
+    }
+}
+
+private val ANALYSIS_FIELDS = JsonReader.Options.of("code", "metrics")
+private val CORE_FIELDS = JsonReader.Options.of("schema", "data")
+private val SCHEMA_FIELDS = JsonReader.Options.of("fields")
+private val FIELD_FIELDS = JsonReader.Options.of("name")
+
+/**
+ * Reads a list of analyses (`[{"code": ..., "metrics": {"schema": ..., "data": [...]}}, ...]`).
+ * @suppress
+ */
+fun readAnalyses(reader: JsonReader): List<Analysis> {
+    val analyses = ArrayList<Analysis>()
+    reader.beginArray()
+    while (reader.hasNext()) {
+        var code = ""
+        var frame: DataFrame? = null
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.selectName(ANALYSIS_FIELDS)) {
+                0 -> code = reader.nextString()
+                1 -> frame = readDataFrame(reader)
+                else -> {
+                    reader.skipName()
+                    reader.skipValue()
+                }
+            }
+        }
+        reader.endObject()
+        analyses.add(Analysis(code, frame ?: DataFrame.Builder().build()))
+    }
+    reader.endArray()
+    return analyses
+}
+
+/**
+ * Reads a pandas DataFrame serialized with the `table` orient.
+ * @suppress
+ */
+fun readDataFrame(reader: JsonReader): DataFrame {
+    val builder = DataFrame.Builder()
+    // once the schema is known the column names of every row are matched without allocating them
+    var names: List<String>? = null
+    var options: JsonReader.Options? = null
+    var columns: Array<DataFrame.Column>? = null
+
+    reader.beginObject()
+    while (reader.hasNext()) {
+        when (reader.selectName(CORE_FIELDS)) {
+            0 -> {
+                names = readSchemaNames(reader)
+                builder.schema(names)
+                options = JsonReader.Options.of(*names.toTypedArray())
+                columns = Array(names.size) { builder.column(names[it]) }
+            }
+            1 -> {
+                reader.beginArray()
+                while (reader.hasNext()) {
+                    val row = builder.rows
+                    reader.beginObject()
+                    while (reader.hasNext()) {
+                        val index = if (options != null) reader.selectName(options) else -1
+                        val column = if (index >= 0) columns!![index] else builder.column(reader.nextName())
+                        readCell(reader, column, row)
+                    }
+                    reader.endObject()
+                    builder.endRow()
+                }
+                reader.endArray()
+            }
+            else -> {
+                reader.skipName()
+                reader.skipValue()
+            }
+        }
+    }
+    reader.endObject()
+    return builder.build()
+}
+
+private fun readSchemaNames(reader: JsonReader): List<String> {
+    val names = ArrayList<String>()
+    reader.beginObject()
+    while (reader.hasNext()) {
+        if (reader.selectName(SCHEMA_FIELDS) != 0) {
+            reader.skipName()
+            reader.skipValue()
+            continue
+        }
+        reader.beginArray()
+        while (reader.hasNext()) {
+            reader.beginObject()
+            while (reader.hasNext()) {
+                if (reader.selectName(FIELD_FIELDS) == 0) {
+                    names.add(reader.nextString())
+                } else {
+                    reader.skipName()
+                    reader.skipValue()
+                }
+            }
+            reader.endObject()
+        }
+        reader.endArray()
+    }
+    reader.endObject()
+    return names
+}
+
+private fun readCell(reader: JsonReader, column: DataFrame.Column, row: Int) {
+    when (reader.peek()) {
+        JsonReader.Token.NUMBER -> column.setNumber(row, reader.nextDouble())
+        JsonReader.Token.STRING -> column.setObject(row, reader.nextString())
+        JsonReader.Token.BOOLEAN -> column.setNumber(row, if (reader.nextBoolean()) 1.0 else 0.0)
+        JsonReader.Token.NULL -> reader.nextNull<Any>()
+        JsonReader.Token.BEGIN_ARRAY -> {
+            var values = DoubleArray(8)
+            var n = 0
+            reader.beginArray()
+            while (reader.hasNext()) {
+                if (reader.peek() != JsonReader.Token.NUMBER) {
+                    reader.skipValue()
+                    continue
+                }
+                if (n == values.size) values = values.copyOf(n * 2)
+                values[n++] = reader.nextDouble()
+            }
+            reader.endArray()
+            column.setObject(row, values.copyOf(n))
+        }
+        else -> reader.skipValue()
+    }
+}
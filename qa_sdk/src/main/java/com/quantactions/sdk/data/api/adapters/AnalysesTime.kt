@@ -0,0 +1,135 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.api.adapters
+
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.ConcurrentHashMap
+
+/** Format of the `index`/`date` column of the analyses. */
+internal val ANALYSES_INDEX_FORMATTER: DateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+
+private const val SECONDS_PER_DAY = 86400L
+
+/**
+ * Parses an `index` of the analyses (`yyyy-MM-dd'T'HH:mm:ss.SSS'Z'`) into the epoch second of the
+ * same date and time in UTC, i.e. `LocalDateTime.parse(text, ANALYSES_INDEX_FORMATTER).toEpochSecond(UTC)`
+ * without allocating. Anything not in exactly that format goes through java.time, so malformed
+ * values fail the same way as before.
+ * @suppress
+ */
+internal fun parseIndexSeconds(text: String): Long {
+    if (text.length != 24 || text[4] != '-' || text[7] != '-' || text[10] != 'T' || text[13] != ':' ||
+        text[16] != ':' || text[19] != '.' || text[23] != 'Z'
+    ) return parseIndexSecondsSlow(text)
+    val year = digits(text, 0, 4)
+    val month = digits(text, 5, 2)
+    val day = digits(text, 8, 2)
+    val hour = digits(text, 11, 2)
+    val minute = digits(text, 14, 2)
+    val second = digits(text, 17, 2)
+    if (year < 0 || month !in 1..12 || day < 1 || day > lengthOfMonth(year, month) || hour !in 0..23 ||
+        minute !in 0..59 || second !in 0..59 || digits(text, 20, 3) < 0
+    ) return parseIndexSecondsSlow(text)
+    return epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second
+}
+
+private fun parseIndexSecondsSlow(text: String): Long =
+    LocalDateTime.parse(text, ANALYSES_INDEX_FORMATTER).toEpochSecond(ZoneOffset.UTC)
+
+/** Value of [length] decimal digits starting at [start], -1 if one of them is not a digit. */
+private fun digits(text: String, start: Int, length: Int): Int {
+    var value = 0
+    for (i in start until start + length) {
+        val d = text[i] - '0'
+        if (d !in 0..9) return -1
+        value = value * 10 + d
+    }
+    return value
+}
+
+private fun isLeap(year: Int) = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0
+
+private fun lengthOfMonth(year: Int, month: Int) = when (month) {
+    2 -> if (isLeap(year)) 29 else 28
+    4, 6, 9, 11 -> 30
+    else -> 31
+}
+
+/** Same as `LocalDate.of(year, month, day).toEpochDay()`. */
+private fun epochDay(year: Int, month: Int, day: Int): Long {
+    val y = year.toLong()
+    var total = 365 * y
+    total += if (y >= 0) (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400 else -(y / -4 - y / -100 + y / -400)
+    total += (367 * month - 362) / 12
+    total += day - 1
+    if (month > 2) total -= if (isLeap(year)) 1 else 2
+    return total - 719528
+}
+
+/**
+ * A [ZoneId] with the span of local times around the last conversion where its offset does not
+ * change, so that converting the rows of a month (which share the zone) needs java.time only
+ * once per offset transition.
+ * @suppress
+ */
+internal class CachedZone(val zoneId: ZoneId) {
+
+    /** Local epoch seconds in [from, to) are all valid and have [offset] (seconds). */
+    private class Span(val from: Long, val to: Long, val offset: Int)
+
+    @Volatile
+    private var span = Span(0, 0, 0)
+
+    /** Same as `ZonedDateTime.of(local, zoneId).toEpochSecond()` with `local` given as UTC epoch second. */
+    fun epochSecond(localEpochSecond: Long): Long {
+        val span = spanOf(localEpochSecond) ?: return zoned(localEpochSecond).toEpochSecond()
+        return localEpochSecond - span.offset
+    }
+
+    /** Same as `ZonedDateTime.of(local, zoneId).hour` with `local` given as UTC epoch second. */
+    fun hour(localEpochSecond: Long): Int {
+        if (spanOf(localEpochSecond) == null) return zoned(localEpochSecond).hour
+        return (Math.floorMod(localEpochSecond, SECONDS_PER_DAY) / 3600).toInt()
+    }
+
+    private fun zoned(localEpochSecond: Long): ZonedDateTime =
+        ZonedDateTime.of(LocalDateTime.ofEpochSecond(localEpochSecond, 0, ZoneOffset.UTC), zoneId)
+
+    private fun spanOf(localEpochSecond: Long): Span? {
+        val current = span
+        if (localEpochSecond >= current.from && localEpochSecond < current.to) return current
+        val zdt = zoned(localEpochSecond)
+        val rules = zoneId.rules
+        val instant = zdt.toInstant()
+        // local times inside a gap or an overlap are left to java.time
+        val previous = rules.previousTransition(instant.plusSeconds(1))
+        val next = rules.nextTransition(instant)
+        val from = previous?.let { maxOf(it.dateTimeBefore, it.dateTimeAfter).toEpochSecond(ZoneOffset.UTC) } ?: Long.MIN_VALUE
+        val to = next?.let { minOf(it.dateTimeBefore, it.dateTimeAfter).toEpochSecond(ZoneOffset.UTC) } ?: Long.MAX_VALUE
+        if (localEpochSecond < from || localEpochSecond >= to) return null
+        return Span(from, to, zdt.offset.totalSeconds).also { span = it }
+    }
+}
+
+/**
+ * Interned [CachedZone]s by id, the analyses carry the time zone as a string in every row.
+ * @suppress
+ */
+internal object ZoneCache {
+    private val zones = ConcurrentHashMap<String, CachedZone>()
+
+    val UTC = of("UTC")
+
+    fun of(id: String): CachedZone = zones[id] ?: zones.getOrPut(id) { CachedZone(ZoneId.of(id)) }
+}
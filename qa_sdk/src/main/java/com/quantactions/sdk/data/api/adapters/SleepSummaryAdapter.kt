@@ -9,19 +9,21 @@
 
 package com.quantactions.sdk.data.api.adapters
 
+import com.quantactions.sdk.data.api.responses.DataFrame
 import com.quantactions.sdk.data.api.responses.StatisticResponse
 import com.quantactions.sdk.data.entity.SleepSummaryEntity
 import com.quantactions.sdk.data.entity.StatisticEntity
 import com.squareup.moshi.FromJson
+import com.squareup.moshi.JsonReader
 import com.squareup.moshi.ToJson
-import java.time.LocalDateTime
-import java.time.ZoneId
-import java.time.ZonedDateTime
-import java.time.format.DateTimeFormatter
 
 class SleepSummaryAdapter {
 
     @FromJson
+    fun fromJson(reader: JsonReader): List<SleepSummaryEntity> {
+        return readAnalyses(reader).flatMap { prepareOneMonthOfSleepMetric(it.code, it.frame) }
+    }
+
     fun fromJson(stat: List<StatisticResponse>): List<SleepSummaryEntity> {
         return stat.flatMap { prepareOneMonthOfSleepMetric(it) }
     }
@@ -33,28 +35,35 @@ class SleepSummaryAdapter {
 }
 
 fun prepareOneMonthOfSleepMetric(stat: StatisticResponse): List<SleepSummaryEntity> {
-    val formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
-
-    @Suppress("UNCHECKED_CAST") val ret = stat.metrics.data.map {
-        val ld = LocalDateTime.parse(it["date"]!! as String, formatter)
-        val localZoneId = it["time-zone"]!! as String
-        val oldZdt = ZonedDateTime.of(ld, ZoneId.of("UTC"))
-        val zdt = ZonedDateTime.of(ld, ZoneId.of(localZoneId))
-        val sleepStart = it["sleep-utc"]!! as Double
-        val sleepEnd = it["wake-utc"]!! as Double
-        val intStart = it["int-start"]!! as List<Double>
-        val intEnd = it["int-stop"]!! as List<Double>
-        val intTaps = it["int-ntaps"]!! as List<Double>
-        SleepSummaryEntity(
-            stat.code + oldZdt.toEpochSecond(),
-            zdt.toEpochSecond(),
-            sleepStart.toLong(),
-            sleepEnd.toLong(),
-            intStart.map{i->i.toLong()},
-            intEnd.map{i->i.toLong()},
-            intTaps.map{i -> i.toInt()},
-            localZoneId
+    return prepareOneMonthOfSleepMetric(stat.code, DataFrame.of(stat.metrics))
+}
+
+fun prepareOneMonthOfSleepMetric(code: String, frame: DataFrame): List<SleepSummaryEntity> {
+    if (frame.rows == 0) return emptyList()
+    val date = frame.column("date")!!
+    val timeZone = frame.column("time-zone")!!
+    val sleepUTC = frame.column("sleep-utc")!!
+    val wakeUTC = frame.column("wake-utc")!!
+    val intStart = frame.column("int-start")!!
+    val intStop = frame.column("int-stop")!!
+    val intTaps = frame.column("int-ntaps")!!
+
+    val ret = ArrayList<SleepSummaryEntity>(frame.rows)
+    for (row in 0 until frame.rows) {
+        val local = parseIndexSeconds(date.string(row)!!)
+        val localZoneId = timeZone.string(row)!!
+        ret.add(
+            SleepSummaryEntity(
+                code + local,
+                ZoneCache.of(localZoneId).epochSecond(local),
+                sleepUTC.double(row).toLong(),
+                wakeUTC.double(row).toLong(),
+                intStart.doubles(row)!!.map { i -> i.toLong() },
+                intStop.doubles(row)!!.map { i -> i.toLong() },
+                intTaps.doubles(row)!!.map { i -> i.toInt() },
+                localZoneId
+            )
         )
     }
     return ret
-}
\ No newline at end of file
+}
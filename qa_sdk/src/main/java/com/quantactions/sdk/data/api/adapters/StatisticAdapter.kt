@@ -10,16 +10,14 @@
 package com.quantactions.sdk.data.api.adapters
 
 import androidx.annotation.Keep
+import com.quantactions.sdk.data.api.responses.DataFrame
 import com.quantactions.sdk.data.api.responses.StatisticResponse
 import com.quantactions.sdk.data.entity.StatisticEntity
 import com.squareup.moshi.FromJson
+import com.squareup.moshi.JsonReader
 import com.squareup.moshi.ToJson
 import timber.log.Timber
 import java.lang.Double.NaN
-import java.time.LocalDateTime
-import java.time.ZoneId
-import java.time.ZonedDateTime
-import java.time.format.DateTimeFormatter
 
 
 //@Retention(AnnotationRetention.RUNTIME)
@@ -31,6 +29,10 @@ import java.time.format.DateTimeFormatter
 
 class StatisticAdapter {
     @FromJson
+    fun fromJson(reader: JsonReader): List<StatisticEntity> {
+        return readAnalyses(reader).flatMap { prepareOneMonthOfMetric(it.code, it.frame) }
+    }
+
     fun fromJson(stat: List<StatisticResponse>): List<StatisticEntity> {
         return stat.flatMap { prepareOneMonthOfMetric(it) }
     }
@@ -42,36 +44,43 @@ class StatisticAdapter {
 }
 
 fun prepareOneMonthOfMetric(stat: StatisticResponse): List<StatisticEntity> {
-    val columnNames = stat.metrics.schema.fields.map { it["name"] }
-    val hasTz = columnNames.contains("time-zone")
-    val hasWakeUTC = columnNames.contains("wake-utc")
-    val statName = columnNames[1]
-
-    val formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+    return prepareOneMonthOfMetric(stat.code, DataFrame.of(stat.metrics))
+}
 
-    val ret = stat.metrics.data.filter { it[statName] != null }.map {
-        val timeZone = if (hasTz && it["time-zone"] != null) it["time-zone"]!! as String else "UTC"
-        val zoneId = ZoneId.of(timeZone)
-        val ld = LocalDateTime.parse(it["index"]!! as String, formatter)
-        val zdt = ZonedDateTime.of(ld, zoneId)
+fun prepareOneMonthOfMetric(code: String, frame: DataFrame): List<StatisticEntity> {
+    val columnNames = frame.names
+    val statName = columnNames[1]
+    val stat = frame.column(statName) ?: return emptyList()
+    val index = frame.column("index") ?: return emptyList()
+    val timeZones = if ("time-zone" in frame) frame.column("time-zone") else null
+    val wakeUTC = if ("wake-utc" in frame) frame.column("wake-utc") else null
+    val ciLow = if ("ci-l" in frame) frame.column("ci-l") else null
+    val ciHigh = if ("ci-h" in frame) frame.column("ci-h") else null
+    val conf = if ("conf" in frame) frame.column("conf") else null
 
-        val timestamp = if (hasWakeUTC && it["wake-utc"] != null) (it["wake-utc"]!! as Double / 1000).toLong() else zdt.toEpochSecond()
+    val ret = ArrayList<StatisticEntity>(frame.rows)
+    for (row in 0 until frame.rows) {
+        if (stat.isNull(row)) continue
+        val timeZone = timeZones?.string(row) ?: "UTC"
+        val zone = ZoneCache.of(timeZone)
+        // the index is the local date and time, its UTC epoch second is also the id of the row
+        val local = parseIndexSeconds(index.string(row)!!)
 
-        val oldLd = LocalDateTime.parse(it["index"]!! as String, formatter)
-        val oldZdt = ZonedDateTime.of(oldLd, ZoneId.of("UTC"))
-        val oldTimestamp = oldZdt.toEpochSecond()
+        val timestamp = if (wakeUTC != null && !wakeUTC.isNull(row)) (wakeUTC.double(row) / 1000).toLong() else zone.epochSecond(local)
 
-        StatisticEntity(
-            stat.code + oldTimestamp,
-            stat.code,
-            timestamp,
-            it[statName]!! as Double,
-            timeZone,
-            zdt.hour,
-            if ("ci-l" in columnNames) it["ci-l"]!! as Double else NaN,
-            if ("ci-h" in columnNames) it["ci-h"]!! as Double else NaN,
-            if ("conf" in columnNames) it["conf"]!! as Double else NaN,
+        ret.add(
+            StatisticEntity(
+                code + local,
+                code,
+                timestamp,
+                stat.double(row),
+                timeZone,
+                zone.hour(local),
+                ciLow?.double(row) ?: NaN,
+                ciHigh?.double(row) ?: NaN,
+                conf?.double(row) ?: NaN,
+            )
         )
     }
     return ret
-}
\ No newline at end of file
+}
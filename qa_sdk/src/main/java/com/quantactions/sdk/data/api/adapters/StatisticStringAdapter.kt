@@ -9,15 +9,12 @@
 
 package com.quantactions.sdk.data.api.adapters
 
+import com.quantactions.sdk.data.api.responses.DataFrame
 import com.quantactions.sdk.data.api.responses.StatisticResponse
 import com.quantactions.sdk.data.entity.StatisticStringEntity
 import com.squareup.moshi.FromJson
+import com.squareup.moshi.JsonReader
 import com.squareup.moshi.ToJson
-import java.time.LocalDateTime
-import java.time.ZoneId
-import java.time.ZonedDateTime
-import java.time.format.DateTimeFormatter
-import kotlin.math.roundToInt
 
 //@Retention(AnnotationRetention.RUNTIME)
 //@JsonQualifier
@@ -28,6 +25,10 @@ import kotlin.math.roundToInt
 
 class StatisticStringAdapter {
     @FromJson
+    fun fromJson(reader: JsonReader): List<StatisticStringEntity> {
+        return readAnalyses(reader).flatMap { prepareOneMonthOfStringMetric(it.code, it.frame) }
+    }
+
     fun fromJson(stat: List<StatisticResponse>): List<StatisticStringEntity> {
         return stat.flatMap { prepareOneMonthOfStringMetric(it) }
     }
@@ -39,23 +40,34 @@ class StatisticStringAdapter {
 }
 
 fun prepareOneMonthOfStringMetric(stat: StatisticResponse): List<StatisticStringEntity> {
-    val nCols = stat.metrics.schema.fields.size - 1
-
-    val statNames = stat.metrics.schema.fields.map {it["name"]}.subList(1, nCols + 1)
-
-    val formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
-    val z = ZoneId.of("UTC")
+    return prepareOneMonthOfStringMetric(stat.code, DataFrame.of(stat.metrics))
+}
 
+fun prepareOneMonthOfStringMetric(code: String, frame: DataFrame): List<StatisticStringEntity> {
+    val index = frame.column("index") ?: return emptyList()
+    val statColumns = frame.names.subList(1, frame.names.size).map { frame.column(it)!! }
+    val utc = ZoneCache.UTC
 
-    val ret = stat.metrics.data.map {
-        val ld = LocalDateTime.parse(it["index"]!! as String, formatter)
-        val zdt = ZonedDateTime.of(ld, z)
-        StatisticStringEntity(stat.code + zdt.toEpochSecond(),
-            stat.code,
-            zdt.toEpochSecond(),
-            statNames.map { statName -> (it[statName]!! as Double).toLong().toString() }.reduce{ acc, string -> "$acc;$string" },
-            "UTC",
-            zdt.hour
-        ) }
+    val ret = ArrayList<StatisticStringEntity>(frame.rows)
+    val value = StringBuilder()
+    for (row in 0 until frame.rows) {
+        val timestamp = parseIndexSeconds(index.string(row)!!)
+        value.setLength(0)
+        statColumns.forEachIndexed { i, column ->
+            check(!column.isNull(row)) { "Missing ${column.name} in $code" }
+            if (i > 0) value.append(';')
+            value.append(column.double(row).toLong())
+        }
+        ret.add(
+            StatisticStringEntity(
+                code + timestamp,
+                code,
+                timestamp,
+                value.toString(),
+                "UTC",
+                utc.hour(timestamp)
+            )
+        )
+    }
     return ret
-}
\ No newline at end of file
+}
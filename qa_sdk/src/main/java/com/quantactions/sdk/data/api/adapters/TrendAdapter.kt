@@ -9,15 +9,12 @@
 
 package com.quantactions.sdk.data.api.adapters
 
+import com.quantactions.sdk.data.api.responses.DataFrame
 import com.quantactions.sdk.data.api.responses.StatisticResponse
-import com.quantactions.sdk.data.entity.StatisticStringEntity
 import com.quantactions.sdk.data.entity.TrendEntity
 import com.squareup.moshi.FromJson
+import com.squareup.moshi.JsonReader
 import com.squareup.moshi.ToJson
-import java.time.LocalDateTime
-import java.time.ZoneId
-import java.time.ZonedDateTime
-import java.time.format.DateTimeFormatter
 
 //@Retention(AnnotationRetention.RUNTIME)
 //@JsonQualifier
@@ -28,6 +25,10 @@ import java.time.format.DateTimeFormatter
 
 class TrendAdapter {
     @FromJson
+    fun fromJson(reader: JsonReader): List<TrendEntity> {
+        return readAnalyses(reader).flatMap { prepareOneMonthOfTrend(it.code, it.frame) }
+    }
+
     fun fromJson(stat: List<StatisticResponse>): List<TrendEntity> {
         return stat.flatMap { prepareOneMonthOfTrend(it) }
     }
@@ -39,28 +40,33 @@ class TrendAdapter {
 }
 
 fun prepareOneMonthOfTrend(stat: StatisticResponse): List<TrendEntity> {
-    val formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
-    val z = ZoneId.of("UTC")
+    return prepareOneMonthOfTrend(stat.code, DataFrame.of(stat.metrics))
+}
 
-    val ret = stat.metrics.data.map {
-        val ld = LocalDateTime.parse(it["index"]!! as String, formatter)
-        // might be that we need to accommodate if the index it's actually a "date"
+fun prepareOneMonthOfTrend(code: String, frame: DataFrame): List<TrendEntity> {
+    val index = frame.column("index") ?: return emptyList()
+    // missing columns and null cells are NaN
+    val columns = TREND_COLUMNS.map { frame.column(it) }
 
-        val zdt = ZonedDateTime.of(ld, z)
-        TrendEntity(
-            stat.code + zdt.toEpochSecond(),
-            stat.code,
-            zdt.toEpochSecond(),
-            if (it["diff2W"] == null) Double.NaN else it["diff2W"] as Double,
-            if (it["stat2W"] == null) Double.NaN else it["stat2W"] as Double,
-            if (it["sign2W"] == null) Double.NaN else it["sign2W"] as Double,
-            if (it["diff6W"] == null) Double.NaN else it["diff6W"] as Double,
-            if (it["stat6W"] == null) Double.NaN else it["stat6W"] as Double,
-            if (it["sign6W"] == null) Double.NaN else it["sign6W"] as Double,
-            if (it["diff1Y"] == null) Double.NaN else it["diff1Y"] as Double,
-            if (it["stat1Y"] == null) Double.NaN else it["stat1Y"] as Double,
-            if (it["sign1Y"] == null) Double.NaN else it["sign1Y"] as Double,
+    val ret = ArrayList<TrendEntity>(frame.rows)
+    for (row in 0 until frame.rows) {
+        // might be that we need to accommodate if the index it's actually a "date"
+        val timestamp = parseIndexSeconds(index.string(row)!!)
+        val v = DoubleArray(columns.size) { columns[it]?.double(row) ?: Double.NaN }
+        ret.add(
+            TrendEntity(
+                code + timestamp,
+                code,
+                timestamp,
+                v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8],
+            )
         )
     }
     return ret
-}
\ No newline at end of file
+}
+
+private val TREND_COLUMNS = listOf(
+    "diff2W", "stat2W", "sign2W",
+    "diff6W", "stat6W", "sign6W",
+    "diff1Y", "stat1Y", "sign1Y",
+)
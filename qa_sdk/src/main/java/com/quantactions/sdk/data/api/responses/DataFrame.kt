@@ -0,0 +1,122 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.api.responses
+
+import java.util.BitSet
+
+/**
+ * Column store for the pandas DataFrames (`table` orient, see [StatisticCore]) returned by the
+ * analyses endpoint. Numbers are kept in a [DoubleArray] per column, strings and lists of numbers
+ * (as [DoubleArray]) in an object array, so rows are never boxed into maps.
+ * @property names column names in the order of the schema
+ * @property rows number of rows
+ * @suppress
+ */
+class DataFrame internal constructor(
+    val names: List<String>,
+    val rows: Int,
+    private val columns: Map<String, Column>,
+) {
+
+    fun column(name: String): Column? = columns[name]
+
+    operator fun contains(name: String) = name in names
+
+    /**
+     * One column of a [DataFrame], cells never written (e.g. missing in a row) are null.
+     * @suppress
+     */
+    class Column internal constructor(val name: String) {
+        private var numbers = DoubleArray(0)
+        private var objects: Array<Any?>? = null
+        private val present = BitSet()
+
+        internal fun setNumber(row: Int, value: Double) {
+            if (row >= numbers.size) numbers = numbers.copyOf(maxOf(row + 1, numbers.size * 2, 16))
+            numbers[row] = value
+            present.set(row)
+        }
+
+        internal fun setObject(row: Int, value: Any) {
+            var array = objects ?: arrayOfNulls(0)
+            if (row >= array.size) array = array.copyOf(maxOf(row + 1, array.size * 2, 16))
+            array[row] = value
+            objects = array
+            present.set(row)
+        }
+
+        fun isNull(row: Int) = !present.get(row)
+
+        /** Numeric value of the cell, NaN if the cell is null or not a number. */
+        fun double(row: Int): Double =
+            if (present.get(row) && objects?.getOrNull(row) == null) numbers[row] else Double.NaN
+
+        fun string(row: Int): String? = objects?.getOrNull(row) as? String
+
+        fun doubles(row: Int): DoubleArray? = objects?.getOrNull(row) as? DoubleArray
+    }
+
+    /**
+     * Incremental construction of a [DataFrame], rows can arrive before the schema.
+     * @suppress
+     */
+    internal class Builder {
+        private val columns = LinkedHashMap<String, Column>()
+        private var schema: List<String>? = null
+        var rows = 0
+            private set
+
+        fun schema(names: List<String>) {
+            schema = names
+            names.forEach { columns.getOrPut(it) { Column(it) } }
+        }
+
+        fun column(name: String): Column = columns.getOrPut(name) { Column(name) }
+
+        fun endRow() {
+            rows++
+        }
+
+        fun build() = DataFrame(schema ?: columns.keys.toList(), rows, columns)
+    }
+
+    companion object {
+        /** Converts the DataFrame of a [StatisticCore] decoded as maps. */
+        fun of(core: StatisticCore): DataFrame {
+            val builder = Builder()
+            builder.schema(core.schema.fields.mapNotNull { it["name"] })
+            core.data.forEachIndexed { row, cells ->
+                cells.forEach { (name, value) ->
+                    val column = builder.column(name)
+                    when (value) {
+                        is Number -> column.setNumber(row, value.toDouble())
+                        is String -> column.setObject(row, value)
+                        is List<*> -> column.setObject(row, DoubleArray(value.size) { (value[it] as Number).toDouble() })
+                        else -> {}
+                    }
+                }
+                builder.endRow()
+            }
+            return builder.build()
+        }
+    }
+}
+
+/**
+ * One month of one metric or trend from the analyses endpoint, decoded by
+ * [com.quantactions.sdk.data.api.adapters.AnalysesAdapter].
+ * @property code code of the metric or trend
+ * @property frame the values, see [DataFrame]
+ * @suppress
+ */
+class Analysis(
+    val code: String,
+    val frame: DataFrame,
+)
@@ -10,11 +10,13 @@
 package com.quantactions.sdk.data.api.responses
 
 import androidx.annotation.Keep
+import com.squareup.moshi.JsonClass
 
 /**
  * @suppress
  */
 @Keep
+@JsonClass(generateAdapter = true)
 data class RegistrationResponse(
     val id: String
 )
\ No newline at end of file
@@ -14,6 +14,7 @@ package com.quantactions.sdk.data.entity
 import androidx.annotation.Keep
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import com.squareup.moshi.JsonClass
 
@@ -23,7 +24,10 @@ import com.squareup.moshi.JsonClass
  * permissions and privacy policy.
  * @suppress
  */
-@Entity(tableName = "activity_transition_table")
+@Entity(
+    tableName = "activity_transition_table",
+    indices = [Index(value = ["sync", "timestamp"]), Index(value = ["timestamp"])]
+)
 @JsonClass(generateAdapter = true)
 @Keep
 data class ActivityTransitionEntity(
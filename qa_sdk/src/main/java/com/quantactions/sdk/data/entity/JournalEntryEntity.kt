@@ -12,6 +12,7 @@ package com.quantactions.sdk.data.entity
 import androidx.annotation.Keep
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import com.squareup.moshi.JsonClass
 
@@ -20,7 +21,7 @@ import com.squareup.moshi.JsonClass
  * @hide
  */
 @Keep
-@Entity(tableName = "journal_entry")
+@Entity(tableName = "journal_entry", indices = [Index(value = ["sync"])])
 @JsonClass(generateAdapter = true)
 data class JournalEntryEntity(
     @PrimaryKey
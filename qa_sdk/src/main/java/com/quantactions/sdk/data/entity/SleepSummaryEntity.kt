@@ -12,6 +12,7 @@ package com.quantactions.sdk.data.entity
 import androidx.annotation.Keep
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import com.squareup.moshi.JsonClass
 
@@ -21,7 +22,7 @@ import com.squareup.moshi.JsonClass
  * during those interruptions.
  * @suppress
  */
-@Entity(tableName = "sleep_summary_table")
+@Entity(tableName = "sleep_summary_table", indices = [Index(value = ["timestamp"])])
 @JsonClass(generateAdapter = true)
 data class SleepSummaryEntity(
     /** Unique, defined as the concatenation between UNIX timestamp and stat code */
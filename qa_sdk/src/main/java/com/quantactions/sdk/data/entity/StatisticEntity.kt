@@ -11,6 +11,7 @@ package com.quantactions.sdk.data.entity
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import com.squareup.moshi.JsonClass
 
@@ -23,7 +24,7 @@ import com.squareup.moshi.JsonClass
  * where the 'reset' value of the ROW is equal to the raw time shift in the current time zone.
  * @suppress
  */
-@Entity(tableName = "stat_table")
+@Entity(tableName = "stat_table", indices = [Index(value = ["stat", "timestamp"])])
 @JsonClass(generateAdapter = true)
 data class StatisticEntity(
 
@@ -11,6 +11,7 @@ package com.quantactions.sdk.data.entity
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import com.squareup.moshi.JsonClass
 
@@ -24,7 +25,7 @@ import com.squareup.moshi.JsonClass
  * where the 'reset' value of the ROW is equal to the raw time shift in the current time zone.
  * @suppress
  */
-@Entity(tableName = "stat_string_table")
+@Entity(tableName = "stat_string_table", indices = [Index(value = ["timestamp"])])
 @JsonClass(generateAdapter = true)
 data class StatisticStringEntity(
     /** Unique, defined as the concatenation between UNIX timestamp and stat code */
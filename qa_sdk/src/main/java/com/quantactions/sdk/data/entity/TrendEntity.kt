@@ -11,6 +11,7 @@ package com.quantactions.sdk.data.entity
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import com.squareup.moshi.JsonClass
 
@@ -18,7 +19,7 @@ import com.squareup.moshi.JsonClass
  * Entity of the table trend containing all information about a trend.
  * @hide
  */
-@Entity(tableName = "trend_table")
+@Entity(tableName = "trend_table", indices = [Index(value = ["trend", "timestamp"])])
 @JsonClass(generateAdapter = true)
 data class TrendEntity(
     /** Unique, defined as the concatenation between UNIX timestamp and stat code */
@@ -0,0 +1,98 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.repository
+
+import com.hadiyarajesh.flower_core.ApiResponse
+import com.quantactions.sdk.data.api.responses.Analysis
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * Coalesces the analyses requests of different metrics made within [windowMs] of each other into
+ * a single request (see [MVPRepository.getStat]). Requests are grouped by identity, participation
+ * and container, the months of the grouped request are the union of the months asked (every
+ * metric has its own high-water mark, so they can differ). Every caller receives the whole
+ * response of its group: it is up to the caller to keep only the analyses of its own code.
+ * @suppress
+ */
+internal class AnalysesBatcher(
+    private val scope: CoroutineScope,
+    private val windowMs: Long = DEFAULT_WINDOW_MS,
+    private val fetch: suspend (request: Request, codes: List<String>) -> ApiResponse<List<Analysis>>,
+) {
+
+    /** [from] and [to] are months (yyyy-MM). */
+    data class Request(
+        val identityId: String,
+        val participationId: String,
+        val containerId: String,
+        val from: String,
+        val to: String,
+    )
+
+    private data class Group(val identityId: String, val participationId: String, val containerId: String)
+
+    private class Batch(var from: String, var to: String) {
+        val codes = LinkedHashSet<String>()
+        val result = CompletableDeferred<ApiResponse<List<Analysis>>>()
+
+        // months compare in the same order as their strings
+        fun add(request: Request, code: String) {
+            codes.add(code)
+            if (request.from < from) from = request.from
+            if (request.to > to) to = request.to
+        }
+    }
+
+    private val pending = HashMap<Group, Batch>()
+
+    /** Number of HTTP requests made and number of metrics they carried. */
+    var requests = 0L
+        private set
+    var codes = 0L
+        private set
+
+    suspend fun fetch(request: Request, code: String): ApiResponse<List<Analysis>> {
+        val group = Group(request.identityId, request.participationId, request.containerId)
+        val batch = synchronized(pending) {
+            pending[group]?.also { it.add(request, code) } ?: Batch(request.from, request.to).also { batch ->
+                batch.add(request, code)
+                pending[group] = batch
+                scope.launch { send(group, batch) }
+            }
+        }
+        return batch.result.await()
+    }
+
+    private suspend fun send(group: Group, batch: Batch) {
+        delay(windowMs)
+        // from now on new requests start a new batch
+        val (request, codes) = synchronized(pending) {
+            pending.remove(group)
+            Request(group.identityId, group.participationId, group.containerId, batch.from, batch.to) to
+                batch.codes.toList()
+        }
+        synchronized(this) {
+            this.requests++
+            this.codes += codes.size
+        }
+        try {
+            batch.result.complete(fetch(request, codes))
+        } catch (e: Exception) {
+            batch.result.completeExceptionally(e)
+        }
+    }
+
+    companion object {
+        const val DEFAULT_WINDOW_MS = 50L
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.repository
+
+import com.quantactions.sdk.SingletonHolder
+import com.quantactions.sdk.data.entity.CodeOfApp
+
+/**
+ * In memory copy of `code_of_app` (package name -> id), loaded on first use and kept in sync with
+ * the rows it inserts. Writers of `code_of_app` that bypass it must call [invalidate].
+ * @suppress
+ */
+internal class AppDictionary(
+    private val load: () -> List<CodeOfApp>,
+    private val insert: (List<CodeOfApp>) -> List<Long>,
+) {
+
+    private var ids: HashMap<String, Int>? = null
+
+    /** Number of apps known, loads the dictionary if needed. */
+    val size: Int
+        @Synchronized get() = dictionary().size
+
+    private fun dictionary(): HashMap<String, Int> = ids ?: load().let { apps ->
+        HashMap<String, Int>(apps.size * 2).also { map ->
+            apps.forEach { map[it.appName] = it.id }
+            ids = map
+        }
+    }
+
+    /**
+     * Ids of [names], in the same order. The names not in `code_of_app` yet are inserted with a
+     * single statement.
+     */
+    @Synchronized
+    fun idsOf(names: List<String>): IntArray {
+        val map = dictionary()
+        val result = IntArray(names.size)
+        var missing: LinkedHashMap<String, MutableList<Int>>? = null
+        for (i in names.indices) {
+            val id = map[names[i]]
+            if (id != null) {
+                result[i] = id
+            } else {
+                if (missing == null) missing = LinkedHashMap()
+                missing.getOrPut(names[i]) { mutableListOf() }.add(i)
+            }
+        }
+        if (missing != null) {
+            val newIds = insert(missing.keys.map { CodeOfApp(0, it, 0) })
+            missing.entries.forEachIndexed { k, (name, positions) ->
+                val id = newIds[k].toInt()
+                map[name] = id
+                positions.forEach { result[it] = id }
+            }
+        }
+        return result
+    }
+
+    /** Drops the in memory copy, the next lookup reloads it from the database. */
+    @Synchronized
+    fun invalidate() {
+        ids = null
+    }
+
+    companion object : SingletonHolder<AppDictionary, MVPDao>({ dao ->
+        AppDictionary(dao::getListOfApps, dao::insertOrUpdateAppCode)
+    })
+}
@@ -41,4 +41,7 @@ interface CognitiveTestDao {
     @Query("SELECT * FROM cognitive_test_results WHERE sync = 0")
     fun getPendingCognitiveTests(): List<CognitiveTestEntity>
 
+    @Query("SELECT EXISTS(SELECT 1 FROM cognitive_test_results WHERE sync = 0)")
+    fun hasPendingCognitiveTests(): Boolean
+
 }
\ No newline at end of file
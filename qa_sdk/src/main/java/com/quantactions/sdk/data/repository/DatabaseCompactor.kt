@@ -0,0 +1,91 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.repository
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import kotlinx.coroutines.yield
+import timber.log.Timber
+
+/**
+ * Retention of the raw recordings (tap sessions, device health and activity transitions) once
+ * they have been synced, and compaction of the database file afterwards.
+ * @suppress
+ */
+internal class DatabaseCompactor(
+    private val database: MVPRoomDatabase,
+    private val batchSize: Int = DEFAULT_BATCH_SIZE,
+) {
+
+    /** Size of the database file in pages, free pages are reclaimed by [incrementalVacuum]. */
+    data class Size(val pages: Long, val freePages: Long, val pageSize: Long) {
+        val bytes: Long
+            get() = pages * pageSize
+    }
+
+    private val db: SupportSQLiteDatabase
+        get() = database.openHelper.writableDatabase
+
+    private fun pragma(name: String): Long = db.query("PRAGMA $name").use {
+        if (it.moveToFirst()) it.getLong(0) else 0L
+    }
+
+    fun size() = Size(pragma("page_count"), pragma("freelist_count"), pragma("page_size"))
+
+    /**
+     * Deletes the synced raw rows that ended before [before] (epoch millis), [batchSize] rows per
+     * statement so that the recording is never blocked for long.
+     * @return number of rows deleted
+     */
+    suspend fun prune(before: Long): Int {
+        val dao = database.mvpDao()
+        val tables = listOf<(Long, Int) -> Int>(
+            dao::pruneSyncedTapDataParsed,
+            dao::pruneSyncedDeviceHealthParsed,
+            dao::pruneSyncedActivity,
+        )
+        var deleted = 0
+        for (prune in tables) {
+            do {
+                val n = prune(before, batchSize)
+                deleted += n
+                yield()
+            } while (n == batchSize)
+        }
+        return deleted
+    }
+
+    /**
+     * Returns up to [maxPages] free pages to the file system. Databases created before retention
+     * existed have `auto_vacuum=NONE`: the first call switches them to incremental mode with a
+     * full VACUUM, which is why this should only run while the device is idle and charging.
+     * @return duration of that full VACUUM in ms, 0 if the database was already incremental
+     */
+    fun incrementalVacuum(maxPages: Int = DEFAULT_VACUUM_PAGES): Long {
+        var fullVacuumMillis = 0L
+        if (pragma("auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            Timber.i("Switching database to incremental auto vacuum")
+            val start = System.currentTimeMillis()
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+            db.execSQL("VACUUM")
+            fullVacuumMillis = System.currentTimeMillis() - start
+            Timber.i("Full vacuum took $fullVacuumMillis ms")
+        }
+        db.query("PRAGMA incremental_vacuum($maxPages)").use { while (it.moveToNext()) { } }
+        // fold the WAL back into the database file so that the size reflects the vacuum
+        db.query("PRAGMA wal_checkpoint(TRUNCATE)").use { while (it.moveToNext()) { } }
+        return fullVacuumMillis
+    }
+
+    companion object {
+        const val DEFAULT_BATCH_SIZE = 500
+        const val DEFAULT_VACUUM_PAGES = 2048
+        private const val AUTO_VACUUM_INCREMENTAL = 2L
+    }
+}
@@ -11,11 +11,15 @@ package com.quantactions.sdk.data.repository
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import com.squareup.moshi.JsonClass
 
 
-@Entity(tableName = "health_table")
+@Entity(
+    tableName = "health_table",
+    indices = [Index(value = ["sync", "start"]), Index(value = ["start"])]
+)
 @JsonClass(generateAdapter = true)
 
 data class DeviceHealthParsed(
@@ -15,6 +15,7 @@ import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.Transaction
 import com.quantactions.sdk.data.entity.ActivityTransitionEntity
 import com.quantactions.sdk.data.entity.CodeOfApp
 import com.quantactions.sdk.data.entity.Cohort
@@ -61,6 +62,63 @@ interface MVPDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insertOrUpdateSleepSummary(stat: List<SleepSummaryEntity>)
 
+    @Query("SELECT * from stat_table WHERE stat = :statName and timestamp >= :from and timestamp <= :to")
+    fun getMetricStatisticRows(statName: String, from: Long, to: Long): List<StatisticEntity>
+
+    @Query("SELECT * from trend_table WHERE trend = :trendCode and timestamp >= :from and timestamp <= :to")
+    fun getTrendRows(trendCode: String, from: Long, to: Long): List<TrendEntity>
+
+    @Query("SELECT * from sleep_summary_table where timestamp >= :from and timestamp <= :to")
+    fun getMetricSleepSummaryRows(from: Long, to: Long): List<SleepSummaryEntity>
+
+    @Query("SELECT * from stat_string_table WHERE timestamp >= :from and timestamp <= :to")
+    fun getMetricStatisticStringRows(from: Long, to: Long): List<StatisticStringEntity>
+
+    /**
+     * Bulk ingest of the rows of one analyses response: in a single transaction, compares them
+     * with the stored rows of the same period and writes only the new or changed ones, all with
+     * the same compiled `INSERT OR REPLACE`.
+     * @return number of rows written
+     */
+    @Transaction
+    fun ingestMetric(statName: String, stat: List<StatisticEntity>): Int {
+        if (stat.isEmpty()) return 0
+        val stored = getMetricStatisticRows(statName, stat.minOf { it.timestamp }, stat.maxOf { it.timestamp }).toHashSet()
+        val changed = stat.filter { it !in stored }
+        if (changed.isNotEmpty()) insertOrUpdateMetric(changed)
+        return changed.size
+    }
+
+    /** Same as [ingestMetric] for trends. */
+    @Transaction
+    fun ingestTrend(trendCode: String, stat: List<TrendEntity>): Int {
+        if (stat.isEmpty()) return 0
+        val stored = getTrendRows(trendCode, stat.minOf { it.timestamp }, stat.maxOf { it.timestamp }).toHashSet()
+        val changed = stat.filter { it !in stored }
+        if (changed.isNotEmpty()) insertOrUpdateTrend(changed)
+        return changed.size
+    }
+
+    /** Same as [ingestMetric] for the sleep summaries. */
+    @Transaction
+    fun ingestSleepSummary(stat: List<SleepSummaryEntity>): Int {
+        if (stat.isEmpty()) return 0
+        val stored = getMetricSleepSummaryRows(stat.minOf { it.timestamp }, stat.maxOf { it.timestamp }).toHashSet()
+        val changed = stat.filter { it !in stored }
+        if (changed.isNotEmpty()) insertOrUpdateSleepSummary(changed)
+        return changed.size
+    }
+
+    /** Same as [ingestMetric] for the string metrics. */
+    @Transaction
+    fun ingestStringMetric(stat: List<StatisticStringEntity>): Int {
+        if (stat.isEmpty()) return 0
+        val stored = getMetricStatisticStringRows(stat.minOf { it.timestamp }, stat.maxOf { it.timestamp }).toHashSet()
+        val changed = stat.filter { it !in stored }
+        if (changed.isNotEmpty()) insertOrUpdateStringMetric(changed)
+        return changed.size
+    }
+
     // taps
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insertOrUpdateTapDataParsed(tapDataParsed: TapDataParsed)
@@ -68,9 +126,18 @@ interface MVPDao {
     @Query("SELECT * from taps_table WHERE sync=0 ORDER BY start DESC")
     fun getTapDataParsedToSync(): List<TapDataParsed>
 
+    @Query("SELECT EXISTS(SELECT 1 from taps_table WHERE sync=0)")
+    fun hasTapDataParsedToSync(): Boolean
+
+    @Query("SELECT * from taps_table WHERE sync=0 AND id > :afterId ORDER BY id ASC LIMIT :limit")
+    fun getTapDataParsedToSyncPage(afterId: Int, limit: Int): List<TapDataParsed>
+
     @Query("SELECT * from activity_transition_table WHERE sync=0 ORDER BY timestamp DESC")
     fun getActivityToSync(): List<ActivityTransitionEntity>
 
+    @Query("SELECT EXISTS(SELECT 1 from activity_transition_table WHERE sync=0)")
+    fun hasActivityToSync(): Boolean
+
     @Query("UPDATE taps_table SET sync=1 WHERE start in (:starts)")
     fun updateTapDataParsedSyncStatus(starts: List<Long>)
 
@@ -90,9 +157,22 @@ interface MVPDao {
     @Query("SELECT * from health_table WHERE sync=0 ORDER BY start DESC")
     fun getDeviceHealthParsedToSync(): List<DeviceHealthParsed>
 
+    @Query("SELECT EXISTS(SELECT 1 from health_table WHERE sync=0)")
+    fun hasDeviceHealthParsedToSync(): Boolean
+
     @Query("UPDATE health_table SET sync=1 WHERE start in (:starts)")
     fun updateDeviceHealthParsedSyncStatus(starts: List<Long>)
 
+    // RETENTION, synced raw data is deleted a batch at a time to keep the write lock short
+    @Query("DELETE FROM taps_table WHERE id IN (SELECT id FROM taps_table WHERE sync=1 AND stop < :before LIMIT :limit)")
+    fun pruneSyncedTapDataParsed(before: Long, limit: Int): Int
+
+    @Query("DELETE FROM health_table WHERE id IN (SELECT id FROM health_table WHERE sync=1 AND stop < :before LIMIT :limit)")
+    fun pruneSyncedDeviceHealthParsed(before: Long, limit: Int): Int
+
+    @Query("DELETE FROM activity_transition_table WHERE id IN (SELECT id FROM activity_transition_table WHERE sync=1 AND timestamp < :before LIMIT :limit)")
+    fun pruneSyncedActivity(before: Long, limit: Int): Int
+
     // QUESTIONNAIRES
     @Query("SELECT q.*, s.studyTitle FROM questionnaires q INNER JOIN studies s on q.qStudy = s.studyId ORDER BY s.studyTitle ASC;")
     fun getQuestionnaires(): List<QuestionnaireWithCohortName>
@@ -100,6 +180,9 @@ interface MVPDao {
     @Query("SELECT * FROM questionnaire_responses")
     fun getQuestionnaireResponses(): List<QuestionnaireResponseEntity>
 
+    @Query("SELECT EXISTS(SELECT 1 FROM questionnaire_responses)")
+    fun hasQuestionnaireResponses(): Boolean
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insertOrUpdateQuestionnaire(questionnaireEntities: List<Questionnaire>)
 
@@ -147,6 +230,10 @@ interface MVPDao {
     @Query("SELECT * from journal_entry WHERE sync=0 and deleted=1")
     fun getPendingJournalEntriesToDelete(): List<JournalEntryEntity>
 
+    /** Entries to create or to delete on the backend. */
+    @Query("SELECT EXISTS(SELECT 1 from journal_entry WHERE sync=0)")
+    fun hasPendingJournalEntries(): Boolean
+
     @Query("SELECT * from journal_entry_joins_journal_event WHERE journal_entry_id=:journalEntryId")
     fun getJournalEventsOfJournalEntry(journalEntryId: String): List<JournalEntryJoinsJournalEventEntity>
 
@@ -201,7 +288,7 @@ interface MVPDao {
     fun updateJournalEntryOldId(localId: String, oldId: String)
 
     @Query("DELETE FROM taps_table where id in (:idList)")
-    fun deleteWrongTapSessions(idList: List<String>)
+    fun deleteWrongTapSessions(idList: List<String>): Int
 
     @Query("DELETE FROM health_table where id in (:idList)")
     fun deleteWrongHealthSessions(idList: List<String>)
@@ -213,6 +300,24 @@ interface MVPDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insertOrUpdateHourlyTapsEntity(hourlyTapsEntities: List<HourlyTapsEntity>)
 
+    @Query("INSERT OR IGNORE INTO hourly_taps (date_tap, hour, num_taps, speed) VALUES (:date, :hour, 0, 0)")
+    fun insertHourlyTapsIfMissing(date: String, hour: Int)
+
+    @Query("UPDATE hourly_taps SET num_taps = num_taps + :taps, speed = max(speed, :speed) WHERE date_tap = :date AND hour = :hour")
+    fun incrementHourlyTaps(date: String, hour: Int, taps: Int, speed: Float)
+
+    /**
+     * Adds [taps] to the count of the hour and keeps the highest [speed], atomically thanks to the
+     * unique (date_tap, hour) index, so that concurrent sessions cannot create duplicate hours.
+     * Same as `INSERT ... ON CONFLICT DO UPDATE`, which the SQLite of older Android versions does
+     * not support.
+     */
+    @Transaction
+    fun addHourlyTaps(date: String, hour: Int, taps: Int, speed: Float) {
+        insertHourlyTapsIfMissing(date, hour)
+        incrementHourlyTaps(date, hour, taps, speed)
+    }
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insertOrUpdateAppCode(appCodes: List<CodeOfApp>): List<Long>
 
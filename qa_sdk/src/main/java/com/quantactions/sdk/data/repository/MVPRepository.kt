@@ -26,6 +26,7 @@ import com.hadiyarajesh.flower_core.dbBoundResource
 import com.hadiyarajesh.flower_core.flow.dbBoundResourceFlow
 import com.quantactions.sdk.BasicInfo
 import com.quantactions.sdk.CanReturnCompiledTimeSeries
+import com.quantactions.sdk.IngestsAnalyses
 import com.quantactions.sdk.GeneratePassword
 import com.quantactions.sdk.ManagePref2
 import com.quantactions.sdk.Metric
@@ -34,14 +35,19 @@ import com.quantactions.sdk.R
 import com.quantactions.sdk.Subscription
 import com.quantactions.sdk.TapsStats
 import com.quantactions.sdk.TimeSeries
+import com.quantactions.sdk.container
+import com.quantactions.sdk.prepareFilter
 import com.quantactions.sdk.cognitivetests.CognitiveTest
 import com.quantactions.sdk.cognitivetests.CognitiveTestResult
 import com.quantactions.sdk.cognitivetests.pvt.PVTResponse
 import com.quantactions.sdk.data.api.ApiService
+import com.quantactions.sdk.data.api.HttpStack
+import com.quantactions.sdk.data.api.ReferenceCache
 import com.quantactions.sdk.data.api.TokenApi
 import com.quantactions.sdk.data.api.TokenAuthenticator
 import com.quantactions.sdk.data.api.adapters.SubscriptionWithQuestionnaires
 import com.quantactions.sdk.data.api.getBasicAuthHeader
+import com.quantactions.sdk.data.api.responses.Analysis
 import com.quantactions.sdk.data.api.responses.JournalEntriesResponse
 import com.quantactions.sdk.data.api.responses.RegistrationResponse
 import com.quantactions.sdk.data.entity.ActivityTransitionEntity
@@ -74,17 +80,21 @@ import com.quantactions.sdk.data.repository.MVPRoomDatabase.Companion.getDatabas
 import com.quantactions.sdk.data.stringify
 import com.quantactions.sdk.exceptions.QASDKException
 import com.quantactions.sdk.workers.SignUpForStudyWorker
-import com.squareup.moshi.Moshi
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOf
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.takeWhile
 import kotlinx.coroutines.launch
 import timber.log.Timber
+import java.io.File
 import java.time.Instant
 import java.time.LocalDate
 import java.time.LocalDateTime
@@ -95,7 +105,6 @@ import java.time.format.DateTimeFormatter
 import java.time.temporal.ChronoUnit
 import java.util.Locale
 import java.util.UUID
-import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 import jakarta.inject.Inject
 import kotlin.math.roundToInt
@@ -107,9 +116,12 @@ class MVPRepository @Inject constructor(
     apiKey: String? = null
 ) {
 
-    private var latch = CountDownLatch(1)
+    private val participationGate = ParticipationGate()
 
     companion object {
+        // days always requested again when updating a metric, see getStat
+        private const val MIN_LOOK_BACK_DAYS = 60L
+
         @Volatile
         private var INSTANCE: MVPRepository? = null
 
@@ -137,6 +149,8 @@ class MVPRepository @Inject constructor(
 
     private val packageName: String = context.packageName
 
+    private val cacheDir: File = context.cacheDir
+
     val deviceID: String
         get() = preferences.deviceID
 
@@ -173,7 +187,21 @@ class MVPRepository @Inject constructor(
     private var canDraw = preferences.canDraw(context)
     private var canUsage = preferences.canUsage(context)
 
-    private var iamParticipationId: String = ""
+    private val iamParticipationId: String
+        get() = participationGate.id
+
+    private val analysesBatcher = AnalysesBatcher(scope) { request, codes ->
+        apiService.getAnalyses(
+            request.identityId,
+            request.participationId,
+            prepareFilter(codes, request.from, request.to),
+            request.containerId
+        )
+    }
+
+    // compiled time series and the compilations in progress, see getStat
+    private val timeSeriesCache = TimeSeriesCache()
+    private val statCompilations = HashMap<TimeSeriesCache.Key, MutableSharedFlow<StatEvent>>()
     private var cachedApiKey: String = ""
     private lateinit var tokenApi: TokenApi
 
@@ -254,30 +282,40 @@ class MVPRepository @Inject constructor(
     private var wasPartIdRequested = false
 
     fun reInit(apiKey: String) {
+        // the cached reference responses must not be served to another identity or API key
+        val cacheOwner = "$identityId:${apiKey.hashCode()}"
+        if (preferences.referenceCacheOwner != cacheOwner) {
+            ReferenceCache.clear(cacheDir)
+            preferences.referenceCacheOwner = cacheOwner
+        }
+
         // Caching api key allows to avoid continuous re-initializations
         if (cachedApiKey == apiKey) return
         cachedApiKey = apiKey
+        timeSeriesCache.clear()
+        // compilations in progress finish for the previous identity, new ones start from scratch
+        synchronized(statCompilations) { statCompilations.clear() }
         val cookieJar = ApiService.UvCookieJar(preferences, "TokenApi")
         tokenApi = TokenApi.buildTokenApi(apiKey, cookieJar)
         val tokenAuthenticator = TokenAuthenticator(tokenApi, preferences)
         apiService = ApiService.create(
             apiKey,
             tokenAuthenticator,
-            cookieJar
+            cookieJar,
+            ReferenceCache.cache(cacheDir)
         )
 
         if (preferences.isOauthActivated) {
+            // otherwise known already or being requested, the request resolves the gate
             if (iamParticipationId == "" && !wasPartIdRequested) {
                 wasPartIdRequested = true
                 getParticipationsId()
-            } else {
-                latch.countDown()
             }
 
             if (!wereJournalEventsCached) cacheJournalEvents()
 
         } else {
-            latch.countDown()
+            participationGate.release()
         }
 
     }
@@ -290,14 +328,25 @@ class MVPRepository @Inject constructor(
     }
 
     private fun getParticipationsId() {
-        synchronized(iamParticipationId) {
-            scope.launch {
+        scope.launch {
+            try {
                 if (!checkRegisteredStatus()) return@launch
                 getParticipations()
+            } finally {
+                // also when it fails, nobody waits for the timeout
+                participationGate.release()
             }
         }
     }
 
+    /**
+     * The participation of the device, waiting at most [timeoutMillis] for the participations to
+     * be resolved after [reInit]. "" if the device has none or they could not be resolved in time.
+     */
+    internal suspend fun awaitParticipationId(
+        timeoutMillis: Long = ParticipationGate.DEFAULT_TIMEOUT_MS
+    ): String = participationGate.await(timeoutMillis)
+
     fun canActivity(context: Context): Boolean {
         canActivity = preferences.canActivity(context)
         return canActivity
@@ -350,56 +399,183 @@ class MVPRepository @Inject constructor(
         }.flowOn(Dispatchers.IO)
     }
 
+    /**
+     * Returns the compiled [TimeSeries] of [metricOrTrend] between [from] and [to] (ms).
+     * The compiled series of every metric and range is kept in [timeSeriesCache] and returned
+     * without reading the database until it expires or the metric changes. Otherwise collectors
+     * of the same metric and range share a single compilation (database read, network update and
+     * re-read), see [sharedCompilation]. Forced refreshes always make their own. Every collector
+     * gets its own copy of the series, the flow completes once the series is up to date and
+     * errors reach the collector.
+     */
     @ExperimentalCoroutinesApi
+    @Suppress("UNCHECKED_CAST")
     fun <P : TimestampedEntity, T> getStat(
         metricOrTrend: CanReturnCompiledTimeSeries<P, T>,
         from: Long = Instant.now().minus(60, ChronoUnit.DAYS).toEpochMilli(),
         to: Long = Instant.now().toEpochMilli(),
         refresh: Boolean = false
     ): Flow<TimeSeries<T>> {
+        val key = TimeSeriesCache.Key.of(metricOrTrend, from, to)
+        if (refresh) return compileStat(metricOrTrend, from, to, true)
+
+        return flow {
+            // a compilation in progress is joined, it may be about to update the cached series
+            val events: Flow<StatEvent> = synchronized(statCompilations) {
+                statCompilations[key]
+                    ?: timeSeriesCache[key]?.let { flowOf(StatEvent.Series(it), StatEvent.Done) }
+                    ?: sharedCompilation(metricOrTrend, key, from, to)
+            }
+            events.takeWhile { it !is StatEvent.Done }.collect {
+                when (it) {
+                    is StatEvent.Series -> emit(it.series.copy() as TimeSeries<T>)
+                    is StatEvent.Failed -> throw it.error
+                    StatEvent.Done -> {}
+                }
+            }
+        }
+    }
+
+    private sealed class StatEvent {
+        class Series(val series: TimeSeries<*>) : StatEvent()
+        class Failed(val error: Throwable) : StatEvent()
+        object Done : StatEvent()
+    }
+
+    /**
+     * Starts the compilation of [key] in [scope] (it is not cancelled with the collectors) and
+     * registers it in [statCompilations] until it is over. Its events are replayed to every
+     * collector that joins, the compiled series are put in [timeSeriesCache] as they come.
+     * To be called holding the lock of [statCompilations].
+     */
+    @ExperimentalCoroutinesApi
+    private fun <P : TimestampedEntity, T> sharedCompilation(
+        metricOrTrend: CanReturnCompiledTimeSeries<P, T>,
+        key: TimeSeriesCache.Key,
+        from: Long,
+        to: Long
+    ): MutableSharedFlow<StatEvent> {
+        val events = MutableSharedFlow<StatEvent>(replay = Int.MAX_VALUE)
+        statCompilations[key] = events
+        scope.launch {
+            try {
+                compileStat(metricOrTrend, from, to, false).collect {
+                    timeSeriesCache.put(key, it)
+                    events.emit(StatEvent.Series(it))
+                }
+                events.emit(StatEvent.Done)
+            } catch (e: Throwable) {
+                events.tryEmit(StatEvent.Failed(e))
+                if (e is CancellationException) throw e
+            } finally {
+                synchronized(statCompilations) { statCompilations.remove(key, events) }
+            }
+        }
+        return events
+    }
+
+    @ExperimentalCoroutinesApi
+    private fun <P : TimestampedEntity, T> compileStat(
+        metricOrTrend: CanReturnCompiledTimeSeries<P, T>,
+        from: Long,
+        to: Long,
+        refresh: Boolean
+    ): Flow<TimeSeries<T>> {
+
+        // all the metrics and trends of the SDK are fetched from the analyses endpoint
+        @Suppress("UNCHECKED_CAST")
+        val analysed = metricOrTrend as IngestsAnalyses<P>
+
+        // writes the fetched analyses of this metric
+        fun save(participationId: String, analyses: List<Analysis>) {
+            val statistics = analysed.fromAnalyses(analyses.filter { it.code == analysed.code })
+            if (statistics.isNotEmpty()) {
+                // only the rows that are new or changed since the last sync are written
+                val newest = statistics.maxOf { it.timestamp }
+                val start = System.nanoTime()
+                val changed = analysed.ingest(mvpDao, statistics)
+                val nanos = System.nanoTime() - start
+                if (changed > 0) timeSeriesCache.invalidate(metricOrTrend)
+
+                synchronized(preferences) {
+                    val syncedUpTo = preferences.getMetricSyncedUpTo(identityId, participationId, analysed.code)
+                    if (newest > syncedUpTo) {
+                        preferences.saveMetricSyncedUpTo(identityId, participationId, analysed.code, newest)
+                    }
+                    preferences.metricRowsFetched += statistics.size
+                    preferences.metricRowsChanged += changed
+                    preferences.metricIngestNanos += nanos
+                }
+                Timber.d(
+                    "${analysed.code}: $changed of ${statistics.size} fetched rows changed, " +
+                        "ingested at ${statistics.size * 1_000_000_000L / maxOf(nanos, 1L)} rows/s"
+                )
+            }
+        }
+
+        // fetches the metric and saves it
+        suspend fun update(participationId: String): ApiResponse<List<Analysis>> {
+            // everything when forced, otherwise at least the last 60 days (the backend recomputes
+            // the recent days) and earlier from the newest row received so far (a day earlier to
+            // be on the safe side of month boundaries)
+            val syncedUpTo = preferences.getMetricSyncedUpTo(identityId, participationId, analysed.code)
+            val lookBack = Instant.now().minus(MIN_LOOK_BACK_DAYS, ChronoUnit.DAYS)
+            val thisFrom = when {
+                refresh -> "1970-01"
+                syncedUpTo > 0 -> minOf(Instant.ofEpochSecond(syncedUpTo).minus(1, ChronoUnit.DAYS), lookBack)
+                    .atZone(ZoneId.systemDefault()).format(
+                        DateTimeFormatter.ofPattern("yyyy-MM", Locale.ENGLISH)
+                    )
+                else -> lookBack
+                    .atZone(ZoneId.systemDefault()).format(
+                        DateTimeFormatter.ofPattern("yyyy-MM", Locale.ENGLISH)
+                    )
+            }
+            val thisTo = Instant.ofEpochMilli(to).atZone(ZoneId.systemDefault()).format(
+                DateTimeFormatter.ofPattern("yyyy-MM", Locale.ENGLISH)
+            )
 
-        Timber.w("Latch has been released: $iamParticipationId")
+            // one request for all the metrics of the same container asked at the same time
+            val response = analysesBatcher.fetch(
+                AnalysesBatcher.Request(
+                    identityId,
+                    participationId,
+                    analysed.code.container(),
+                    thisFrom,
+                    thisTo
+                ),
+                analysed.code
+            )
+            if (response is ApiSuccessResponse) response.body?.let { save(participationId, it) }
+            return response
+        }
 
-        val resources = dbBoundResource(
+        // the network request is decided with the participation, so it is resolved first
+        fun resources(participationId: String) = dbBoundResource(
             fetchFromLocal = {
                 metricOrTrend.getMetric(mvpDao, from / 1000, to / 1000)
             },
             shouldMakeNetworkRequest = {
-                (refresh && iamParticipationId != "") || ((iamParticipationId != "") && (
+                (refresh && participationId != "") || ((participationId != "") && (
                         it.isNullOrEmpty() || it[0].timestamp < (Instant.now()
                             .toEpochMilli() / 1000 - 3 * 3600)))
 
             },
             makeNetworkRequest = {
-                // I would say we always fetch the last 2 months unless forced
-                val thisFrom = if (refresh) "1970-01" else Instant.now().minus(60, ChronoUnit.DAYS)
-                    .atZone(ZoneId.systemDefault()).format(
-                        DateTimeFormatter.ofPattern("yyyy-MM", Locale.ENGLISH)
-                    )
-                val thisTo = Instant.ofEpochMilli(to).atZone(ZoneId.systemDefault()).format(
-                    DateTimeFormatter.ofPattern("yyyy-MM", Locale.ENGLISH)
-                )
-
-                metricOrTrend.getStat(
-                    apiService,
-                    identityId,
-                    iamParticipationId,
-                    thisFrom,
-                    thisTo
-                )
+                update(participationId)
             },
             processNetworkResponse = {
             },
-            saveResponseData = { statistics ->
-                statistics.chunked(500).forEach { chunk ->
-                    metricOrTrend.insertOrUpdateMetric(mvpDao, chunk)
-                }
+            // saved by update
+            saveResponseData = {
             },
             onNetworkRequestFailed = { _, _ -> }
         ).flowOn(Dispatchers.IO)
 
         return flow {
-            resources.collect {
+            val participationId = awaitParticipationId()
+            Timber.d("Participation resolved: $participationId")
+            resources(participationId).collect {
                 when (val status = it.status) {
                     is Resource.Status.Loading, is Resource.Status.EmptySuccess -> {}
 
@@ -495,6 +671,8 @@ class MVPRepository @Inject constructor(
 
                 else -> Timber.e("[QA API CALL]:[FAIL]:JOURNAL API something wrong $jEvents")
             }
+            // after the re-login of getParticipations, that refreshes the cookie
+            awaitParticipationId()
             cacheJournal()
         }
     }
@@ -998,10 +1176,6 @@ class MVPRepository @Inject constructor(
 
         Timber.d("Now getting questionnaires")
 
-        val header = mutableMapOf<String, String>()
-        header["x-authorization"] = "Bearer ${preferences.accessToken}"
-        header["cache-control"] = "no-cache"
-
         return when (val response = apiService.getQuestionnaires(identityId, studyId)) {
             is ApiSuccessResponse -> {
                 Timber.d("GOT questionnaires info")
@@ -1054,10 +1228,6 @@ class MVPRepository @Inject constructor(
             }
         )
 
-        val header = mutableMapOf<String, String>()
-        header["x-authorization"] = "Bearer ${preferences.accessToken}"
-        header["cache-control"] = "no-cache"
-
         return when (val response = apiService.getParticipations(
             identityId,
             filter.stringify()
@@ -1175,10 +1345,6 @@ class MVPRepository @Inject constructor(
 
         filter["limit"] = 10
 
-        val header = mutableMapOf<String, String>()
-        header["x-authorization"] = "Bearer ${preferences.accessToken}"
-        header["cache-control"] = "no-cache"
-
         // check the validity of the ID..otherwise abort
         val apiResponse = apiService.getParticipations(
             identityId,
@@ -1189,7 +1355,7 @@ class MVPRepository @Inject constructor(
                 apiResponse.body?.let { studyRegistrationResponse ->
 
                     if (studyRegistrationResponse.isEmpty()) {
-                        latch.countDown()
+                        participationGate.release()
                         return listOf()
                     }
 
@@ -1197,12 +1363,11 @@ class MVPRepository @Inject constructor(
                         val filtered =
                             studyRegistrationResponse.filter { it.studyId == studyId }
                         if (filtered.isEmpty()) {
-                            latch.countDown()
+                            participationGate.release()
                             return listOf()
                         } else {
                             val participation = filtered[0]
-                            iamParticipationId = participation.id
-                            latch.countDown()
+                            participationGate.resolve(participation.id)
 
                             // here I cache the study info anyway
                             getStudyInfo(participation.studyId!!)
@@ -1230,8 +1395,7 @@ class MVPRepository @Inject constructor(
 
                     Timber.i("ParticipationIds: ${studyRegistrationResponse.map { it.id }}")
                     Timber.i("Tokens: ${studyRegistrationResponse.map { it.token }}")
-                    iamParticipationId = studyRegistrationResponse[0].id
-                    latch.countDown()
+                    participationGate.resolve(studyRegistrationResponse[0].id)
 
                     return studyRegistrationResponse.map { participation ->
                         Subscription(
@@ -1248,7 +1412,7 @@ class MVPRepository @Inject constructor(
                     }
 
                 }
-                latch.countDown()
+                participationGate.release()
                 wasPartIdRequested = true
                 return listOf()
             }
@@ -1256,14 +1420,14 @@ class MVPRepository @Inject constructor(
             is ApiErrorResponse -> {
                 // Might be because the device is not yet registered, in this case we
                 // launch a background task to be retried later on.
-                latch.countDown()
+                participationGate.release()
                 wasPartIdRequested = false
                 Timber.e("ERROR while getting participations ${apiResponse.errorMessage}")
                 return listOf()
             }
 
             is ApiEmptyResponse -> {
-                latch.countDown()
+                participationGate.release()
                 wasPartIdRequested = false
                 return listOf()
             }
@@ -1413,7 +1577,7 @@ class MVPRepository @Inject constructor(
 
     private fun prepareQuestionnaireResponseSubmit(answer: QuestionnaireResponseEntity): QuestionnaireResponse {
 
-        val moshi = Moshi.Builder().build()
+        val moshi = HttpStack.moshi
         val adapter = moshi.adapter(Any::class.java)
         val jsonStructure = adapter.fromJson(answer.qResponse)
         @Suppress("UNCHECKED_CAST") val responseObject = jsonStructure as Map<String, Any>?
@@ -1542,8 +1706,9 @@ class MVPRepository @Inject constructor(
         mvpDao.deleteWrongHealthSessions(idsToDelete)
     }
 
-    fun deleteWrongTapSessions(idsToDelete: List<String>) {
-        mvpDao.deleteWrongTapSessions(idsToDelete)
+    /** Deletes the tap sessions rejected by the server, returns how many were deleted. */
+    fun deleteWrongTapSessions(idsToDelete: List<String>): Int {
+        return mvpDao.deleteWrongTapSessions(idsToDelete)
     }
 
     fun getPendingJournalEntries(): List<JournalEntryEntity> {
@@ -1555,6 +1720,10 @@ class MVPRepository @Inject constructor(
         return mvpDao.getPendingJournalEntriesToDelete()
     }
 
+    fun hasPendingJournalEntries(): Boolean {
+        return mvpDao.hasPendingJournalEntries()
+    }
+
     fun getJournalEventsOfJournalEntry(journalEntryId: String): List<JournalEntryJoinsJournalEventEntity> {
         return mvpDao.getJournalEventsOfJournalEntry(journalEntryId)
     }
@@ -1583,10 +1752,18 @@ class MVPRepository @Inject constructor(
         return mvpDao.getDeviceHealthParsedToSync()
     }
 
+    fun hasDeviceHealthParsedToSync(): Boolean {
+        return mvpDao.hasDeviceHealthParsedToSync()
+    }
+
     fun getQuestionnaireResponses(): List<QuestionnaireResponseEntity> {
         return mvpDao.getQuestionnaireResponses()
     }
 
+    fun hasQuestionnaireResponses(): Boolean {
+        return mvpDao.hasQuestionnaireResponses()
+    }
+
     fun deleteQuestionnaireResponse(id: Long) {
         mvpDao.deleteQuestionnaireResponse(id)
     }
@@ -1611,10 +1788,22 @@ class MVPRepository @Inject constructor(
         return mvpDao.getTapDataParsedToSync()
     }
 
+    fun hasTapDataParsedToSync(): Boolean {
+        return mvpDao.hasTapDataParsedToSync()
+    }
+
+    fun getTapDataParsedToSyncPage(afterId: Int, limit: Int): List<TapDataParsed> {
+        return mvpDao.getTapDataParsedToSyncPage(afterId, limit)
+    }
+
     fun getActivityToSync(): List<ActivityTransitionEntity> {
         return mvpDao.getActivityToSync()
     }
 
+    fun hasActivityToSync(): Boolean {
+        return mvpDao.hasActivityToSync()
+    }
+
     fun getLatestTaps(rollBackDate: String): List<HourlyTapsEntity> {
         return mvpDao.getLatestTaps(rollBackDate)
     }
@@ -1658,6 +1847,7 @@ class MVPRepository @Inject constructor(
 
     suspend fun insertOrUpdateAppCode(appCodes: MutableList<CodeOfApp>) {
         mvpDao.insertOrUpdateAppCode(appCodes)
+        AppDictionary.getInstance(mvpDao).invalidate()
     }
 
     fun setDeviceId(deviceId: String) {
@@ -1774,6 +1964,10 @@ class MVPRepository @Inject constructor(
         return cognitiveTestDao.getPendingCognitiveTests()
     }
 
+    fun hasPendingCognitiveTests(): Boolean {
+        return cognitiveTestDao.hasPendingCognitiveTests()
+    }
+
     fun deleteLocalStudies() {
         mvpDao.deleteStudies()
     }
@@ -57,7 +57,7 @@ import net.sqlcipher.database.SupportFactory
         ActivityTransitionEntity::class,
         CognitiveTestEntity::class
     ],
-    version = 12, exportSchema = true
+    version = 15, exportSchema = true
 )
 @TypeConverters(Converters::class)
 abstract class MVPRoomDatabase : RoomDatabase() {
@@ -124,6 +124,12 @@ abstract class MVPRoomDatabase : RoomDatabase() {
                         .addMigrations(MIGRATION_10_11)  // QA Recharge
                         // Adding completion time to questionnaires
                         .addMigrations(MIGRATION_11_12)  // TapCounter
+                        // Adding binary columns to tap sessions
+                        .addMigrations(MIGRATION_12_13)
+                        // Adding indices for the metric queries and the sync
+                        .addMigrations(MIGRATION_13_14)
+                        // Unique hours in hourly_taps
+                        .addMigrations(MIGRATION_14_15)
 
                     // Adding encryption of DB if not debug
                     if (!BuildConfig.DEBUG) {
@@ -1023,3 +1029,48 @@ val MIGRATION_11_12 = object : Migration(11, 12) {
         )
     }
 }
+
+val MIGRATION_12_13 = object : Migration(12, 13) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+
+        // rows written before this version keep their text columns and are decoded from there
+        db.execSQL("ALTER TABLE taps_table ADD COLUMN tapsBlob BLOB")
+        db.execSQL("ALTER TABLE taps_table ADD COLUMN orientationsBlob BLOB")
+        db.execSQL("ALTER TABLE taps_table ADD COLUMN appIdsBlob BLOB")
+    }
+}
+
+val MIGRATION_13_14 = object : Migration(13, 14) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        // metrics and trends are read by code and time range
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_stat_table_stat_timestamp` ON `stat_table` (`stat`, `timestamp`)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_trend_table_trend_timestamp` ON `trend_table` (`trend`, `timestamp`)")
+        // sessions and transitions to sync are read by sync status and marked as synced by start
+        // (timestamp for the transitions)
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_taps_table_sync_start` ON `taps_table` (`sync`, `start`)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_taps_table_start` ON `taps_table` (`start`)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_health_table_sync_start` ON `health_table` (`sync`, `start`)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_health_table_start` ON `health_table` (`start`)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_activity_transition_table_sync_timestamp` ON `activity_transition_table` (`sync`, `timestamp`)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_activity_transition_table_timestamp` ON `activity_transition_table` (`timestamp`)")
+        // pending rows are probed by sync status
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_code_of_app_sync` ON `code_of_app` (`sync`)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_journal_entry_sync` ON `journal_entry` (`sync`)")
+        // the ingest of the analyses reads the stored rows of the same period
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_stat_string_table_timestamp` ON `stat_string_table` (`timestamp`)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_sleep_summary_table_timestamp` ON `sleep_summary_table` (`timestamp`)")
+    }
+}
+
+val MIGRATION_14_15 = object : Migration(14, 15) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        // concurrent sessions could add the same hour twice: the first row of each hour takes the
+        // total taps and the highest speed, the others are dropped
+        db.execSQL("UPDATE hourly_taps SET " +
+                "num_taps = (SELECT SUM(d.num_taps) FROM hourly_taps d WHERE d.date_tap = hourly_taps.date_tap AND d.hour = hourly_taps.hour), " +
+                "speed = (SELECT MAX(d.speed) FROM hourly_taps d WHERE d.date_tap = hourly_taps.date_tap AND d.hour = hourly_taps.hour) " +
+                "WHERE id IN (SELECT MIN(id) FROM hourly_taps GROUP BY date_tap, hour HAVING COUNT(*) > 1)")
+        db.execSQL("DELETE FROM hourly_taps WHERE id NOT IN (SELECT MIN(id) FROM hourly_taps GROUP BY date_tap, hour)")
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_hourly_taps_date_tap_hour` ON `hourly_taps` (`date_tap`, `hour`)")
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.repository
+
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Participation of the device as resolved by [MVPRepository.getParticipations]. Whoever needs it
+ * suspends on [await] until it is resolved, rather than going on with a participation that is
+ * not known yet.
+ * @suppress
+ */
+internal class ParticipationGate {
+
+    /** null until resolved, "" when the device has no participation. */
+    private val state = MutableStateFlow<String?>(null)
+
+    /** The participation, "" while it is not resolved or when the device has none. */
+    val id: String
+        get() = state.value ?: ""
+
+    /** Resolves the gate with the participation [id]. */
+    fun resolve(id: String) {
+        state.value = id
+    }
+
+    /** Resolves the gate with the participation known so far, "" if there is none. */
+    fun release() {
+        state.compareAndSet(null, "")
+    }
+
+    /** Waits at most [timeoutMillis] for the gate to be resolved, then returns [id]. */
+    suspend fun await(timeoutMillis: Long = DEFAULT_TIMEOUT_MS): String {
+        withTimeoutOrNull(timeoutMillis) { state.first { it != null } }
+        return id
+    }
+
+    companion object {
+        const val DEFAULT_TIMEOUT_MS = 10_000L
+    }
+}
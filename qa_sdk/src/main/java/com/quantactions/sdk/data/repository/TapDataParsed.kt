@@ -11,11 +11,17 @@ package com.quantactions.sdk.data.repository
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
+import com.quantactions.sdk.literalToIntList
+import com.quantactions.sdk.literalToLongList
 import com.squareup.moshi.JsonClass
 
 
-@Entity(tableName = "taps_table")
+@Entity(
+    tableName = "taps_table",
+    indices = [Index(value = ["sync", "start"]), Index(value = ["start"])]
+)
 @JsonClass(generateAdapter = true)
 data class TapDataParsed(
 
@@ -57,6 +63,40 @@ data class TapDataParsed(
 
     @Transient
     @ColumnInfo(name = "sync")
-    val sync: Int = 0
+    val sync: Int = 0,
 
-)
\ No newline at end of file
+    // Binary encoded columns (see TapSessionCodec), when present the text columns above are empty
+    @Transient
+    @ColumnInfo(name = "tapsBlob", typeAffinity = ColumnInfo.BLOB)
+    val tapsBlob: ByteArray? = null,
+
+    @Transient
+    @ColumnInfo(name = "orientationsBlob", typeAffinity = ColumnInfo.BLOB)
+    val orientationsBlob: ByteArray? = null,
+
+    @Transient
+    @ColumnInfo(name = "appIdsBlob", typeAffinity = ColumnInfo.BLOB)
+    val appIdsBlob: ByteArray? = null
+
+)
+
+/**
+ * Converts a stored session into its push payload, decoding the binary columns directly when
+ * present and falling back to the stringified lists written before schema version 13.
+ * @suppress
+ */
+internal fun TapDataParsed.toTapDataParsedToPush(): TapDataParsedToPush {
+    val appIds = appIdsBlob?.let { blob -> TapSessionCodec.decodeAppIds(blob).map { it.asList() } }
+        ?: listOf(appIds0.literalToIntList(), appIds1.literalToIntList(), appIds2.literalToIntList())
+    return TapDataParsedToPush(
+        id.toString(),
+        tapsBlob?.let { TapSessionCodec.decodeTimestamps(it).asList() } ?: taps.literalToLongList(),
+        start,
+        stop,
+        orientationsBlob?.let { TapSessionCodec.decodeOrientations(it).asList() }
+            ?: orientations.literalToIntList(),
+        appIds,
+        timeZone,
+        inCharge.toInt()
+    )
+}
\ No newline at end of file
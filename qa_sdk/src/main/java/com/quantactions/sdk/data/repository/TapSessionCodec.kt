@@ -0,0 +1,123 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.repository
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * Compact binary encoding of the columns of a tap session ([TapDataParsed]).
+ *
+ * - timestamps: count, first timestamp, then the deltas between consecutive taps, all as
+ * zig-zag varints (a session of typing taps is ~1-2 bytes per tap instead of ~15 characters)
+ * - orientations: count, then one bit per tap (1 = portrait)
+ * - app ids: count, then the zig-zag varints of the 3 app id columns one after the other
+ *
+ * Every blob starts with the number of taps so that the decoder can size its output once.
+ * @suppress
+ */
+internal object TapSessionCodec {
+
+    private const val APP_COLUMNS = 3
+
+    fun encodeTimestamps(timestamps: LongArray): ByteArray {
+        val out = ByteArrayOutputStream(timestamps.size * 2 + 10)
+        writeVarLong(out, timestamps.size.toLong())
+        var previous = 0L
+        for (t in timestamps) {
+            writeVarLong(out, zigZag(t - previous))
+            previous = t
+        }
+        return out.toByteArray()
+    }
+
+    fun decodeTimestamps(bytes: ByteArray): LongArray {
+        val reader = Reader(bytes)
+        val n = reader.readVarLong().toInt()
+        val timestamps = LongArray(n)
+        var previous = 0L
+        for (i in 0 until n) {
+            previous += unZigZag(reader.readVarLong())
+            timestamps[i] = previous
+        }
+        return timestamps
+    }
+
+    fun encodeOrientations(orientations: IntArray): ByteArray {
+        val out = ByteArrayOutputStream((orientations.size + 7) / 8 + 5)
+        writeVarLong(out, orientations.size.toLong())
+        var current = 0
+        for (i in orientations.indices) {
+            if (orientations[i] == 1) current = current or (1 shl (i and 7))
+            if (i and 7 == 7) {
+                out.write(current)
+                current = 0
+            }
+        }
+        if (orientations.size and 7 != 0) out.write(current)
+        return out.toByteArray()
+    }
+
+    fun decodeOrientations(bytes: ByteArray): IntArray {
+        val reader = Reader(bytes)
+        val n = reader.readVarLong().toInt()
+        val offset = reader.position
+        return IntArray(n) { (bytes[offset + (it ushr 3)].toInt() ushr (it and 7)) and 1 }
+    }
+
+    fun encodeAppIds(appIds0: IntArray, appIds1: IntArray, appIds2: IntArray): ByteArray {
+        require(appIds0.size == appIds1.size && appIds1.size == appIds2.size) {
+            "App id columns must have the same length"
+        }
+        val out = ByteArrayOutputStream(appIds0.size * APP_COLUMNS + 5)
+        writeVarLong(out, appIds0.size.toLong())
+        for (column in arrayOf(appIds0, appIds1, appIds2)) {
+            for (id in column) writeVarLong(out, zigZag(id.toLong()))
+        }
+        return out.toByteArray()
+    }
+
+    fun decodeAppIds(bytes: ByteArray): Array<IntArray> {
+        val reader = Reader(bytes)
+        val n = reader.readVarLong().toInt()
+        return Array(APP_COLUMNS) {
+            IntArray(n) { unZigZag(reader.readVarLong()).toInt() }
+        }
+    }
+
+    private fun zigZag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+    private fun unZigZag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+    private fun writeVarLong(out: ByteArrayOutputStream, value: Long) {
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            out.write(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        out.write(v.toInt())
+    }
+
+    private class Reader(private val bytes: ByteArray) {
+        var position = 0
+            private set
+
+        fun readVarLong(): Long {
+            var shift = 0
+            var result = 0L
+            while (shift < 64) {
+                val b = bytes[position++].toInt()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) return result
+                shift += 7
+            }
+            throw IllegalArgumentException("Malformed varint in tap session blob")
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.data.repository
+
+import com.quantactions.sdk.CanReturnCompiledTimeSeries
+import com.quantactions.sdk.TimeSeries
+import java.time.ZoneId
+
+/**
+ * LRU cache of the [TimeSeries] compiled by [MVPRepository.getStat], one entry per metric and
+ * range. The cache is bounded by the total number of points it holds (rather than by the number
+ * of entries) so that a few long series can not take more memory than many short ones.
+ *
+ * An entry is returned for [maxAgeMillis] after it was compiled, or until its metric is
+ * [invalidate]d, after that the series is compiled again (and updated from the network).
+ * @suppress
+ */
+internal class TimeSeriesCache(
+    private val maxPoints: Int = DEFAULT_MAX_POINTS,
+    private val maxAgeMillis: Long = DEFAULT_MAX_AGE_MS,
+    private val now: () -> Long = System::currentTimeMillis,
+) {
+
+    /**
+     * [from] and [to] are in seconds, rounded down to [KEY_RESOLUTION_SECONDS] so that the default
+     * ranges (that end "now") of calls made close to each other share the same entry.
+     */
+    data class Key(
+        val metric: CanReturnCompiledTimeSeries<*, *>,
+        val from: Long,
+        val to: Long,
+        val zoneId: ZoneId,
+    ) {
+        companion object {
+            fun of(metric: CanReturnCompiledTimeSeries<*, *>, fromMillis: Long, toMillis: Long) = Key(
+                metric,
+                fromMillis / 1000 / KEY_RESOLUTION_SECONDS,
+                toMillis / 1000 / KEY_RESOLUTION_SECONDS,
+                ZoneId.systemDefault()
+            )
+        }
+    }
+
+    private class Entry(val series: TimeSeries<*>, val compiledAt: Long)
+
+    private val entries = LinkedHashMap<Key, Entry>(16, 0.75f, true)
+    private var points = 0
+
+    var hits = 0L
+        private set
+    var misses = 0L
+        private set
+
+    @Synchronized
+    operator fun get(key: Key): TimeSeries<*>? {
+        val entry = entries[key]?.takeIf { now() - it.compiledAt < maxAgeMillis }
+        if (entry == null) misses++ else hits++
+        return entry?.series
+    }
+
+    @Synchronized
+    fun put(key: Key, series: TimeSeries<*>) {
+        entries.put(key, Entry(series, now()))?.let { points -= it.series.size }
+        points += series.size
+
+        // evict the least recently used entries, always keeping the one just added
+        val iterator = entries.entries.iterator()
+        while (points > maxPoints && entries.size > 1) {
+            val eldest = iterator.next()
+            if (eldest.key == key) continue
+            points -= eldest.value.series.size
+            iterator.remove()
+        }
+    }
+
+    /** Drops all the entries of [metric], to be called when its rows in the database change. */
+    @Synchronized
+    fun invalidate(metric: CanReturnCompiledTimeSeries<*, *>) {
+        val iterator = entries.entries.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (entry.key.metric == metric) {
+                points -= entry.value.series.size
+                iterator.remove()
+            }
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        points = 0
+    }
+
+    companion object {
+        /** ~64 series of a year of daily values. */
+        const val DEFAULT_MAX_POINTS = 64 * 366
+        const val DEFAULT_MAX_AGE_MS = 5 * 60_000L
+        const val KEY_RESOLUTION_SECONDS = 60L
+    }
+}
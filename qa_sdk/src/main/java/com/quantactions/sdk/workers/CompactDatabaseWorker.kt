@@ -0,0 +1,84 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+package com.quantactions.sdk.workers
+
+import android.content.Context
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.PeriodicWorkRequest
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import com.quantactions.sdk.CompactionReport
+import com.quantactions.sdk.ManagePref2
+import com.quantactions.sdk.QAPrivate
+import com.quantactions.sdk.data.repository.DatabaseCompactor
+import com.quantactions.sdk.data.repository.MVPRoomDatabase
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+
+/**
+ * Deletes the raw recordings that were synced more than [ManagePref2.syncedDataRetentionDays]
+ * ago and compacts the database, runs once a day while the device is idle and charging. It is
+ * always scheduled but does nothing until the app enables the retention (off by default).
+ */
+class CompactDatabaseWorker(context: Context, params: WorkerParameters) :
+    CoroutineWorker(context, params) {
+
+    override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        val retentionDays = ManagePref2.getInstance(applicationContext).syncedDataRetentionDays
+        if (retentionDays <= 0) {
+            Timber.d("Retention of synced data disabled -> skip")
+            return@withContext Result.success()
+        }
+
+        try {
+            val start = System.currentTimeMillis()
+            val compactor = DatabaseCompactor(MVPRoomDatabase.getDatabase(applicationContext))
+            val sizeBefore = compactor.size()
+            val deleted = compactor.prune(start - TimeUnit.DAYS.toMillis(retentionDays.toLong()))
+            val fullVacuumMillis = compactor.incrementalVacuum()
+            val report = CompactionReport(
+                deleted,
+                sizeBefore.bytes,
+                compactor.size().bytes,
+                System.currentTimeMillis() - start,
+                fullVacuumMillis
+            )
+            Timber.i("Database compaction: $report")
+            QAPrivate.getInstance(applicationContext).databaseSizeReporter?.onCompaction(report)
+            Result.success()
+        } catch (e: Exception) {
+            Timber.e(e)
+            Result.retry()
+        }
+    }
+
+    companion object {
+        private const val WORK_NAME = ":com.quantactions.sdk.CompactDatabaseWorker"
+
+        fun schedule(context: Context) {
+            val constraints = Constraints.Builder()
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .build()
+            val request = PeriodicWorkRequest.Builder(CompactDatabaseWorker::class.java, 1, TimeUnit.DAYS)
+                .setConstraints(constraints)
+                .addTag(context.packageName + WORK_NAME)
+                .build()
+            WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                context.packageName + WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP,
+                request
+            )
+        }
+    }
+}
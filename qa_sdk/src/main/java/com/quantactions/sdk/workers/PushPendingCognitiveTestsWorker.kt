@@ -19,35 +19,43 @@ import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.withContext
 
+/**
+ * Pushes the results of the cognitive tests that are not synced yet. As a stage of the sync
+ * cycle it has no WorkManager retry or backoff, see [runSyncStage].
+ */
 class PushPendingCognitiveTestsWorker(context: Context, params: WorkerParameters) :
     CoroutineWorker(context, params) {
 
     private val repository = MVPRepository.getInstance(context)
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        runSyncStage("submitPendingCogTest") { stage ->
 
-        val pendingCognitiveTests = repository.getPendingCognitiveTests()
+            val pendingCognitiveTests = repository.getPendingCognitiveTests()
 
 
-        val jobs = pendingCognitiveTests.map { entry ->
-            async {
+            val jobs = pendingCognitiveTests.map { entry ->
+                async {
 
-                val cognitiveTest = if (entry.testType == "PVT") CognitiveTest.PVT else CognitiveTest.DotMemory
+                    val cognitiveTest = if (entry.testType == "PVT") CognitiveTest.PVT else CognitiveTest.DotMemory
 
-                when(repository.submitPendingCognitiveTestResponse(cognitiveTest, entry)) {
-                    is ApiSuccessResponse -> {
-                        repository.setCognitiveTestSyncStatusTo1(entry)
-                        0
+                    when(repository.submitPendingCognitiveTestResponse(cognitiveTest, entry)) {
+                        is ApiSuccessResponse -> {
+                            repository.setCognitiveTestSyncStatusTo1(entry)
+                            0
+                        }
+                        else -> 1
                     }
-                    else -> 1
                 }
             }
-        }
 
-        if (jobs.awaitAll().sum() == 0) {
-            Result.success()
-        } else {
-            Result.retry()
+            val failed = jobs.awaitAll().sum()
+            stage.rows += pendingCognitiveTests.size - failed
+            if (failed == 0) {
+                Result.success()
+            } else {
+                Result.retry()
+            }
         }
     }
 }
\ No newline at end of file
@@ -26,101 +26,110 @@ import java.time.Instant
 import java.time.ZoneOffset
 import java.time.format.DateTimeFormatter
 
+/**
+ * Pushes the journal entries (new, edited and deleted) that are not synced yet. Inside the sync
+ * cycle there is no WorkManager backoff, the next cycle picks up what is left, see [runSyncStage].
+ */
 class PushPendingJournalEntriesWorker(context: Context, params: WorkerParameters) :
     CoroutineWorker(context, params) {
 
     private val repository = MVPRepository.getInstance(context)
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        runSyncStage("submitPendingJournal") { stage ->
+
+            val pendingEntries = repository.getPendingJournalEntries()
+            val pendingEntriesToDelete = repository.getPendingJournalEntriesToDelete()
+
+            val job = pendingEntries.map { localEntry ->
+                async {
+                    // build the body
+                    val eventsForEntry = repository.getJournalEventsOfJournalEntry(localEntry.id)
+
+                    // what I save is (created.toEpochMilli() / 1000).toString(),
+                    val loadCreated = Instant.ofEpochMilli(localEntry.created.toLong())
+
+                    // I also try to sync
+                    val journalEntryBody =
+                        JournalEntryBody(
+                            localEntry.id,
+                            localEntry.description,
+                            loadCreated.atOffset(ZoneOffset.UTC)
+                                .format(DateTimeFormatter.ISO_DATE_TIME),
+                        )
+
+                    val journalEventsToPost = eventsForEntry.map {
+                        JournalEventBody(
+                            it.journal_event_id,
+                            if (it.rating == -1) null else it.rating,
+                        )
+                    }
 
-        val pendingEntries = repository.getPendingJournalEntries()
-        val pendingEntriesToDelete = repository.getPendingJournalEntriesToDelete()
-
-        val job = pendingEntries.map { localEntry ->
-            async {
-                // build the body
-                val eventsForEntry = repository.getJournalEventsOfJournalEntry(localEntry.id)
-
-                // what I save is (created.toEpochMilli() / 1000).toString(),
-                val loadCreated = Instant.ofEpochMilli(localEntry.created.toLong())
-
-                // I also try to sync
-                val journalEntryBody =
-                    JournalEntryBody(
-                        localEntry.id,
-                        localEntry.description,
-                        loadCreated.atOffset(ZoneOffset.UTC)
-                            .format(DateTimeFormatter.ISO_DATE_TIME),
-                    )
-
-                val journalEventsToPost = eventsForEntry.map {
-                    JournalEventBody(
-                        it.journal_event_id,
-                        if (it.rating == -1) null else it.rating,
-                    )
-                }
+                    when(val response = repository.journalEntrySubmit(journalEntryBody)) {
 
-                when(val response = repository.journalEntrySubmit(journalEntryBody)) {
+                            is ApiSuccessResponse, is ApiEmptyResponse -> {
 
-                        is ApiSuccessResponse, is ApiEmptyResponse -> {
+                                repository.updateJournalEntry(localEntry.id, 1)
 
-                            repository.updateJournalEntry(localEntry.id, 1)
+                                when (val response2 = repository.journalEventsSubmit(
+                                    journalEntryBody.id,
+                                    journalEventsToPost,
+                                )
+                                ) {
+                                    is ApiSuccessResponse, is ApiEmptyResponse -> {
+                                        // Here I need to push the single stuff
+                                        Timber.d("API success response: Journal event was successfully posted")
+                                        // no need to update the sync status as that is dependent on the entry
+                                        0
+                                    }
+                                    is ApiErrorResponse -> {
+                                        Timber.e("API ERROR response:: ${response2.errorMessage}")
+                                        1
+                                    }
 
-                            when (val response2 = repository.journalEventsSubmit(
-                                journalEntryBody.id,
-                                journalEventsToPost,
-                            )
-                            ) {
-                                is ApiSuccessResponse, is ApiEmptyResponse -> {
-                                    // Here I need to push the single stuff
-                                    Timber.d("API success response: Journal event was successfully posted")
-                                    // no need to update the sync status as that is dependent on the entry
-                                    0
-                                }
-                                is ApiErrorResponse -> {
-                                    Timber.e("API ERROR response:: ${response2.errorMessage}")
-                                    1
                                 }
-
+                            }
+                            is ApiErrorResponse -> {
+                                Timber.e("API ERROR response:: ${response.errorMessage}")
+                                1
                             }
                         }
-                        is ApiErrorResponse -> {
-                            Timber.e("API ERROR response:: ${response.errorMessage}")
-                            1
-                        }
-                    }
+                }
             }
-        }
 
-        val deleteJob = pendingEntriesToDelete.map { localEntry ->
-            async {
+            val deleteJob = pendingEntriesToDelete.map { localEntry ->
+                async {
 
-                Timber.w("CALLING DELETE")
-                when (val response = repository.simplyDeleteJournalEntry(
-                    localEntry.id
-                )) {
+                    Timber.w("CALLING DELETE")
+                    when (val response = repository.simplyDeleteJournalEntry(
+                        localEntry.id
+                    )) {
 
-                    is ApiSuccessResponse, is ApiEmptyResponse -> {
-                        Timber.tag("API RESPONSE")
-                        repository.updateJournalEntry(localEntry.id, 1)
-                        0
-                    }
-                    is ApiErrorResponse -> {
-                        Timber.e("ERROR API (DELETE) $response")
-                        1
+                        is ApiSuccessResponse, is ApiEmptyResponse -> {
+                            Timber.tag("API RESPONSE")
+                            repository.updateJournalEntry(localEntry.id, 1)
+                            0
+                        }
+                        is ApiErrorResponse -> {
+                            Timber.e("ERROR API (DELETE) $response")
+                            1
+                        }
                     }
                 }
             }
-        }
 
-        if (job.awaitAll().sum() == 0) {
-            if (deleteJob.awaitAll().sum() == 0) {
-                Result.success()
+            val failed = job.awaitAll().sum()
+            val failedDeletes = deleteJob.awaitAll().sum()
+            stage.rows += pendingEntries.size - failed + pendingEntriesToDelete.size - failedDeletes
+            if (failed == 0) {
+                if (failedDeletes == 0) {
+                    Result.success()
+                } else {
+                    Result.retry()
+                }
             } else {
                 Result.retry()
             }
-        } else {
-            Result.retry()
         }
     }
 }
\ No newline at end of file
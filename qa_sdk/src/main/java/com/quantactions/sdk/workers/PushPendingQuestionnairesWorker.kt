@@ -18,31 +18,39 @@ import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.withContext
 
+/**
+ * Pushes the questionnaire responses that are not synced yet. As a stage of the sync cycle a
+ * failed push waits for the next cycle rather than for a WorkManager retry, see [runSyncStage].
+ */
 class PushPendingQuestionnairesWorker(context: Context, params: WorkerParameters) :
     CoroutineWorker(context, params) {
 
     private val repository = MVPRepository.getInstance(context)
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        runSyncStage("submitPendingQuest") { stage ->
 
-        val pendingQuestionnaires = repository.getQuestionnaireResponses()
+            val pendingQuestionnaires = repository.getQuestionnaireResponses()
 
-        val jobs = pendingQuestionnaires.map { entry ->
-            async {
-                when(repository.sendPendingQuestionnaireResponse(entry)) {
-                    is ApiSuccessResponse -> {
-                        repository.deleteQuestionnaireResponse(entry.id)
-                        0
+            val jobs = pendingQuestionnaires.map { entry ->
+                async {
+                    when(repository.sendPendingQuestionnaireResponse(entry)) {
+                        is ApiSuccessResponse -> {
+                            repository.deleteQuestionnaireResponse(entry.id)
+                            0
+                        }
+                        else -> 1
                     }
-                    else -> 1
                 }
             }
-        }
 
-        if (jobs.awaitAll().sum() == 0) {
-            Result.success()
-        } else {
-            Result.retry()
+            val failed = jobs.awaitAll().sum()
+            stage.rows += pendingQuestionnaires.size - failed
+            if (failed == 0) {
+                Result.success()
+            } else {
+                Result.retry()
+            }
         }
     }
 }
\ No newline at end of file
@@ -13,6 +13,7 @@ import androidx.work.CoroutineWorker
 import androidx.work.WorkerParameters
 import com.hadiyarajesh.flower_core.ApiErrorResponse
 import com.hadiyarajesh.flower_core.ApiSuccessResponse
+import com.quantactions.sdk.data.api.HttpStack
 import com.quantactions.sdk.data.repository.ActivityBody
 import com.quantactions.sdk.data.repository.ActivityToPush
 import com.quantactions.sdk.data.repository.MVPRepository
@@ -21,50 +22,57 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import timber.log.Timber
 
+/**
+ * Pushes the activity transitions that are not synced yet. Its retries only reach WorkManager
+ * when it is enqueued on its own, in the sync cycle they are reported, see [runSyncStage].
+ */
 class SubmitActivityWorker(context: Context, params: WorkerParameters) :
     CoroutineWorker(context, params) {
 
     private val repository = MVPRepository.getInstance(context)
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        runSyncStage("activityRecognition") { stage ->
 
-        val toPushTap = getPendingActivity()
+            val toPushTap = getPendingActivity()
 
-        if (toPushTap.second.isEmpty()) {
-            Timber.d("No Activity data to push -> skip")
-            return@withContext Result.success()
-        }
+            if (toPushTap.second.isEmpty()) {
+                Timber.d("No Activity data to push -> skip")
+                return@runSyncStage Result.success()
+            }
 
-        val activityBody = ActivityBody(toPushTap.second)
+            val activityBody = ActivityBody(toPushTap.second)
 
-            val tapIdsToUpdate = toPushTap.first
-            when (val response = repository.submitActivity(activityBody)) {
-                is ApiSuccessResponse -> {
-                    repository.updateActivitySyncStatus(tapIdsToUpdate)
-                    Result.success()
-                }
+                val tapIdsToUpdate = toPushTap.first
+                when (val response = repository.submitActivity(activityBody)) {
+                    is ApiSuccessResponse -> {
+                        repository.updateActivitySyncStatus(tapIdsToUpdate)
+                        stage.rows += tapIdsToUpdate.size
+                        Result.success()
+                    }
 
-                is ApiErrorResponse -> {
-                    Timber.e(response.errorMessage)
-                    Timber.e(response.httpStatusCode.toString())
+                    is ApiErrorResponse -> {
+                        Timber.e(response.errorMessage)
+                        Timber.e(response.httpStatusCode.toString())
 
-                    if (response.httpStatusCode == 400){
-                        // need to take care of the wicked sessions
-                        val moshi = com.squareup.moshi.Moshi.Builder().build()
-                        val jsonAdapter = moshi.adapter(SessionsError::class.java)
-                        val error = jsonAdapter.fromJson(response.errorMessage)
-                        repository.deleteWrongTapSessions(error?.error?.details?.invalidRecords ?: listOf())
+                        if (response.httpStatusCode == 400){
+                            // need to take care of the wicked sessions
+                            val moshi = HttpStack.moshi
+                            val jsonAdapter = moshi.adapter(SessionsError::class.java)
+                            val error = jsonAdapter.fromJson(response.errorMessage)
+                            repository.deleteWrongTapSessions(error?.error?.details?.invalidRecords ?: listOf())
+
+                            Result.retry()
+                        } else {
+                            Result.failure()
+                        }
 
-                        Result.retry()
-                    } else {
-                        Result.failure()
                     }
 
+                    else -> Result.retry()
                 }
 
-                else -> Result.retry()
-            }
-
+        }
     }
 
     private fun getPendingActivity(): Pair<List<Long>, List<ActivityToPush>> {
@@ -24,38 +24,45 @@ import kotlinx.coroutines.withContext
 import kotlinx.serialization.json.Json
 import timber.log.Timber
 
+/**
+ * Pushes the pending statistics. A retry is not rescheduled when the worker runs as a stage of
+ * the sync cycle, the rows are pushed by the next cycle instead, see [runSyncStage].
+ */
 class SubmitStatsWorker(context: Context, params: WorkerParameters) :
     CoroutineWorker(context, params) {
 
     private val repository = MVPRepository.getInstance(context)
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        runSyncStage("submitStats") { stage ->
 
-        val extraData: DeviceStats? = inputData.getString("map")?.let {
-            Json.decodeFromString(DeviceStats.serializer(), it )
-        }
+            val extraData: DeviceStats? = inputData.getString("map")?.let {
+                Json.decodeFromString(DeviceStats.serializer(), it )
+            }
 
-        when(val response = repository.submitStatistic(extraData)) {
-            is ApiErrorResponse -> {
-                if (response.httpStatusCode == 424){
-                    Timber.e("No need to push the day again")
-                    Result.failure()
-                } else {
-                    Timber.e(response.errorMessage)
+            when(val response = repository.submitStatistic(extraData)) {
+                is ApiErrorResponse -> {
+                    if (response.httpStatusCode == 424){
+                        Timber.e("No need to push the day again")
+                        Result.failure()
+                    } else {
+                        Timber.e(response.errorMessage)
+                        Result.retry()
+                    }
+                }
+                is ApiEmptyResponse -> {
+                    Timber.e("empty response")
                     Result.retry()
                 }
+                is ApiSuccessResponse -> {
+                    stage.rows++
+                    val data = Data.Builder()
+                    data.putString("message", response.body?.toString())
+                    Result.success(data.build())
+                }
             }
-            is ApiEmptyResponse -> {
-                Timber.e("empty response")
-                Result.retry()
-            }
-            is ApiSuccessResponse -> {
-                val data = Data.Builder()
-                data.putString("message", response.body?.toString())
-                Result.success(data.build())
-            }
-        }
 
 
+        }
     }
 }
\ No newline at end of file
@@ -13,89 +13,104 @@ import androidx.work.CoroutineWorker
 import androidx.work.WorkerParameters
 import com.hadiyarajesh.flower_core.ApiErrorResponse
 import com.hadiyarajesh.flower_core.ApiSuccessResponse
+import com.quantactions.sdk.data.api.HttpStack
 import com.quantactions.sdk.data.repository.MVPRepository
 import com.quantactions.sdk.data.repository.TapDataBody
-import com.quantactions.sdk.data.repository.TapDataParsedToPush
-import com.quantactions.sdk.literalToIntList
-import com.quantactions.sdk.literalToLongList
+import com.quantactions.sdk.data.repository.TapDataParsed
+import com.quantactions.sdk.data.repository.toTapDataParsedToPush
 import com.squareup.moshi.JsonClass
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import timber.log.Timber
 
+/**
+ * Pushes the parsed tap sessions. In the sync cycle the stage always succeeds, so a retry
+ * (including the one after [MAX_INVALID_RESENDS]) is left to the next cycle, see [runSyncStage].
+ */
 class SubmitTapDataParsedWorker(context: Context, params: WorkerParameters) :
     CoroutineWorker(context, params) {
 
     private val repository = MVPRepository.getInstance(context)
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        runSyncStage("submitTapDataParsed") { stage ->
+
+            // Sessions are pushed in batches of at most BATCH_BYTE_BUDGET (estimated) bytes, every
+            // batch is acknowledged on its own so that a retry resumes after the last acked batch
+            // instead of re-sending everything.
+            var cursor = 0
+            var batchesPushed = 0
+            var invalidResends = 0
+            var result: Result? = null
+
+            while (result == null) {
+                val batch = getNextTapDataParsedBatch(cursor)
+
+                if (batch.isEmpty()) {
+                    if (batchesPushed == 0) Timber.d("No Tap data to push -> skip")
+                    result = Result.success()
+                    continue
+                }
 
-        val toPushTap = getPendingTapDataParsed()
-
-        if (toPushTap.second.isEmpty()) {
-            Timber.d("No Tap data to push -> skip")
-            return@withContext Result.success()
-        }
-
-        val tapHealthDataBody = TapDataBody(toPushTap.second)
+                val tapHealthDataBody = TapDataBody(batch.map { it.toTapDataParsedToPush() })
 
-            val tapIdsToUpdate = toPushTap.first
-            when (val response = repository.submitTapDataParsed(tapHealthDataBody)) {
-                is ApiSuccessResponse -> {
-                    repository.updateTapDataParsedSyncStatus(tapIdsToUpdate)
-                    Result.success()
-                }
+                when (val response = repository.submitTapDataParsed(tapHealthDataBody)) {
+                    is ApiSuccessResponse -> {
+                        repository.updateTapDataParsedSyncStatus(batch.map { row -> row.start })
+                        cursor = batch.last().id
+                        stage.rows += batch.size
+                        batchesPushed++
+                    }
 
-                is ApiErrorResponse -> {
-                    Timber.e(response.errorMessage)
-                    Timber.e(response.httpStatusCode.toString())
-
-                    if (response.httpStatusCode == 400){
-                        // need to take care of the wicked sessions
-                        val moshi = com.squareup.moshi.Moshi.Builder().build()
-                        val jsonAdapter = moshi.adapter(SessionsError::class.java)
-                        val error = jsonAdapter.fromJson(response.errorMessage)
-                        repository.deleteWrongTapSessions(error?.error?.details?.invalidRecords ?: listOf())
-
-                        // This is done otherwise the SDK will try to push an empty record
-                        if (repository.getTapDataParsedToSync().isNotEmpty()) Result.retry()
-                        else Result.success()
-                    } else {
-                        Result.failure()
+                    is ApiErrorResponse -> {
+                        Timber.e(response.errorMessage)
+                        Timber.e(response.httpStatusCode.toString())
+
+                        if (response.httpStatusCode == 400) {
+                            // need to take care of the wicked sessions
+                            val moshi = HttpStack.moshi
+                            val jsonAdapter = moshi.adapter(SessionsError::class.java)
+                            val error = jsonAdapter.fromJson(response.errorMessage)
+                            val invalidRecords = error?.error?.details?.invalidRecords ?: listOf()
+                            val deleted = repository.deleteWrongTapSessions(invalidRecords)
+
+                            // the valid sessions of the batch are sent again from the same cursor,
+                            // unless nothing could be removed (the same batch would be rejected
+                            // again) or the server keeps rejecting them: the next run tries again
+                            invalidResends++
+                            if (deleted == 0 || invalidResends > MAX_INVALID_RESENDS) {
+                                Timber.w("Deleted $deleted rejected sessions after $invalidResends rejections, retrying later")
+                                result = Result.retry()
+                            }
+                        } else {
+                            result = Result.failure()
+                        }
                     }
 
+                    else -> result = Result.retry()
                 }
-
-                else -> Result.retry()
             }
 
+            Timber.d("Pushed $batchesPushed batches of tap sessions")
+            result ?: Result.retry()
+        }
     }
 
-    private fun getPendingTapDataParsed(): Pair<List<Long>, List<TapDataParsedToPush>> {
-        // Here I take care of sending out also the id of the item in the DB of pending such that
-        // I am sure I delete it only if the transaction is positive.
-        val toSync = repository.getTapDataParsedToSync()
-        val starts2delete = toSync.map { row -> row.start }
-
-        // move to new format
-        val toSyncTransformed = toSync.map {
-            TapDataParsedToPush(
-                it.id.toString(),
-                it.taps.literalToLongList(),
-                it.start,
-                it.stop,
-                it.orientations.literalToIntList(),
-                listOf(
-                    it.appIds0.literalToIntList(),
-                    it.appIds1.literalToIntList(),
-                    it.appIds2.literalToIntList()
-                ),
-                it.timeZone,
-                it.inCharge.toInt()
-            )
+    /**
+     * Reads the pending sessions after [cursor] (in id order) one page at a time and returns
+     * as many of them as fit in [BATCH_BYTE_BUDGET], always at least one.
+     */
+    private fun getNextTapDataParsedBatch(cursor: Int): List<TapDataParsed> {
+        val page = repository.getTapDataParsedToSyncPage(cursor, PAGE_ROWS)
+        val batch = mutableListOf<TapDataParsed>()
+        var budget = BATCH_BYTE_BUDGET
+        for (row in page) {
+            val estimatedBytes = SESSION_OVERHEAD_BYTES + row.tapsSession * BYTES_PER_TAP
+            if (batch.isNotEmpty() && estimatedBytes > budget) break
+            batch.add(row)
+            budget -= estimatedBytes
         }
-
-        return Pair(starts2delete, toSyncTransformed)
+        return batch
     }
 
     @JsonClass(generateAdapter = true)
@@ -115,5 +130,17 @@ class SubmitTapDataParsedWorker(context: Context, params: WorkerParameters) :
         val invalidRecords: List<String>?,
     )
 
+    companion object {
+        const val PAGE_ROWS = 200
+        const val BATCH_BYTE_BUDGET = 512L * 1024
+
+        // rough size of the JSON of one tap (timestamp, orientation and the 3 app ids)
+        const val BYTES_PER_TAP = 32L
+        const val SESSION_OVERHEAD_BYTES = 256L
+
+        // batches re-sent in one run after the server rejected some of their sessions
+        const val MAX_INVALID_RESENDS = 3
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.workers
+
+import androidx.work.CoroutineWorker
+import androidx.work.Data
+import androidx.work.ListenableWorker
+import com.quantactions.sdk.data.api.TrafficCounter
+import kotlinx.coroutines.CancellationException
+import timber.log.Timber
+
+/** Rows pushed by a stage of the sync cycle, incremented by the worker as it goes. */
+internal class SyncStageCounter {
+    var rows = 0L
+}
+
+/**
+ * Runs [work] as the stage [name] of the sync cycle enqueued by
+ * [com.quantactions.sdk.SyncHelper.syncAll] and adds its rows, bytes and wall time to the
+ * [SyncReport] passed along the chain. The bytes are approximate, see [TrafficCounter].
+ *
+ * Inside the cycle the stage always succeeds: a failure or a retry would hold or cancel the stages
+ * after it, and the cycle runs again within the hour anyway. Its outcome is kept in the report.
+ * This means that WorkManager does not retry (nor back off) a stage of the cycle, what was not
+ * pushed waits for the next cycle. Outside the cycle (worker enqueued on its own) the result of
+ * [work] is returned as it is.
+ */
+internal suspend fun CoroutineWorker.runSyncStage(
+    name: String,
+    work: suspend (SyncStageCounter) -> ListenableWorker.Result,
+): ListenableWorker.Result {
+    val counter = SyncStageCounter()
+    if (!inputData.getBoolean(SyncReport.KEY_CYCLE, false)) return work(counter)
+
+    val bytesBefore = TrafficCounter.bytesSent
+    val start = System.currentTimeMillis()
+    val result = try {
+        work(counter)
+    } catch (e: CancellationException) {
+        throw e
+    } catch (e: Exception) {
+        Timber.e(e)
+        ListenableWorker.Result.failure()
+    }
+    val stage = SyncReport.Stage(
+        name,
+        when (result) {
+            is ListenableWorker.Result.Success -> SyncReport.Outcome.SUCCESS
+            is ListenableWorker.Result.Retry -> SyncReport.Outcome.RETRY
+            else -> SyncReport.Outcome.FAILURE
+        },
+        counter.rows,
+        TrafficCounter.bytesSent - bytesBefore,
+        System.currentTimeMillis() - start,
+    )
+    return ListenableWorker.Result.success(
+        Data.Builder()
+            .putAll(result.outputData)
+            .putAll(SyncReport.append(inputData, stage))
+            .build()
+    )
+}
+
+/**
+ * Outcome of one sync cycle, one [Stage] per worker of the chain in the order they ran.
+ * The stages are carried from worker to worker in their input/output [Data].
+ */
+internal data class SyncReport(val stages: List<Stage>) {
+
+    enum class Outcome { SUCCESS, RETRY, FAILURE }
+
+    /** [bytes] are approximate, see [TrafficCounter]. */
+    data class Stage(
+        val name: String,
+        val outcome: Outcome,
+        val rows: Long,
+        val bytes: Long,
+        val millis: Long,
+    )
+
+    val rows: Long
+        get() = stages.sumOf { it.rows }
+
+    val bytes: Long
+        get() = stages.sumOf { it.bytes }
+
+    val millis: Long
+        get() = stages.sumOf { it.millis }
+
+    override fun toString(): String =
+        "sync cycle: $rows rows, $bytes bytes, $millis ms" + stages.joinToString("") {
+            "\n  ${it.name}: ${it.outcome}, ${it.rows} rows, ${it.bytes} bytes, ${it.millis} ms"
+        }
+
+    companion object {
+        /** Input of the workers enqueued as part of the cycle. */
+        const val KEY_CYCLE = "syncCycle"
+        private const val KEY_STAGES = "syncReport.stages"
+        private const val PREFIX = "syncReport."
+
+        val cycleInput: Data
+            get() = Data.Builder().putBoolean(KEY_CYCLE, true).build()
+
+        /** [data] with [stage] added after the stages it already has. */
+        fun append(data: Data, stage: Stage): Data {
+            val stages = data.getStringArray(KEY_STAGES) ?: emptyArray()
+            return Data.Builder()
+                .putAll(data)
+                .putStringArray(KEY_STAGES, stages + stage.name)
+                .putString("$PREFIX${stage.name}.outcome", stage.outcome.name)
+                .putLong("$PREFIX${stage.name}.rows", stage.rows)
+                .putLong("$PREFIX${stage.name}.bytes", stage.bytes)
+                .putLong("$PREFIX${stage.name}.millis", stage.millis)
+                .build()
+        }
+
+        fun from(data: Data) = SyncReport(
+            (data.getStringArray(KEY_STAGES) ?: emptyArray()).map { name ->
+                Stage(
+                    name,
+                    Outcome.valueOf(data.getString("$PREFIX$name.outcome") ?: Outcome.FAILURE.name),
+                    data.getLong("$PREFIX$name.rows", 0),
+                    data.getLong("$PREFIX$name.bytes", 0),
+                    data.getLong("$PREFIX$name.millis", 0),
+                )
+            }
+        )
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk.workers
+
+import android.content.Context
+import androidx.work.CoroutineWorker
+import androidx.work.WorkerParameters
+import com.quantactions.sdk.ManagePref2
+import com.quantactions.sdk.data.api.ReferenceCache
+import timber.log.Timber
+
+/**
+ * Last link of the sync cycle, collects the [SyncReport] of the stages before it.
+ */
+class SyncReportWorker(context: Context, params: WorkerParameters) :
+    CoroutineWorker(context, params) {
+
+    override suspend fun doWork(): Result {
+        val report = SyncReport.from(inputData)
+        Timber.i(report.toString())
+        Timber.i("reference cache: ${ReferenceCache.stats}")
+        ManagePref2.getInstance(applicationContext).lastSyncReport = report.toString()
+        return Result.success()
+    }
+}
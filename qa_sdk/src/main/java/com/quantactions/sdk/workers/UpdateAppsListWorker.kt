@@ -20,43 +20,50 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import timber.log.Timber
 
+/**
+ * Pushes the names of the apps that are not synced yet. Within the sync cycle its retries are
+ * reported instead of rescheduled, see [runSyncStage].
+ */
 class UpdateAppsListWorker(context: Context, params: WorkerParameters) :
     CoroutineWorker(context, params) {
 
     private val repository = MVPRepository.getInstance(context)
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
-        val pendingAppCodes = repository.getPendingAppCodes()
-        if (pendingAppCodes.isNotEmpty()) {
-
-            val pendingAppList = pendingAppCodes.map { entry ->
-                AppToPush(
-                    entry.appName,
-                    entry.id,
-                )
-            }
+        runSyncStage("updateAppsList") { stage ->
+            val pendingAppCodes = repository.getPendingAppCodes()
+            if (pendingAppCodes.isNotEmpty()) {
 
-            when (val response2 = repository.updateAppList(pendingAppList)) {
-                is ApiErrorResponse -> {
-                    Timber.w(response2.errorMessage)
-                    Result.retry()
+                val pendingAppList = pendingAppCodes.map { entry ->
+                    AppToPush(
+                        entry.appName,
+                        entry.id,
+                    )
                 }
 
-                is ApiEmptyResponse -> {
-                    Result.retry()
-                }
+                when (val response2 = repository.updateAppList(pendingAppList)) {
+                    is ApiErrorResponse -> {
+                        Timber.w(response2.errorMessage)
+                        Result.retry()
+                    }
 
-                is ApiSuccessResponse -> {
-                    pendingAppCodes.forEach { app ->
-                        repository.updateCodeOfAppStatus(app.id, 1)
+                    is ApiEmptyResponse -> {
+                        Result.retry()
+                    }
+
+                    is ApiSuccessResponse -> {
+                        pendingAppCodes.forEach { app ->
+                            repository.updateCodeOfAppStatus(app.id, 1)
+                        }
+                        stage.rows += pendingAppCodes.size
+                        Result.success()
                     }
-                    Result.success()
                 }
-            }
 
 
-        } else {
-            Result.success()
+            } else {
+                Result.success()
+            }
         }
     }
 }
\ No newline at end of file
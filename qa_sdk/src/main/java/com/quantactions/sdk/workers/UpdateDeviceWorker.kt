@@ -20,36 +20,42 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import timber.log.Timber
 
+/**
+ * Pushes the device information and permissions. As a stage of the sync cycle a failure or retry
+ * is only reported, the next cycle updates the device again, see [runSyncStage].
+ */
 class UpdateDeviceWorker(context: Context, params: WorkerParameters) :
     CoroutineWorker(context, params) {
 
     private val repository = MVPRepository.getInstance(context)
 
     override suspend fun doWork(): Result = withContext(Dispatchers.IO) {
+        runSyncStage("updateDevice") { stage ->
 
-        try {
-            if (repository.deviceID == ""){
-                registerSpecificationsAndDevice(applicationContext, repository)
-            }
-        } catch (e: Exception) {
             try {
-                FirebaseCrashlytics.getInstance().recordException(e)
-            } catch (ex: Exception) {
-                Timber.e("App does not integrate Firebase, cannot send crash!")
+                if (repository.deviceID == ""){
+                    registerSpecificationsAndDevice(applicationContext, repository)
+                }
+            } catch (e: Exception) {
+                try {
+                    FirebaseCrashlytics.getInstance().recordException(e)
+                } catch (ex: Exception) {
+                    Timber.e("App does not integrate Firebase, cannot send crash!")
+                }
+                e.printStackTrace()
             }
-            e.printStackTrace()
-        }
 
-        when (val response = repository.updateDeviceInfo(applicationContext)){
-            is ApiErrorResponse -> {
-                Timber.e(response.errorMessage)
-                Result.failure()
-            }
-            is ApiEmptyResponse -> {
-                Result.retry()
-            }
-            is ApiSuccessResponse -> {
-                updateIdentity()
+            when (val response = repository.updateDeviceInfo(applicationContext)){
+                is ApiErrorResponse -> {
+                    Timber.e(response.errorMessage)
+                    Result.failure()
+                }
+                is ApiEmptyResponse -> {
+                    Result.retry()
+                }
+                is ApiSuccessResponse -> {
+                    updateIdentity().also { if (it is Result.Success) stage.rows++ }
+                }
             }
         }
     }
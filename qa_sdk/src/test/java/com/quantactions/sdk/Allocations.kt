@@ -0,0 +1,64 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import junit.framework.TestCase.assertTrue
+import java.lang.management.ManagementFactory
+
+/**
+ * Bytes allocated by the current thread, used by the allocation checks and by [Benchmark].
+ */
+internal object Allocations {
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    /** Whether the JVM reports the allocated bytes, the checks are skipped otherwise. */
+    val supported: Boolean
+        get() = threadBean?.isThreadAllocatedMemorySupported == true
+
+    /** Bytes allocated by the current thread so far, -1 if not [supported]. */
+    fun allocatedBytes(): Long =
+        threadBean?.getThreadAllocatedBytes(Thread.currentThread().id) ?: -1L
+
+    /** Bytes allocated by [block] on the current thread, -1 if not [supported]. */
+    fun measure(block: () -> Unit): Long {
+        val start = allocatedBytes()
+        block()
+        return if (supported) allocatedBytes() - start else -1L
+    }
+}
+
+/**
+ * Harness of the timing benchmarks, which are `@Ignore`d ([ON_DEMAND]): remove it to run one
+ * locally. A benchmark measures the original and the optimised version of the same work and
+ * asserts that the latter is faster, the costs of both are in the failure message.
+ */
+internal object Benchmark {
+
+    const val ON_DEMAND = "Timing benchmark, run on demand"
+
+    /** Average wall time and allocated bytes (-1 if not [Allocations.supported]) of one round. */
+    data class Cost(val nanos: Long, val bytes: Long) {
+        override fun toString() = "${nanos / 1000} us, $bytes B per round"
+    }
+
+    /** Runs [block] [warmUp] times, then returns the average [Cost] of [rounds] more runs. */
+    fun measure(rounds: Int, warmUp: Int = maxOf(1, rounds / 10), block: () -> Unit): Cost {
+        repeat(warmUp) { block() }
+        val start = System.nanoTime()
+        val bytes = Allocations.measure { repeat(rounds) { block() } }
+        val nanos = System.nanoTime() - start
+        return Cost(nanos / rounds, if (bytes < 0) -1 else bytes / rounds)
+    }
+
+    fun assertFaster(original: Cost, optimised: Cost) {
+        assertTrue("original: $original, optimised: $optimised", optimised.nanos < original.nanos)
+    }
+}
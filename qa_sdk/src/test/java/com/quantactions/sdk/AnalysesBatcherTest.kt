@@ -0,0 +1,77 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.hadiyarajesh.flower_core.ApiEmptyResponse
+import com.hadiyarajesh.flower_core.ApiResponse
+import com.quantactions.sdk.data.api.responses.Analysis
+import com.quantactions.sdk.data.repository.AnalysesBatcher
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertSame
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+class AnalysesBatcherTest {
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    @Test
+    fun testConcurrentRequestsAreCoalesced() = runTest {
+        val sent = mutableListOf<Pair<AnalysesBatcher.Request, List<String>>>()
+        val batcher = AnalysesBatcher(backgroundScope) { request, codes ->
+            sent.add(request to codes)
+            ApiEmptyResponse<List<Analysis>>()
+        }
+
+        val months = AnalysesBatcher.Request("identity", "participation", "003", "2024-06", "2024-08")
+        val otherContainer = months.copy(containerId = "001")
+        val codes = listOf("003-001-001-002", "003-001-001-005", "003-003-002-001")
+
+        val responses = (codes.map { months to it } + (otherContainer to "001-002-006-004"))
+            .map { (request, code) -> async { batcher.fetch(request, code) } }
+            .awaitAll()
+
+        assertEquals(2, sent.size)
+        assertEquals(codes, sent.first { it.first == months }.second)
+        assertEquals(listOf("001-002-006-004"), sent.first { it.first == otherContainer }.second)
+        val shared: ApiResponse<List<Analysis>> = responses[0]
+        assertSame(shared, responses[1])
+        assertSame(shared, responses[2])
+        assertEquals(2L, batcher.requests)
+        assertEquals(4L, batcher.codes)
+
+        // a request made after the window is sent on its own
+        batcher.fetch(months, codes[0])
+        assertEquals(3, sent.size)
+    }
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    @Test
+    fun testDifferentMonthsShareTheUnionOfTheirRanges() = runTest {
+        val sent = mutableListOf<Pair<AnalysesBatcher.Request, List<String>>>()
+        val batcher = AnalysesBatcher(backgroundScope) { request, codes ->
+            sent.add(request to codes)
+            ApiEmptyResponse<List<Analysis>>()
+        }
+
+        val months = AnalysesBatcher.Request("identity", "participation", "003", "2024-06", "2024-08")
+        listOf(
+            months to "003-001-001-002",
+            months.copy(from = "2023-12") to "003-001-001-005",
+            months.copy(from = "2024-07", to = "2024-09") to "003-003-002-001",
+        ).map { (request, code) -> async { batcher.fetch(request, code) } }.awaitAll()
+
+        assertEquals(1, sent.size)
+        assertEquals(months.copy(from = "2023-12", to = "2024-09"), sent[0].first)
+        assertEquals(3, sent[0].second.size)
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.api.adapters.AnalysesAdapter
+import com.quantactions.sdk.data.api.adapters.prepareOneMonthOfMetric
+import com.quantactions.sdk.data.api.adapters.prepareOneMonthOfSleepMetric
+import com.quantactions.sdk.data.api.adapters.readAnalyses
+import com.quantactions.sdk.data.api.responses.Analysis
+import com.quantactions.sdk.data.api.responses.StatisticResponse
+import com.squareup.moshi.JsonReader
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.Types
+import com.squareup.moshi.kotlin.reflect.KotlinJsonAdapterFactory
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import okio.Buffer
+import org.junit.Assume
+import org.junit.Ignore
+import org.junit.Test
+import java.time.LocalDate
+import kotlin.random.Random
+
+/**
+ * Compares the streaming decoder of the analyses ([readAnalyses]) with decoding them as
+ * [StatisticResponse] (one map per row) on three years of a metric with confidence intervals.
+ */
+class AnalysesParsingBenchmarkTest {
+
+    private val moshi = Moshi.Builder().add(KotlinJsonAdapterFactory()).build()
+    private val responsesAdapter = moshi.adapter<List<StatisticResponse>>(
+        Types.newParameterizedType(List::class.java, StatisticResponse::class.java)
+    )
+    private val analysesAdapter = Moshi.Builder().add(AnalysesAdapter()).build()
+        .adapter<List<Analysis>>(Types.newParameterizedType(List::class.java, Analysis::class.java))
+
+    private fun month(code: String, first: LocalDate, random: Random): String {
+        val rows = (0 until first.lengthOfMonth()).joinToString(",") { d ->
+            val value = if (random.nextInt(15) == 0) "null" else (random.nextInt(1_000_000) / 100.0).toString()
+            """{"index":"${first.plusDays(d.toLong())}T00:00:00.000Z","score":$value,""" +
+                """"ci-l":${random.nextDouble()},"ci-h":${random.nextDouble()},"conf":${random.nextDouble()},""" +
+                """"time-zone":"Europe/Zurich"}"""
+        }
+        // "metrics" before "code" on purpose, the streaming decoder must not depend on the order
+        return """{"metrics":{"schema":{"fields":[{"name":"index","type":"datetime"},""" +
+            """{"name":"score","type":"number"},{"name":"ci-l","type":"number"},{"name":"ci-h","type":"number"},""" +
+            """{"name":"conf","type":"number"},{"name":"time-zone","type":"string"}],""" +
+            """"primaryKey":["index"],"pandas_version":"1.4.0"},"data":[$rows]},""" +
+            """"code":"$code","extras":null,"participationId":"p","id":"$code-$first",""" +
+            """"publicName":"Score","timestamp":"2024-08-01T00:00:00.000Z"}"""
+    }
+
+    private fun years(code: String, n: Int): String {
+        val random = Random(n)
+        val start = LocalDate.of(2021, 1, 1)
+        return (0 until 12 * n).joinToString(",", "[", "]") { month(code, start.plusMonths(it.toLong()), random) }
+    }
+
+    @Test
+    fun testSameEntitiesAsMapDecoding() {
+        val json = years("003-001-001-002", 1)
+        val legacy = responsesAdapter.fromJson(json)!!.flatMap { prepareOneMonthOfMetric(it) }
+        val streamed = analysesAdapter.fromJson(json)!!.flatMap { prepareOneMonthOfMetric(it.code, it.frame) }
+        assertTrue(legacy.isNotEmpty())
+        assertEquals(legacy, streamed)
+    }
+
+    @Test
+    fun testSleepListsAreDecoded() {
+        val json = """[{"code":"003-001-001-001","metrics":{"schema":{"fields":[{"name":"date"},""" +
+            """{"name":"sleep-utc"},{"name":"wake-utc"},{"name":"int-start"},{"name":"int-stop"},""" +
+            """{"name":"int-ntaps"},{"name":"time-zone"}]},"data":[{"date":"2024-08-01T00:00:00.000Z",""" +
+            """"sleep-utc":1722466800000,"wake-utc":1722495600000,"int-start":[1722470000000,1722480000000],""" +
+            """"int-stop":[1722470060000,1722480120000],"int-ntaps":[3,7],"time-zone":"Europe/Zurich"}]}}]"""
+        val reader = JsonReader.of(Buffer().writeUtf8(json))
+        val streamed = readAnalyses(reader).flatMap { prepareOneMonthOfSleepMetric(it.code, it.frame) }
+        assertEquals(1, streamed.size)
+        assertEquals(1722466800000L, streamed[0].sleepStart)
+        assertEquals(listOf(1722470000000L, 1722480000000L), streamed[0].interruptionsStart)
+        assertEquals(listOf(1722470060000L, 1722480120000L), streamed[0].interruptionsEnd)
+        assertEquals(listOf(3, 7), streamed[0].interruptionsNumberOfTaps)
+    }
+
+    @Test
+    fun testStreamingAllocatesLess() {
+        Assume.assumeTrue(Allocations.supported)
+        val json = years("003-001-001-002", 1)
+        repeat(3) {
+            responsesAdapter.fromJson(json)!!.flatMap { prepareOneMonthOfMetric(it) }
+            analysesAdapter.fromJson(json)!!.flatMap { prepareOneMonthOfMetric(it.code, it.frame) }
+        }
+
+        val legacy = Allocations.measure {
+            responsesAdapter.fromJson(json)!!.flatMap { prepareOneMonthOfMetric(it) }
+        }
+        val streamed = Allocations.measure {
+            analysesAdapter.fromJson(json)!!.flatMap { prepareOneMonthOfMetric(it.code, it.frame) }
+        }
+        assertTrue(streamed < legacy)
+    }
+
+    @Ignore(Benchmark.ON_DEMAND)
+    @Test
+    fun benchmarkThreeYearsOfAMetric() {
+        val json = years("003-001-001-002", 3)
+
+        fun runLegacy() = responsesAdapter.fromJson(json)!!.flatMap { prepareOneMonthOfMetric(it) }
+        fun runStreamed() = analysesAdapter.fromJson(json)!!.flatMap { prepareOneMonthOfMetric(it.code, it.frame) }
+
+        assertEquals(runLegacy().size, runStreamed().size)
+        Benchmark.assertFaster(Benchmark.measure(30) { runLegacy() }, Benchmark.measure(30) { runStreamed() })
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.api.adapters.ANALYSES_INDEX_FORMATTER
+import com.quantactions.sdk.data.api.adapters.ZoneCache
+import com.quantactions.sdk.data.api.adapters.parseIndexSeconds
+import junit.framework.TestCase.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.format.DateTimeParseException
+import kotlin.random.Random
+
+/**
+ * Compares [parseIndexSeconds] and [ZoneCache] with the java.time path previously used by the
+ * statistic adapters (parse the index, `ZoneId.of` and `ZonedDateTime.of` on every row).
+ */
+class AnalysesTimeBenchmarkTest {
+
+    private val zones = listOf("Europe/Zurich", "America/New_York", "Australia/Lord_Howe", "Asia/Kolkata", "UTC")
+
+    private fun rows(n: Int, seed: Int): List<Pair<String, String>> {
+        val random = Random(seed)
+        val start = LocalDateTime.of(2019, 1, 1, 0, 0)
+        // daily rows like the analyses, with the odd time of day to land in DST gaps and overlaps
+        return List(n) {
+            val time = start.plusDays(it.toLong() % 2000).plusMinutes(if (random.nextInt(4) == 0) random.nextLong(1440) else 0)
+            time.format(ANALYSES_INDEX_FORMATTER) to zones[(it / 31) % zones.size]
+        }
+    }
+
+    @Test
+    fun testSameAsJavaTime() {
+        rows(20_000, 1).shuffled(Random(2)).forEach { (index, zone) ->
+            val ld = LocalDateTime.parse(index, ANALYSES_INDEX_FORMATTER)
+            val zdt = ZonedDateTime.of(ld, ZoneId.of(zone))
+            val local = parseIndexSeconds(index)
+            assertEquals(index, ld.toEpochSecond(ZoneOffset.UTC), local)
+            assertEquals(index, zdt.toEpochSecond(), ZoneCache.of(zone).epochSecond(local))
+            assertEquals(index, zdt.hour, ZoneCache.of(zone).hour(local))
+        }
+        // gap and overlap of Europe/Zurich in 2024
+        listOf("2024-03-31T02:30:00.000Z", "2024-10-27T02:30:00.000Z").forEach { index ->
+            val zdt = ZonedDateTime.of(LocalDateTime.parse(index, ANALYSES_INDEX_FORMATTER), ZoneId.of("Europe/Zurich"))
+            assertEquals(zdt.toEpochSecond(), ZoneCache.of("Europe/Zurich").epochSecond(parseIndexSeconds(index)))
+            assertEquals(zdt.hour, ZoneCache.of("Europe/Zurich").hour(parseIndexSeconds(index)))
+        }
+    }
+
+    @Test
+    fun testMalformedIndexFailsLikeJavaTime() {
+        listOf("2024-13-01T00:00:00.000Z", "2024-1-01T00:00:00.000Z", "2024-01-01 00:00:00.000Z", "").forEach {
+            try {
+                parseIndexSeconds(it)
+                throw AssertionError("$it parsed")
+            } catch (e: DateTimeParseException) {
+            }
+        }
+    }
+
+    @Ignore(Benchmark.ON_DEMAND)
+    @Test
+    fun benchmarkHundredThousandRows() {
+        val rows = rows(100_000, 3)
+
+        fun runJavaTime() = rows.sumOf { (index, zone) ->
+            val ld = LocalDateTime.parse(index, ANALYSES_INDEX_FORMATTER)
+            val zdt = ZonedDateTime.of(ld, ZoneId.of(zone))
+            val old = ZonedDateTime.of(LocalDateTime.parse(index, ANALYSES_INDEX_FORMATTER), ZoneId.of("UTC"))
+            zdt.toEpochSecond() + old.toEpochSecond() + zdt.hour
+        }
+
+        fun runCached() = rows.sumOf { (index, zone) ->
+            val local = parseIndexSeconds(index)
+            val cached = ZoneCache.of(zone)
+            cached.epochSecond(local) + local + cached.hour(local)
+        }
+
+        assertEquals(runJavaTime(), runCached())
+        Benchmark.assertFaster(Benchmark.measure(10) { runJavaTime() }, Benchmark.measure(10) { runCached() })
+    }
+}
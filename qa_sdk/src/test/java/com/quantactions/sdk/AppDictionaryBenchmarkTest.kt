@@ -0,0 +1,112 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.entity.CodeOfApp
+import com.quantactions.sdk.data.repository.AppDictionary
+import junit.framework.TestCase.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Compares [AppDictionary] with the lookup previously done by the session save (load the whole
+ * `code_of_app` table, then a linear search of the list for every tap and slot).
+ */
+class AppDictionaryBenchmarkTest {
+
+    /** Stand-in for the `code_of_app` table. */
+    private class Table(names: List<String>) {
+        val rows = names.mapIndexed { i, name -> CodeOfApp(i + 1, name, 0) }.toMutableList()
+        var loads = 0
+        val inserts = mutableListOf<List<CodeOfApp>>()
+
+        fun load(): List<CodeOfApp> {
+            loads++
+            return rows.toList()
+        }
+
+        fun insert(apps: List<CodeOfApp>): List<Long> {
+            inserts.add(apps)
+            return apps.map { app ->
+                val id = rows.size + 1
+                rows.add(CodeOfApp(id, app.appName, 0))
+                id.toLong()
+            }
+        }
+    }
+
+    private val installed = List(500) { "com.example.app$it" }
+
+    @Test
+    fun testNewAppsAreInsertedOnceInOneBatch() {
+        val table = Table(installed)
+        val dictionary = AppDictionary(table::load, table::insert)
+
+        val names = listOf("NULL", "com.example.app7", "com.new.one", "com.new.two", "com.new.one")
+        val ids = dictionary.idsOf(names)
+        assertEquals(1, table.inserts.size)
+        assertEquals(listOf("NULL", "com.new.one", "com.new.two"), table.inserts[0].map { it.appName })
+        assertEquals(8, ids[1])
+        assertEquals(ids[2], ids[4])
+        ids.forEachIndexed { i, id -> assertEquals(names[i], table.rows[id - 1].appName) }
+
+        // known now, nothing else goes to the database
+        assertEquals(ids.toList(), dictionary.idsOf(names).toList())
+        assertEquals(1, table.inserts.size)
+        assertEquals(1, table.loads)
+
+        dictionary.invalidate()
+        assertEquals(503, dictionary.size)
+        assertEquals(2, table.loads)
+    }
+
+    @Ignore(Benchmark.ON_DEMAND)
+    @Test
+    fun benchmarkFiveHundredAppsTwoThousandTaps() {
+        val random = Random(1)
+        val sessions = 200
+        val tapsPerSession = 2000
+        // every session visits a handful of apps, each tap has up to three candidate apps
+        val sessionTaps = List(sessions) {
+            val visited = List(12) { installed[random.nextInt(installed.size)] }
+            Array(tapsPerSession) { Array(3) { visited[random.nextInt(visited.size)] } }
+        }
+
+        fun runListFind(): Long {
+            val table = Table(installed)
+            var sum = 0L
+            sessionTaps.forEach { taps ->
+                val currentList = table.load().toMutableList()
+                taps.forEach { slots ->
+                    slots.forEach { app -> sum += currentList.find { it.appName == app }!!.id }
+                }
+            }
+            return sum
+        }
+
+        fun runDictionary(): Long {
+            val table = Table(installed)
+            val dictionary = AppDictionary(table::load, table::insert)
+            var sum = 0L
+            sessionTaps.forEach { taps ->
+                val ids = dictionary.idsOf(taps.flatMap { it.asList() })
+                ids.forEach { sum += it }
+            }
+            return sum
+        }
+
+        assertEquals(runListFind(), runDictionary())
+        Benchmark.assertFaster(
+            Benchmark.measure(3) { runListFind() },
+            Benchmark.measure(3) { runDictionary() }
+        )
+    }
+}
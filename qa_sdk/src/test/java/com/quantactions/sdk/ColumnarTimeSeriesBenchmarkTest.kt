@@ -0,0 +1,105 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Assume
+import org.junit.Ignore
+import org.junit.Test
+import java.time.ZoneId
+import java.time.ZonedDateTime
+import java.time.temporal.ChronoUnit
+import kotlin.random.Random
+
+/**
+ * Compares [ColumnarDoubleTimeSeries] with [TimeSeries.DoubleTimeSeries] on the operations used
+ * by a dashboard (a year of daily values for eight metrics).
+ */
+class ColumnarTimeSeriesBenchmarkTest {
+
+    private val zone = ZoneId.systemDefault()
+    private fun yearOfData(seed: Int): TimeSeries.DoubleTimeSeries {
+        val random = Random(seed)
+        val today = ZonedDateTime.now(zone).truncatedTo(ChronoUnit.DAYS).plusHours(3)
+        // drop some days to have gaps and some NaNs to have something to drop
+        val days = (365 downTo 1).filter { random.nextInt(10) != 0 }
+        val values = days.map { if (random.nextInt(20) == 0) Double.NaN else random.nextDouble() * 100 }
+        return TimeSeries.DoubleTimeSeries(
+            values,
+            days.map { today.minusDays(it.toLong()) },
+            values.map { it - 5 },
+            values.map { it + 5 },
+            values.map { random.nextDouble() },
+        )
+    }
+
+    private fun assertSameSeries(expected: TimeSeries<Double>, actual: TimeSeries<Double>) {
+        assertEquals(expected.size, actual.size)
+        for (i in 0 until expected.size) {
+            assertEquals(expected.values[i], actual.values[i])
+            assertEquals(expected.confidence[i], actual.confidence[i])
+            assertEquals(expected.timestamps[i].toEpochSecond(), actual.timestamps[i].toEpochSecond())
+        }
+    }
+
+    @Test
+    fun testSameResultsAsDoubleTimeSeries() {
+        val boxed = yearOfData(1)
+        val columnar = boxed.toColumnar(zone)
+
+        assertSameSeries(boxed.takeLast(30), columnar.takeLast(30))
+        assertSameSeries(boxed.dropLast(30), columnar.dropLast(30))
+        assertSameSeries(boxed.dropna(), columnar.dropna())
+        assertSameSeries(boxed.filterByValues { it > 50 }, columnar.filterByValues { it > 50 })
+        assertSameSeries(boxed.fillMissingDays(30), columnar.fillMissingDays(30))
+        assertSameSeries(
+            TimeSeries.DoubleTimeSeries().fillMissingDays(366),
+            ColumnarDoubleTimeSeries.of(DoubleArray(0), LongArray(0), zone).fillMissingDays(366)
+        )
+    }
+
+    @Test
+    fun testColumnarAllocatesLess() {
+        Assume.assumeTrue(Allocations.supported)
+        val boxed = yearOfData(0)
+        val columnar = boxed.toColumnar(zone)
+        repeat(3) {
+            boxed.filterByValues { v -> v > 10 }.takeLast(300).dropna().fillMissingDays(30)
+            columnar.filterByValues { v -> v > 10 }.takeLast(300).dropna().fillMissingDays(30)
+        }
+
+        val boxedAlloc = Allocations.measure {
+            boxed.filterByValues { v -> v > 10 }.takeLast(300).dropna().fillMissingDays(30)
+        }
+        val columnarAlloc = Allocations.measure {
+            columnar.filterByValues { v -> v > 10 }.takeLast(300).dropna().fillMissingDays(30)
+        }
+        assertTrue(columnarAlloc < boxedAlloc)
+    }
+
+    @Ignore(Benchmark.ON_DEMAND)
+    @Test
+    fun benchmarkDashboardOperations() {
+        val boxed = List(8) { yearOfData(it) }
+        val columnar = boxed.map { it.toColumnar(zone) }
+
+        fun runBoxed() = boxed.sumOf {
+            it.filterByValues { v -> v > 10 }.takeLast(300).dropna().fillMissingDays(30).size
+        }
+
+        fun runColumnar() = columnar.sumOf {
+            it.filterByValues { v -> v > 10 }.takeLast(300).dropna().fillMissingDays(30).size
+        }
+
+        assertEquals(runBoxed(), runColumnar())
+        Benchmark.assertFaster(Benchmark.measure(200) { runBoxed() }, Benchmark.measure(200) { runColumnar() })
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.api.GzipRequestInterceptor
+import com.quantactions.sdk.data.repository.TapDataBody
+import com.quantactions.sdk.data.repository.TapDataParsedToPush
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.kotlin.reflect.KotlinJsonAdapterFactory
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertNull
+import junit.framework.TestCase.assertTrue
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import okio.GzipSource
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Measures bytes on the wire and CPU time of the gzip request compression for realistic
+ * [TapDataBody] payloads posted to a local [MockWebServer].
+ */
+class GzipRequestBenchmarkTest {
+
+    private lateinit var server: MockWebServer
+    private val json = "application/json; charset=utf8".toMediaType()
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun tapDataBodyJson(sessions: Int, tapsPerSession: Int): String {
+        val random = Random(7)
+        var t = 1_700_000_000_000L
+        val records = (0 until sessions).map { session ->
+            val taps = List(tapsPerSession) { t += random.nextLong(80, 2_000); t }
+            TapDataParsedToPush(
+                session.toString(),
+                taps,
+                taps.first(),
+                taps.last(),
+                List(tapsPerSession) { 1 },
+                listOf(List(tapsPerSession) { random.nextInt(1, 40) }, List(tapsPerSession) { 1 }, List(tapsPerSession) { 1 }),
+                "Europe/Zurich",
+                0
+            )
+        }
+        val moshi = Moshi.Builder().add(KotlinJsonAdapterFactory()).build()
+        return moshi.adapter(TapDataBody::class.java).toJson(TapDataBody(records))
+    }
+
+    private fun post(client: OkHttpClient, body: String, optIn: Boolean) {
+        server.enqueue(MockResponse().setResponseCode(200))
+        val request = Request.Builder()
+            .url(server.url("/flows/identities/i/devices/d/recordings"))
+            .post(body.toRequestBody(json))
+            .apply { if (optIn) header(GzipRequestInterceptor.COMPRESS_HEADER, "gzip") }
+            .build()
+        client.newCall(request).execute().close()
+    }
+
+    @Test
+    fun testSmallBodiesAndNonOptedRequestsAreNotCompressed() {
+        val client = OkHttpClient.Builder().addInterceptor(GzipRequestInterceptor(1024)).build()
+
+        post(client, "{\"records\":[]}", optIn = true)
+        val small = server.takeRequest()
+        assertNull(small.getHeader("Content-Encoding"))
+        assertNull(small.getHeader(GzipRequestInterceptor.COMPRESS_HEADER))
+
+        post(client, tapDataBodyJson(5, 200), optIn = false)
+        assertNull(server.takeRequest().getHeader("Content-Encoding"))
+    }
+
+    @Test
+    fun testTapDataBodiesAreCompressedLosslessly() {
+        val plainClient = OkHttpClient()
+        val gzipClient = OkHttpClient.Builder().addInterceptor(GzipRequestInterceptor()).build()
+
+        for ((sessions, taps) in listOf(1 to 50, 20 to 300, 200 to 300)) {
+            val body = tapDataBodyJson(sessions, taps)
+
+            post(plainClient, body, optIn = false)
+            val plain = server.takeRequest()
+            post(gzipClient, body, optIn = true)
+            val gzip = server.takeRequest()
+
+            assertEquals("gzip", gzip.getHeader("Content-Encoding"))
+            val inflated = Buffer().apply { writeAll(GzipSource(gzip.body)) }.readUtf8()
+            assertEquals(plain.body.readUtf8(), inflated)
+            assertTrue(gzip.bodySize < plain.bodySize)
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.hadiyarajesh.flower_core.ApiResponse
+import com.quantactions.sdk.data.api.ApiService
+import com.quantactions.sdk.data.api.HttpStack
+import com.quantactions.sdk.data.api.TokenApi
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import retrofit2.http.Body
+import java.lang.reflect.ParameterizedType
+import java.lang.reflect.Type
+import java.lang.reflect.WildcardType
+import kotlin.coroutines.Continuation
+
+/**
+ * Checks that the shared [HttpStack.moshi], which has no reflective adapter factory, has an
+ * adapter for every body and response of [ApiService] and [TokenApi].
+ */
+class HttpStackTest {
+
+    /** Type argument of [ApiResponse] in [type], possibly wrapped in a `Flow` or a continuation. */
+    private fun responseType(type: Type): Type? = when (type) {
+        is WildcardType -> responseType(type.lowerBounds.firstOrNull() ?: type.upperBounds.first())
+        is ParameterizedType ->
+            if (type.rawType == ApiResponse::class.java) type.actualTypeArguments[0]
+            else responseType(type.actualTypeArguments[0])
+        else -> null
+    }
+
+    private fun apiTypes(api: Class<*>): Set<Type> {
+        val types = HashSet<Type>()
+        api.declaredMethods.forEach { method ->
+            method.genericParameterTypes.forEachIndexed { i, type ->
+                if (method.parameterAnnotations[i].any { it is Body }) types.add(type)
+                if (type is ParameterizedType && type.rawType == Continuation::class.java) {
+                    responseType(type)?.let(types::add)
+                }
+            }
+            responseType(method.genericReturnType)?.let(types::add)
+        }
+        types.remove(Void::class.java)
+        return types
+    }
+
+    @Test
+    fun testEveryTypeHasAnAdapter() {
+        val types = apiTypes(ApiService::class.java) + apiTypes(TokenApi::class.java)
+        assertTrue(types.size > 30)
+        types.forEach { type ->
+            try {
+                HttpStack.moshi.adapter<Any>(type)
+            } catch (e: IllegalArgumentException) {
+                throw AssertionError("No adapter for $type", e)
+            }
+        }
+    }
+
+    @Test
+    fun testTokenApiBodiesAsWithGson() {
+        // the token API used Gson, which leaves out the null fields
+        val adapter = HttpStack.moshi.adapter(TokenApi.IdentityRegistration::class.java)
+        assertEquals(
+            """{"id":"i","password":"p","gender":"U","nameAlias":"deviceAndroid"}""",
+            adapter.toJson(TokenApi.IdentityRegistration(id = "i", password = "p"))
+        )
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import junit.framework.TestCase.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Compares [literalToLongList] and [literalToIntList] with the original parsers (kept as
+ * [literalToLongListSlow] and [literalToIntListSlow]) on random and malformed input.
+ */
+class LiteralListBenchmarkTest {
+
+    /** Result of [parse] or the class of the exception it throws. */
+    private fun <T> outcome(parse: () -> T): Any? = try {
+        parse()
+    } catch (e: Exception) {
+        e.javaClass
+    }
+
+    @Test
+    fun testFuzzAgainstOriginal() {
+        val random = Random(1)
+        val alphabet = "0123456789,,, []-+\t\n99999999999x ٣"
+        repeat(200_000) {
+            val text = String(CharArray(random.nextInt(30)) { alphabet[random.nextInt(alphabet.length)] })
+            assertEquals(text, outcome { text.literalToLongListSlow() }, outcome { text.literalToLongList() })
+            assertEquals(text, outcome { text.literalToIntListSlow() }, outcome { text.literalToIntList() })
+        }
+    }
+
+    @Test
+    fun testWellFormedLists() {
+        val random = Random(2)
+        repeat(1000) {
+            val longs = List(random.nextInt(50)) { random.nextLong() }
+            val ints = List(random.nextInt(50)) { random.nextInt() }
+            val separator = listOf(",", ", ", " , ")[random.nextInt(3)]
+            assertEquals(longs, longs.joinToString(separator, "[", "]").literalToLongList())
+            assertEquals(ints, ints.joinToString(separator, "[", "]").literalToIntList())
+            assertEquals(longs, longs.toString().literalToLongList())
+        }
+        listOf("", "[]", "[,]", "7", "[7]", "[ 7 ]", "[-9223372036854775808]", "[9223372036854775807]").forEach {
+            assertEquals(it, it.literalToLongListSlow(), it.literalToLongList())
+        }
+        listOf("[2147483648]", "[1 2]", "[ ]", "[-]", "[1,,2]").forEach {
+            assertEquals(it, outcome { it.literalToIntListSlow() }, outcome { it.literalToIntList() })
+        }
+    }
+
+    @Ignore(Benchmark.ON_DEMAND)
+    @Test
+    fun benchmarkFiveThousandElements() {
+        val random = Random(3)
+        val start = 1641471608647L
+        val taps = List(20) { List(5000) { start + random.nextLong(86_400_000) }.toString() }
+        val orientations = List(20) { List(5000) { random.nextInt(2) }.toString() }
+
+        fun runSlow() = taps.sumOf { it.literalToLongListSlow().size } + orientations.sumOf { it.literalToIntListSlow().size }
+        fun runFast() = taps.sumOf { it.literalToLongArray().size } + orientations.sumOf { it.literalToIntArray().size }
+
+        assertEquals(200_000, runSlow())
+        assertEquals(200_000, runFast())
+        Benchmark.assertFaster(Benchmark.measure(10) { runSlow() }, Benchmark.measure(10) { runFast() })
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.repository.ParticipationGate
+import junit.framework.TestCase.assertEquals
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class ParticipationGateTest {
+
+    @Test
+    fun testWaitersGetTheResolvedParticipation() = runTest {
+        val gate = ParticipationGate()
+        val waiters = List(10) { async { gate.await() } }
+        launch {
+            delay(500)
+            gate.resolve("participation")
+        }
+        assertEquals(List(10) { "participation" }, waiters.awaitAll())
+        assertEquals(500L, currentTime)
+    }
+
+    @Test
+    fun testTimeoutReturnsWhatIsKnown() = runTest {
+        val gate = ParticipationGate()
+        assertEquals("", gate.await(1_000))
+        assertEquals(1_000L, currentTime)
+    }
+
+    @Test
+    fun testReleaseKeepsTheResolvedParticipation() = runTest {
+        val gate = ParticipationGate()
+        gate.resolve("participation")
+        gate.release()
+        assertEquals("participation", gate.await())
+
+        val empty = ParticipationGate()
+        empty.release()
+        assertEquals("", empty.await())
+        assertEquals(0L, currentTime)
+    }
+}
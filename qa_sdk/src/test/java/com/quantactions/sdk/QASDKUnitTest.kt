@@ -11,6 +11,8 @@ package com.quantactions.sdk
 
 import junit.framework.TestCase.assertEquals
 import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.test.runTest
 import org.junit.Test
 import java.time.ZonedDateTime
@@ -194,4 +196,81 @@ class SDKUnitFunctionalityTest {
         timeSeries.fillMissingDays(14)
         println(timeSeries.timestamps)
     }
+
+    @Test
+    fun testAggregationMatchesGroupBy() {
+        val start = ZonedDateTime.parse("2022-09-04T04:00:19.403+02:00[Europe/Zurich]")
+        val timestamps = List(120) { start.plusDays(it.toLong()) }
+        val values = timestamps.map { if (Random.nextDouble() > 0.9) Double.NaN else Random.nextDouble() * 100 }
+        val timeSeries = TimeSeries.DoubleTimeSeries(values, timestamps, values, values, values)
+
+        val expectedWeekly = timestamps.zip(values).groupBy({
+            it.first.with(java.time.temporal.TemporalAdjusters.previousOrSame(java.time.DayOfWeek.MONDAY)).toLocalDate()
+        }, { it.second }).mapValues { (_, v) -> v.filter { !it.isNaN() }.average() }
+        val weekly = timeSeries.extractWeeklyAverages()
+        assertEquals(expectedWeekly.keys.toList(), weekly.timestamps.map { it.toLocalDate() })
+        expectedWeekly.values.zip(weekly.values).forEach { (e, a) -> assertEquals(e, a, 1e-9) }
+
+        val monthly = timeSeries.extractMonthlyAverages()
+        assertEquals(listOf(9, 10, 11, 12, 1), monthly.timestamps.map { it.monthValue })
+    }
+
+    @Test
+    fun testAggregationReducers() {
+        val start = ZonedDateTime.parse("2023-01-02T10:00:00+01:00[Europe/Zurich]")
+        val timestamps = List(6) { start.plusDays(it.toLong()) }
+        val values = listOf(1.0, 5.0, Double.NaN, 2.0, 4.0, 9.0)
+        val timeSeries = TimeSeries.DoubleTimeSeries(values, timestamps, values, values, values)
+        val bucket = TimeBucket.Days(3, start.toLocalDate())
+
+        assertEquals(listOf(3.0, 5.0), timeSeries.aggregate(bucket, Reducer.MEAN).values)
+        assertEquals(listOf(3.0, 4.0), timeSeries.aggregate(bucket, Reducer.MEDIAN).values)
+        assertEquals(listOf(1.0, 2.0), timeSeries.aggregate(bucket, Reducer.MIN).values)
+        assertEquals(listOf(5.0, 9.0), timeSeries.aggregate(bucket, Reducer.MAX).values)
+        assertEquals(listOf(2.0, 3.0), timeSeries.aggregate(bucket, Reducer.COUNT).values)
+        assertEquals(
+            timeSeries.aggregate(TimeBucket.IsoWeek, Reducer.MEDIAN).values,
+            timeSeries.toColumnar().aggregate(TimeBucket.IsoWeek, Reducer.MEDIAN).values
+        )
+    }
+
+    @Test
+    fun testGapIndexExtendsPreviousMapping() {
+        val previous = DayGapIndex.build(longArrayOf(100, 103), 4, 110)
+        val extended = DayGapIndex.build(longArrayOf(100, 103, 107, 107), 4, 112, previous)
+        val fresh = DayGapIndex.build(longArrayOf(100, 103, 107, 107), 4, 112)
+
+        assertEquals(fresh.source.toList(), extended.source.toList())
+        assertEquals(fresh.days.toList(), extended.days.toList())
+        assertEquals((97L..112L).toList(), fresh.days.distinct())
+    }
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    @Test
+    fun testIncrementalFillMissingDays() = runTest {
+        val today = ZonedDateTime.now()
+        val daysAgo = listOf(20L, 17L, 16L, 12L, 5L)
+
+        fun series(n: Int): TimeSeries<Double> {
+            val values = List(n) { it.toDouble() }
+            return TimeSeries.DoubleTimeSeries(
+                values, daysAgo.take(n).map { today.minusDays(it) }, values, values, values
+            )
+        }
+
+        // new trailing points, then a shorter series that can not reuse the previous mapping
+        val versions = listOf(3, 5, 4)
+        val filled = flowOf(*versions.map { series(it) }.toTypedArray()).fillMissingDays(30).toList()
+
+        assertEquals(50, filled[1].size)
+        versions.forEachIndexed { i, n ->
+            val expected = series(n).fillMissingDays(30)
+            assertEquals(expected.values, filled[i].values)
+            assertEquals(expected.confidence, filled[i].confidence)
+            assertEquals(
+                expected.timestamps.map { it.toEpochSecond() },
+                filled[i].timestamps.map { it.toEpochSecond() }
+            )
+        }
+    }
 }
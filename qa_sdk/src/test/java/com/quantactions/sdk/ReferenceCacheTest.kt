@@ -0,0 +1,153 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.api.ReferenceCache
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertNotNull
+import junit.framework.TestCase.assertNull
+import junit.framework.TestCase.assertTrue
+import okhttp3.Cache
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.concurrent.TimeUnit
+
+/**
+ * Checks the policies of [ReferenceCache] against a local [MockWebServer] that answers with an
+ * ETag and `no-cache`, and counts the round-trips.
+ */
+class ReferenceCacheTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var server: MockWebServer
+    private lateinit var client: OkHttpClient
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse =
+                if (request.path == "/analyses") {
+                    // cacheable as far as the server is concerned
+                    MockResponse().setResponseCode(200)
+                        .addHeader("Cache-Control", "max-age=3600")
+                        .setBody("""[{"code":"003-001-001-002"}]""")
+                } else if (request.getHeader("If-None-Match") == ETAG) {
+                    MockResponse().setResponseCode(304).addHeader("ETag", ETAG)
+                } else {
+                    MockResponse().setResponseCode(200)
+                        .addHeader("ETag", ETAG)
+                        .addHeader("Cache-Control", "no-cache")
+                        .setBody("""[{"code":"sleep"}]""")
+                }
+        }
+        server.start()
+        client = OkHttpClient.Builder()
+            .cache(Cache(folder.newFolder("cache"), 1024 * 1024))
+            .addInterceptor(ReferenceCache.interceptor)
+            .addNetworkInterceptor(ReferenceCache.networkInterceptor)
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun get(path: String, policy: String): String {
+        val (name, value) = policy.split(": ", limit = 2)
+        val request = Request.Builder().url(server.url(path)).header(name, value).build()
+        return client.newCall(request).execute().use { it.body.string() }
+    }
+
+    @Test
+    fun testFreshResponseIsServedFromTheCache() {
+        val before = ReferenceCache.stats
+        repeat(5) { assertEquals("""[{"code":"sleep"}]""", get("/healthyranges", ReferenceCache.DAY)) }
+        val after = ReferenceCache.stats
+
+        assertEquals(1, server.requestCount)
+        assertNull(server.takeRequest().getHeader(ReferenceCache.CACHE_HEADER))
+        assertEquals(1, after.misses - before.misses)
+        assertEquals(4, after.hits - before.hits)
+    }
+
+    @Test
+    fun testRevalidatedWithETag() {
+        val before = ReferenceCache.stats
+        repeat(3) { assertEquals("""[{"code":"sleep"}]""", get("/types", ReferenceCache.REVALIDATE)) }
+        val after = ReferenceCache.stats
+
+        assertEquals(3, server.requestCount)
+        assertNull(server.takeRequest().getHeader("If-None-Match"))
+        assertEquals(ETAG, server.takeRequest().getHeader("If-None-Match"))
+        assertEquals(1, after.misses - before.misses)
+        assertEquals(2, after.revalidated - before.revalidated)
+    }
+
+    @Test
+    fun testStaleResponseIsServedWhileRevalidated() {
+        val policy = "${ReferenceCache.CACHE_HEADER}: max-age=0, stale-while-revalidate=600"
+        assertEquals("""[{"code":"sleep"}]""", get("/questionnaires", policy))
+        assertNull(server.takeRequest().getHeader("If-None-Match"))
+        Thread.sleep(10)
+
+        val before = ReferenceCache.stats
+        assertEquals("""[{"code":"sleep"}]""", get("/questionnaires", policy))
+        val revalidation = server.takeRequest(5, TimeUnit.SECONDS)
+        assertNotNull(revalidation)
+        assertEquals(ETAG, revalidation!!.getHeader("If-None-Match"))
+        val after = ReferenceCache.stats
+
+        assertEquals(1, after.hits - before.hits)
+        assertEquals(1, after.backgroundRevalidations - before.backgroundRevalidations)
+    }
+
+    @Test
+    fun testRequestsWithoutPolicyAreNotStored() {
+        repeat(2) { client.newCall(Request.Builder().url(server.url("/devices")).build()).execute().close() }
+        repeat(2) { client.newCall(Request.Builder().url(server.url("/analyses")).build()).execute().close() }
+        assertEquals(4, server.requestCount)
+        assertNull(server.takeRequest().getHeader("If-None-Match"))
+        assertNull(server.takeRequest().getHeader("If-None-Match"))
+        assertFalse(client.cache!!.urls().hasNext())
+    }
+
+    @Test
+    fun testClearDropsTheStoredResponses() {
+        val directory = folder.newFolder("reference")
+        val cache = ReferenceCache.cache(directory)
+        val cachingClient = client.newBuilder().cache(cache).build()
+        val request = Request.Builder().url(server.url("/healthyranges")).header(
+            ReferenceCache.CACHE_HEADER, ReferenceCache.DAY.substringAfter(": ")
+        ).build()
+        cachingClient.newCall(request).execute().use { it.body.string() }
+        assertTrue(cache.urls().hasNext())
+
+        ReferenceCache.clear(directory)
+        assertFalse(cache.urls().hasNext())
+    }
+
+    companion object {
+        private const val ETAG = "\"v1\""
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.withTimeout
+import org.junit.Ignore
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class SessionPipelineTest {
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    @Test
+    fun testSavesInOrderWithoutOverlap() = runTest {
+        val saved = mutableListOf<Int>()
+        val running = AtomicInteger()
+        val pipeline = SessionPipeline<Int>(backgroundScope) {
+            assertEquals(1, running.incrementAndGet())
+            try {
+                delay(10)
+                if (it == 3) throw IllegalStateException("save failed")
+                saved.add(it)
+            } finally {
+                running.decrementAndGet()
+            }
+        }
+
+        // screen toggled faster than a session can be saved
+        repeat(10) { pipeline.submit(it) }
+        assertEquals(10, pipeline.stats.queueDepth)
+        assertEquals(10, pipeline.stats.maxQueueDepth)
+        advanceUntilIdle()
+
+        assertEquals((0 until 10).filter { it != 3 }, saved)
+        val stats = pipeline.stats
+        assertEquals(10L, stats.submitted)
+        assertEquals(10L, stats.saved)
+        assertEquals(1L, stats.failed)
+        assertEquals(0, stats.queueDepth)
+
+        pipeline.close()
+        assertFalse(pipeline.submit(10))
+    }
+
+    @Ignore(Benchmark.ON_DEMAND)
+    @Test
+    fun benchmarkRapidToggling() = runBlocking {
+        val sessions = 10_000
+        val saved = AtomicInteger()
+        val scope = CoroutineScope(Dispatchers.Default)
+        val pipeline = SessionPipeline<LongArray>(scope) {
+            saved.addAndGet(it.size)
+        }
+        repeat(sessions) { pipeline.submit(LongArray(it % 100)) }
+        withTimeout(10_000) {
+            while (pipeline.stats.saved < sessions) delay(1)
+        }
+        scope.cancel()
+
+        assertEquals((0 until sessions).sumOf { it % 100 }, saved.get())
+    }
+}
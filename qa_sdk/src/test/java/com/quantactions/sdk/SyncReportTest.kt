@@ -0,0 +1,40 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import androidx.work.Data
+import com.quantactions.sdk.workers.SyncReport
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+
+class SyncReportTest {
+
+    @Test
+    fun testStagesAreCarriedAlongTheChain() {
+        val stages = listOf(
+            SyncReport.Stage("updateDevice", SyncReport.Outcome.SUCCESS, 1, 850, 120),
+            SyncReport.Stage("submitStats", SyncReport.Outcome.FAILURE, 0, 300, 80),
+            SyncReport.Stage("submitTapDataParsed", SyncReport.Outcome.SUCCESS, 431, 182_000, 2300),
+        )
+
+        // every worker gets the output of the one before as input
+        var data: Data = SyncReport.cycleInput
+        stages.forEach { data = SyncReport.append(data, it) }
+
+        val report = SyncReport.from(data)
+        assertEquals(stages, report.stages)
+        assertEquals(432L, report.rows)
+        assertEquals(183_150L, report.bytes)
+        assertEquals(2500L, report.millis)
+        assertTrue(data.getBoolean(SyncReport.KEY_CYCLE, false))
+        assertEquals(SyncReport(emptyList()), SyncReport.from(Data.EMPTY))
+    }
+}
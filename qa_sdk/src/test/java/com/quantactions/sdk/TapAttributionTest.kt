@@ -0,0 +1,127 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import junit.framework.TestCase.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Checks [TapAttribution] against the merge previously done by the session save and compares
+ * their speed.
+ */
+class TapAttributionTest {
+
+    private class AppUsageEvent(val packageName: String, val eventTime: Long)
+
+    /** The attribution of the session save before [TapAttribution]: only slot 0, as event index. */
+    private fun mergeAttribution(events: List<AppUsageEvent>, tapTimes: LongArray): IntArray {
+        val sorted = events.sortedWith { o1, o2 -> o1.eventTime.compareTo(o2.eventTime) }
+        val slots = IntArray(tapTimes.size) { TapBuffer.NO_APP }
+        var tapsCounter = 0
+        for (i in 0 until sorted.size - 1) {
+            val nextEventTime = sorted[i + 1].eventTime
+            while (tapsCounter < tapTimes.size && tapTimes[tapsCounter] < nextEventTime) {
+                slots[tapsCounter] = i
+                tapsCounter++
+            }
+        }
+        return slots
+    }
+
+    private fun session(random: Random, nEvents: Int, nTaps: Int): Pair<List<AppUsageEvent>, LongArray> {
+        val events = List(nEvents) {
+            AppUsageEvent("com.example.app${random.nextInt(6)}", random.nextLong(-1000, 60_000))
+        } + AppUsageEvent("NULL", 60_000)
+        val taps = LongArray(nTaps) { random.nextLong(-2000, 60_100) }.apply { sort() }
+        return events to taps
+    }
+
+    private fun foreground(events: List<AppUsageEvent>) = ForegroundEvents().apply {
+        events.forEach { add(it.eventTime, it.packageName) }
+        sort()
+    }
+
+    @Test
+    fun testSameAsMerge() {
+        val random = Random(1)
+        repeat(2000) {
+            val (events, taps) = session(random, random.nextInt(0, 10), random.nextInt(0, 50))
+            val foreground = foreground(events)
+            val slots = TapAttribution.attribute(foreground.times, foreground.apps, foreground.size, taps)
+            val sorted = events.sortedBy { it.eventTime }
+            val expected = mergeAttribution(events, taps)
+            for (t in taps.indices) {
+                val app = slots[0][t]
+                if (expected[t] == TapBuffer.NO_APP) {
+                    assertEquals(TapBuffer.NO_APP, app)
+                } else {
+                    assertEquals(sorted[expected[t]].packageName, foreground.packages[app])
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testPreviousAppsFillTheOtherSlots() {
+        val foreground = ForegroundEvents().apply {
+            add(100, "a")
+            add(200, "b")
+            add(300, "a")
+            add(400, "c")
+            add(500, "NULL")
+        }
+        val taps = longArrayOf(50, 150, 250, 350, 450, 500)
+        val slots = TapAttribution.attribute(foreground.times, foreground.apps, foreground.size, taps)
+        fun names(t: Int) = slots.map { if (it[t] == TapBuffer.NO_APP) "-" else foreground.packages[it[t]] }
+
+        assertEquals(listOf("a", "-", "-"), names(0))
+        assertEquals(listOf("a", "-", "-"), names(1))
+        assertEquals(listOf("b", "a", "-"), names(2))
+        assertEquals(listOf("a", "b", "-"), names(3))
+        assertEquals(listOf("c", "a", "b"), names(4))
+        assertEquals(listOf("-", "-", "-"), names(5))
+    }
+
+    @Test
+    fun testUnorderedEventsAreSorted() {
+        val foreground = ForegroundEvents(1).apply {
+            add(300, "b")
+            add(100, "a")
+            add(500, "NULL")
+            add(300, "c")
+        }
+        assertEquals(listOf(100L, 300L, 300L, 500L), foreground.times.copyOf(foreground.size).toList())
+        assertEquals(listOf("a", "b", "c", "NULL"), foreground.apps.copyOf(foreground.size).map { foreground.packages[it] })
+    }
+
+    @Ignore(Benchmark.ON_DEMAND)
+    @Test
+    fun benchmarkAttribution() {
+        val random = Random(2)
+        val sessions = List(500) { session(random, 30, 2000) }
+
+        fun runMerge() = sessions.sumOf { (events, taps) ->
+            val list = ArrayList<AppUsageEvent>()
+            events.forEach { list.add(AppUsageEvent(it.packageName, it.eventTime)) }
+            mergeAttribution(list, taps).sum().toLong()
+        }
+
+        fun runAttribution() = sessions.sumOf { (events, taps) ->
+            val foreground = foreground(events)
+            TapAttribution.attribute(foreground.times, foreground.apps, foreground.size, taps)
+                .sumOf { it.sum().toLong() }
+        }
+
+        // faster even though the merge only attributes the first of the three slots
+        Benchmark.assertFaster(Benchmark.measure(5) { runMerge() }, Benchmark.measure(5) { runAttribution() })
+    }
+}
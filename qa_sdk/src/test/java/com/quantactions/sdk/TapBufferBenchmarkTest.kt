@@ -0,0 +1,83 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Assume
+import org.junit.Ignore
+import org.junit.Test
+import java.util.Vector
+
+/**
+ * Micro-benchmark of the tap recording path: the [TapBuffer] against the previous
+ * `Vector<EntryLog>` implementation. Timings and allocated bytes are printed, the tests only
+ * check the buffer behaviour and that the steady state of the buffer does not allocate.
+ */
+class TapBufferBenchmarkTest {
+
+    private class LegacyEntryLog(val timeStamp: Long, var top3: Array<String>, val orientation: String)
+
+    @Test
+    fun testBufferGrowsAndDrains() {
+        val buffer = TapBuffer(2)
+        for (i in 0 until 5) buffer.record(i * 10L, (i % 2).toByte())
+        assertEquals(5, buffer.size)
+        assertTrue(buffer.capacity >= 5)
+
+        val snapshot = buffer.drain()
+        assertEquals(0, buffer.size)
+        assertEquals(5, snapshot.size)
+        assertEquals(40L, snapshot.timestamps[4])
+        assertEquals(TapBuffer.ORIENTATION_PORTRAIT, snapshot.orientations[1])
+    }
+
+    @Test
+    fun testSteadyStateDoesNotAllocate() {
+        Assume.assumeTrue(Allocations.supported)
+        val taps = 5_000
+        val rounds = 50
+        val buffer = TapBuffer()
+        runBuffer(buffer, taps, 5)
+
+        // once grown to the session size the buffer must not allocate per tap
+        val allocated = Allocations.measure { runBuffer(buffer, taps, rounds) }
+        assertEquals(0L, allocated / (taps.toLong() * rounds))
+    }
+
+    @Ignore(Benchmark.ON_DEMAND)
+    @Test
+    fun benchmarkTapRecording() {
+        val taps = 5_000
+        val buffer = TapBuffer()
+        Benchmark.assertFaster(
+            Benchmark.measure(200) { runLegacy(taps, 1) },
+            Benchmark.measure(200) { runBuffer(buffer, taps, 1) }
+        )
+    }
+
+    private fun runLegacy(taps: Int, rounds: Int) {
+        repeat(rounds) {
+            val logs = Vector<LegacyEntryLog>()
+            for (i in 0 until taps) {
+                logs.add(LegacyEntryLog(i.toLong(), arrayOf("NULL", "NULL", "NULL"), "P"))
+            }
+        }
+    }
+
+    private fun runBuffer(buffer: TapBuffer, taps: Int, rounds: Int) {
+        repeat(rounds) {
+            buffer.clear()
+            for (i in 0 until taps) {
+                buffer.record(i.toLong(), TapBuffer.ORIENTATION_PORTRAIT)
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.repository.TapSessionCodec
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class TapSessionCodecTest {
+
+    @Test
+    fun testRoundTrip() {
+        val random = Random(42)
+        for (n in listOf(0, 1, 7, 8, 9, 500)) {
+            var t = 1_700_000_000_000L
+            val taps = LongArray(n) { t += random.nextLong(0, 5_000); t }
+            val orientations = IntArray(n) { random.nextInt(0, 2) }
+            val apps0 = IntArray(n) { random.nextInt(1, 600) }
+            val apps1 = IntArray(n) { 1 }
+            val apps2 = IntArray(n) { -1 }
+
+            assertTrue(taps.contentEquals(TapSessionCodec.decodeTimestamps(TapSessionCodec.encodeTimestamps(taps))))
+            assertTrue(orientations.contentEquals(TapSessionCodec.decodeOrientations(TapSessionCodec.encodeOrientations(orientations))))
+            val apps = TapSessionCodec.decodeAppIds(TapSessionCodec.encodeAppIds(apps0, apps1, apps2))
+            assertTrue(apps0.contentEquals(apps[0]))
+            assertTrue(apps1.contentEquals(apps[1]))
+            assertTrue(apps2.contentEquals(apps[2]))
+        }
+    }
+
+    @Test
+    fun testEncodingIsSmallerThanText() {
+        var t = 1_700_000_000_000L
+        val taps = LongArray(500) { t += 150 + it % 300; t }
+        val text = taps.joinToString(prefix = "[", postfix = "]")
+        val blob = TapSessionCodec.encodeTimestamps(taps)
+        assertEquals(true, blob.size * 5 < text.length)
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.repository.TimeSeriesCache
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertNotNull
+import junit.framework.TestCase.assertNull
+import org.junit.Test
+import java.time.ZonedDateTime
+
+class TimeSeriesCacheTest {
+
+    private fun series(n: Int): TimeSeries<Double> {
+        val now = ZonedDateTime.now()
+        val values = List(n) { it.toDouble() }
+        return TimeSeries.DoubleTimeSeries(values, List(n) { now.minusDays(it.toLong()) }, values, values, values)
+    }
+
+    @Test
+    fun testKeysShareCloseRanges() {
+        val from = 1_700_000_000_000L
+        assertEquals(
+            TimeSeriesCache.Key.of(Metric.SLEEP_SCORE, from, from + 1_000),
+            TimeSeriesCache.Key.of(Metric.SLEEP_SCORE, from + 2_000, from + 3_000)
+        )
+        assert(TimeSeriesCache.Key.of(Metric.SLEEP_SCORE, from, from) != TimeSeriesCache.Key.of(Metric.ACTION_SPEED, from, from))
+    }
+
+    @Test
+    fun testEvictionAndInvalidation() {
+        val cache = TimeSeriesCache(maxPoints = 100)
+        val sleep1 = TimeSeriesCache.Key.of(Metric.SLEEP_SCORE, 0, 60_000)
+        val sleep2 = TimeSeriesCache.Key.of(Metric.SLEEP_SCORE, 0, 120_000)
+        val speed = TimeSeriesCache.Key.of(Metric.ACTION_SPEED, 0, 60_000)
+
+        cache.put(sleep1, series(40))
+        cache.put(speed, series(40))
+        assertNotNull(cache[sleep1]) // sleep1 is now the most recently used
+        cache.put(sleep2, series(40))
+
+        assertNull(cache[speed])
+        assertNotNull(cache[sleep1])
+        assertNotNull(cache[sleep2])
+
+        cache.invalidate(Metric.SLEEP_SCORE)
+        assertNull(cache[sleep1])
+        assertNull(cache[sleep2])
+        assertEquals(3L, cache.hits)
+        assertEquals(3L, cache.misses)
+    }
+
+    @Test
+    fun testEntriesExpire() {
+        var now = 0L
+        val cache = TimeSeriesCache(maxAgeMillis = 1_000, now = { now })
+        val key = TimeSeriesCache.Key.of(Metric.SLEEP_SCORE, 0, 60_000)
+
+        cache.put(key, series(10))
+        now = 999
+        assertNotNull(cache[key])
+        now = 1_000
+        assertNull(cache[key])
+    }
+}
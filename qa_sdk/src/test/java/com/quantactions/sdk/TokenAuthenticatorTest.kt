@@ -0,0 +1,153 @@
+/*
+ * *******************************************************************************
+ * Copyright (C) QuantActions AG - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Enea Ceolini <enea.ceolini@quantactions.com>, August 2024
+ * *******************************************************************************
+ */
+
+package com.quantactions.sdk
+
+import com.quantactions.sdk.data.api.ApiService
+import com.quantactions.sdk.data.api.TokenApi
+import com.quantactions.sdk.data.api.TokenAuthenticator
+import com.quantactions.sdk.data.api.jwtExpiry
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertNull
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okio.ByteString.Companion.encodeUtf8
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Fires concurrent requests with an expired access token at a local [MockWebServer] and counts
+ * the token refreshes done by [TokenAuthenticator].
+ */
+class TokenAuthenticatorTest {
+
+    /** Preferences of a device that is registered and has logged in before. */
+    private class Preferences(@Volatile override var accessToken: String?) : GenericPreferences {
+        override var gender = QA.Gender.UNKNOWN
+        override var yearOfBirth = 0
+        override var selfDeclaredHealthy = false
+        override var identityId = "identity"
+        override var password: String? = "password"
+        @Volatile
+        override var refreshToken: String? = "refresh"
+        override var areCredentialsRegistered = true
+        override var isOauthActivated = true
+
+        override fun saveAccessTokens(accessToken: String?, refreshToken: String?) {
+            accessToken?.let { this.accessToken = it }
+            refreshToken?.let { this.refreshToken = it }
+        }
+
+        override fun saveHealthyRanges(code: String, ranges: PopulationRange) = Unit
+
+        override fun getHealthyRanges(code: String): PopulationRange = throw UnsupportedOperationException()
+    }
+
+    private lateinit var server: MockWebServer
+    private val refreshes = AtomicInteger()
+    private val unauthorized = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                if (request.path == "/flows/oauth/refresh") {
+                    refreshes.incrementAndGet()
+                    Thread.sleep(200)
+                    return MockResponse().setResponseCode(200)
+                        .addHeader("Set-Cookie", "accessToken=$FRESH; Path=/")
+                }
+                if (request.getHeader("Cookie")?.contains("accessToken=$FRESH") == true) {
+                    return MockResponse().setResponseCode(200)
+                }
+                unauthorized.incrementAndGet()
+                return MockResponse().setResponseCode(401)
+            }
+        }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun client(preferences: GenericPreferences): OkHttpClient {
+        val cookieJar = ApiService.UvCookieJar(preferences, "test")
+        val tokenApi = TokenApi.buildTokenApi("key", cookieJar, server.url("/").toString())
+        val authenticator = TokenAuthenticator(tokenApi, preferences)
+        return OkHttpClient.Builder()
+            .cookieJar(cookieJar)
+            .authenticator(authenticator)
+            .addInterceptor(authenticator)
+            .build()
+    }
+
+    /** Sends [n] requests at once, returns their status codes. */
+    private fun concurrentRequests(client: OkHttpClient, n: Int): List<Int> {
+        val executor = Executors.newFixedThreadPool(n)
+        val start = CountDownLatch(1)
+        val calls = List(n) { i ->
+            executor.submit<Int> {
+                start.await()
+                val request = Request.Builder().url(server.url("/flows/identities/i/data/$i")).build()
+                client.newCall(request).execute().use { it.code }
+            }
+        }
+        start.countDown()
+        val codes = calls.map { it.get(30, TimeUnit.SECONDS) }
+        executor.shutdown()
+        return codes
+    }
+
+    @Test
+    fun testConcurrent401sRefreshOnce() {
+        val preferences = Preferences("expired")
+        val codes = concurrentRequests(client(preferences), 50)
+
+        assertEquals(List(50) { 200 }, codes)
+        assertEquals(1, refreshes.get())
+        assertEquals(FRESH, preferences.accessToken)
+    }
+
+    @Test
+    fun testTokenAboutToExpireIsRefreshedBeforeTheRequests() {
+        val preferences = Preferences(jwt(System.currentTimeMillis() / 1000 + 10))
+        val codes = concurrentRequests(client(preferences), 50)
+
+        assertEquals(List(50) { 200 }, codes)
+        assertEquals(1, refreshes.get())
+        assertEquals(0, unauthorized.get())
+    }
+
+    @Test
+    fun testJwtExpiry() {
+        assertEquals(1_700_000_000_000L, jwtExpiry(jwt(1_700_000_000)))
+        assertNull(jwtExpiry("expired"))
+        assertNull(jwtExpiry("a.%%%.c"))
+        assertNull(jwtExpiry("""{"alg":"none"}""".encodeUtf8().base64Url() + "." + """{"sub":"x"}""".encodeUtf8().base64Url() + "."))
+    }
+
+    private fun jwt(exp: Long) =
+        """{"alg":"none"}""".encodeUtf8().base64Url() + "." + """{"sub":"identity","exp":$exp}""".encodeUtf8().base64Url() + "."
+
+    companion object {
+        private const val FRESH = "fresh"
+    }
+}